@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.roundtrip;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Service called by the round trip benchmarks. It returns its argument, so request and response
+ * carry the same payload.
+ */
+public interface EchoService {
+
+    Object echo(Object payload);
+
+    CompletableFuture<Object> echoAsync(Object payload);
+
+    class Impl implements EchoService {
+
+        @Override
+        public Object echo(Object payload) {
+            return payload;
+        }
+
+        @Override
+        public CompletableFuture<Object> echoAsync(Object payload) {
+            return CompletableFuture.completedFuture(payload);
+        }
+    }
+}
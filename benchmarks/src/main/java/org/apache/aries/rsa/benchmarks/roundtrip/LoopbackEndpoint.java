@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.roundtrip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.fastbin.FastBinProvider;
+import org.apache.aries.rsa.provider.tcp.TCPProvider;
+import org.apache.aries.rsa.spi.DistributionProvider;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+
+/**
+ * Exports the {@link EchoService} with a distribution provider on loopback and imports it with the
+ * same provider. The endpoint carries no framework UUID, so the proxy calls the service over a
+ * connection like a consumer in another framework.
+ */
+final class LoopbackEndpoint implements Closeable {
+    private static final Class<?>[] INTERFACES = new Class[] {EchoService.class};
+
+    private final DistributionProvider provider;
+    private final Endpoint endpoint;
+    private final EchoService proxy;
+
+    /**
+     * @param provider tcp or fastbin
+     */
+    LoopbackEndpoint(String provider) throws Exception {
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, INTERFACES);
+        if ("tcp".equals(provider)) {
+            props.put("aries.rsa.hostname", "localhost");
+            this.provider = new TCPProvider();
+        } else if ("fastbin".equals(provider)) {
+            this.provider = new FastBinProvider("tcp://localhost:0", "localhost", TimeUnit.MINUTES.toMillis(5));
+        } else {
+            throw new IllegalArgumentException("Unknown provider " + provider);
+        }
+        this.endpoint = this.provider.exportService(new EchoService.Impl(), null, props, INTERFACES);
+        this.proxy = (EchoService) this.provider.importEndpoint(EchoService.class.getClassLoader(), null, INTERFACES,
+                                                               endpoint.description());
+    }
+
+    EchoService proxy() {
+        return proxy;
+    }
+
+    @Override
+    public void close() throws IOException {
+        endpoint.close();
+        if (provider instanceof TCPProvider) {
+            ((TCPProvider) provider).close();
+        } else {
+            ((FastBinProvider) provider).close();
+        }
+    }
+}
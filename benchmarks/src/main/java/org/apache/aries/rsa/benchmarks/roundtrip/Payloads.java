@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.roundtrip;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Creates the arguments of the round trip benchmarks with about the given number of bytes of
+ * content
+ */
+final class Payloads {
+
+    /**
+     * Public fields only, like an OSGi DTO. The binary serialization of aries.tcp encodes it
+     * without class descriptors.
+     */
+    public static class ItemDTO {
+        public int id;
+        public long value;
+        public String name;
+    }
+
+    /**
+     * The same DTO for fastbin, which only supports Java serialization
+     */
+    public static class SerializableItemDTO implements Serializable {
+        private static final long serialVersionUID = 1L;
+        public int id;
+        public long value;
+        public String name;
+    }
+
+    /**
+     * Node of a balanced tree whose nodes also reference their parent, so the graph has shared and
+     * cyclic references
+     */
+    public static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+        int value;
+        Node left;
+        Node right;
+        Node parent;
+    }
+
+    private Payloads() {
+    }
+
+    /**
+     * @param type one of primitive, string, dto or graph
+     * @param serializable true if the provider needs Serializable DTOs
+     */
+    static Object create(String type, int size, boolean serializable) {
+        switch (type) {
+        case "primitive":
+            int[] values = new int[Math.max(1, size / 4)];
+            Arrays.fill(values, 42);
+            return values;
+        case "string":
+            char[] chars = new char[size];
+            for (int c = 0; c < size; c++) {
+                chars[c] = (char) ('a' + c % 26);
+            }
+            return new String(chars);
+        case "dto":
+            int count = Math.max(1, size / 16);
+            if (serializable) {
+                SerializableItemDTO[] items = new SerializableItemDTO[count];
+                for (int c = 0; c < count; c++) {
+                    items[c] = new SerializableItemDTO();
+                    items[c].id = c;
+                    items[c].value = c * 31L;
+                    items[c].name = "i" + (c % 100);
+                }
+                return items;
+            }
+            ItemDTO[] items = new ItemDTO[count];
+            for (int c = 0; c < count; c++) {
+                items[c] = new ItemDTO();
+                items[c].id = c;
+                items[c].value = c * 31L;
+                items[c].name = "i" + (c % 100);
+            }
+            return items;
+        case "graph":
+            Node[] nodes = new Node[Math.max(1, size / 16)];
+            for (int c = 0; c < nodes.length; c++) {
+                nodes[c] = new Node();
+                nodes[c].value = c;
+                if (c > 0) {
+                    Node parent = nodes[(c - 1) / 2];
+                    nodes[c].parent = parent;
+                    if (c % 2 == 1) {
+                        parent.left = nodes[c];
+                    } else {
+                        parent.right = nodes[c];
+                    }
+                }
+            }
+            return nodes[0];
+        default:
+            throw new IllegalArgumentException("Unknown payload type " + type);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.roundtrip;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip latency of a single caller through a provider on loopback, for synchronous calls and
+ * calls returning a CompletableFuture. The payload is sent in both directions. Reports the
+ * distribution of the latency in µs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripLatencyBenchmark {
+
+    @Param({"tcp", "fastbin"})
+    public String provider;
+
+    @Param({"primitive", "string", "dto", "graph"})
+    public String payload;
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int size;
+
+    private LoopbackEndpoint endpoint;
+    private EchoService proxy;
+    private Object argument;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        endpoint = new LoopbackEndpoint(provider);
+        proxy = endpoint.proxy();
+        argument = Payloads.create(payload, size, "fastbin".equals(provider));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        endpoint.close();
+    }
+
+    @Benchmark
+    public Object sync() {
+        return proxy.echo(argument);
+    }
+
+    @Benchmark
+    public Object async() throws Exception {
+        return proxy.echoAsync(argument).get();
+    }
+}
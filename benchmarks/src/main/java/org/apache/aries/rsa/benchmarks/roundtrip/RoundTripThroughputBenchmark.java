@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.roundtrip;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Synchronous calls per second of 1, 8 and 64 threads sharing one proxy, so they compete for the
+ * connections of the provider and the worker threads of the exporter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripThroughputBenchmark {
+
+    @Param({"tcp", "fastbin"})
+    public String provider;
+
+    @Param({"primitive", "string", "dto", "graph"})
+    public String payload;
+
+    @Param({"16", "1024"})
+    public int size;
+
+    private LoopbackEndpoint endpoint;
+    private EchoService proxy;
+    private Object argument;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        endpoint = new LoopbackEndpoint(provider);
+        proxy = endpoint.proxy();
+        argument = Payloads.create(payload, size, "fastbin".equals(provider));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        endpoint.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object threads1() {
+        return proxy.echo(argument);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object threads8() {
+        return proxy.echo(argument);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object threads64() {
+        return proxy.echo(argument);
+    }
+}
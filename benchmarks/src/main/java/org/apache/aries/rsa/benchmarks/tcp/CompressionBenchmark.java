@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.tcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
+import org.apache.aries.rsa.provider.tcp.ser.Compressors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sends a large object graph with repetitive content from one side to the other the way the
+ * aries.tcp provider does: serialize, compress, transfer, decompress and deserialize. The transfer
+ * is simulated by waiting the time the payload takes on a link of the given bandwidth, so the cost
+ * of compressing can be weighed against the bytes it saves on a LAN and on a throttled link.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"none", "deflate", "snappy"})
+    public String compression;
+
+    /**
+     * Bandwidth of the link in Mbit/s, 1000 for a LAN and 20 for a throttled link
+     */
+    @Param({"1000", "20"})
+    public int bandwidth;
+
+    private BinarySerialization serialization = new BinarySerialization();
+    private Compression codec;
+    private Compressors sender;
+    private Compressors receiver;
+    private List<OrderLineDTO> lines;
+    private int payloadSize;
+    private int wireSize;
+
+    public static class OrderLineDTO {
+        public String product;
+        public String warehouse;
+        public String status;
+        public int quantity;
+        public double price;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        codec = Compression.forName(compression);
+        if (!codec.isAvailable()) {
+            throw new IllegalStateException("Compression " + compression + " is not available");
+        }
+        sender = new Compressors();
+        receiver = new Compressors();
+        lines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            OrderLineDTO line = new OrderLineDTO();
+            line.product = "product-" + (i % 50);
+            line.warehouse = "warehouse-" + (i % 4);
+            line.status = i % 10 == 0 ? "BACKORDERED" : "AVAILABLE";
+            line.quantity = i % 7 + 1;
+            line.price = 9.99 + i % 20;
+            lines.add(line);
+        }
+        byte[] payload = serialize(lines);
+        payloadSize = payload.length;
+        wireSize = compress(payload).length;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        sender.close();
+        receiver.close();
+        System.out.printf("%n%s at %d Mbit/s: %d bytes payload, %d bytes on the wire%n", compression, bandwidth,
+                          payloadSize, wireSize);
+    }
+
+    @Benchmark
+    public Object transfer() throws Exception {
+        byte[] payload = serialize(lines);
+        byte[] wire = compress(payload);
+        transmit(wire.length);
+        return deserialize(decompress(wire, payload.length));
+    }
+
+    private byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutput out = serialization.createOutput(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object deserialize(byte[] payload) throws Exception {
+        try (ObjectInput in = serialization.createInput(new ByteArrayInputStream(payload), getClass().getClassLoader())) {
+            return in.readObject();
+        }
+    }
+
+    private byte[] compress(byte[] payload) {
+        if (codec == Compression.NONE) {
+            return payload;
+        }
+        byte[] compressed = sender.compress(codec, payload, 0, payload.length);
+        return compressed != null ? compressed : payload;
+    }
+
+    private byte[] decompress(byte[] wire, int length) throws IOException {
+        if (codec == Compression.NONE) {
+            return wire;
+        }
+        byte[] payload = new byte[length];
+        receiver.decompress(codec, wire, 0, wire.length, payload);
+        return payload;
+    }
+
+    /**
+     * Waits the time the bytes take on the link. Spinning is more precise than sleeping for the
+     * short times on a LAN.
+     */
+    private void transmit(int bytes) {
+        long end = System.nanoTime() + bytes * 8L * 1000L / bandwidth;
+        while (System.nanoTime() < end) {
+            // busy wait
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.benchmarks.tcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.provider.tcp.ser.ConnectionDictionary;
+import org.apache.aries.rsa.provider.tcp.ser.JavaSerialization;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes the request of a call with small arguments the way the aries.tcp provider
+ * sends it over a persistent connection. With the dictionary the endpoint id, the serialization
+ * name and the class names and descriptors are referenced once the receiver acknowledged them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallCallEncodingBenchmark {
+    private static final String ENDPOINT_ID = "tcp://localhost:8201/2c7a04b5-4ae0-4c64-a0c4-15d5ab3d38e1";
+    private static final long METHOD_ID = 0x5d4c2b1a09f8e7d6L;
+
+    @Param({"binary", "java"})
+    public String serialization;
+
+    @Param({"true", "false"})
+    public boolean dictionary;
+
+    private Serialization codec;
+    private ConnectionDictionary client;
+    private ConnectionDictionary server;
+    private Object[] args;
+    private int requestSize;
+
+    public static class PointDTO {
+        public int x;
+        public int y;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        codec = "java".equals(serialization) ? new JavaSerialization() : new BinarySerialization();
+        client = dictionary ? new ConnectionDictionary() : null;
+        server = dictionary ? new ConnectionDictionary() : null;
+        PointDTO point = new PointDTO();
+        point.x = 3;
+        point.y = 4;
+        args = new Object[] {"test", 42, point};
+        // the first call defines the dictionary entries, the following ones reference them
+        decode(encode());
+        if (dictionary) {
+            ByteArrayOutputStream acks = new ByteArrayOutputStream();
+            server.writeAcks(new DataOutputStream(acks));
+            client.readAcks(new DataInputStream(new ByteArrayInputStream(acks.toByteArray())));
+        }
+        requestSize = encode().size();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%s, dictionary %s: %d bytes per request%n", serialization, dictionary, requestSize);
+    }
+
+    @Benchmark
+    public Object call() throws Exception {
+        return decode(encode());
+    }
+
+    private FrameStream encode() throws IOException {
+        FrameStream frame = new FrameStream(client);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeLong(1L);
+        if (client != null) {
+            client.writeAcks(out);
+            client.writeString(out, ENDPOINT_ID);
+            out.writeLong(METHOD_ID);
+            client.writeString(out, codec.getName());
+        } else {
+            out.writeUTF(ENDPOINT_ID);
+            out.writeLong(METHOD_ID);
+            out.writeUTF(codec.getName());
+        }
+        try (ObjectOutput objects = codec.createOutput(frame)) {
+            objects.writeObject(args);
+        }
+        return frame;
+    }
+
+    private Object decode(FrameStream frame) throws Exception {
+        FrameInput in = new FrameInput(frame.toByteArray(), server);
+        in.readLong();
+        if (server != null) {
+            server.readAcks(in);
+            server.readString(in);
+            in.readLong();
+            server.readString(in);
+        } else {
+            in.readUTF();
+            in.readLong();
+            in.readUTF();
+        }
+        try (ObjectInput objects = codec.createInput(in, SmallCallEncodingBenchmark.class.getClassLoader())) {
+            return objects.readObject();
+        }
+    }
+
+    private static final class FrameStream extends ByteArrayOutputStream implements ConnectionDictionary.Source {
+        private final ConnectionDictionary dictionary;
+
+        FrameStream(ConnectionDictionary dictionary) {
+            super(256);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public ConnectionDictionary getDictionary() {
+            return dictionary;
+        }
+    }
+
+    private static final class FrameInput extends DataInputStream implements ConnectionDictionary.Source {
+        private final ConnectionDictionary dictionary;
+
+        FrameInput(byte[] data, ConnectionDictionary dictionary) {
+            super(new ByteArrayInputStream(data));
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public ConnectionDictionary getDictionary() {
+            return dictionary;
+        }
+    }
+}
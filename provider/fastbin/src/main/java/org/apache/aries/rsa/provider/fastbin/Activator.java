@@ -24,6 +24,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.aries.rsa.provider.fastbin.io.ClientInvoker;
 import org.apache.aries.rsa.provider.fastbin.io.ServerInvoker;
+import org.apache.aries.rsa.provider.fastbin.tcp.ClientInvokerImpl;
 import org.apache.aries.rsa.provider.fastbin.util.UuidGenerator;
 import org.apache.aries.rsa.spi.DistributionProvider;
 import org.osgi.annotation.bundle.Capability;
@@ -64,11 +65,13 @@ public class Activator extends BaseActivator implements ManagedService {
             exportedAddress = UuidGenerator.getHostName();
         }
         long timeout = getLong("timeout", TimeUnit.MINUTES.toMillis(5));
-        provider = new FastBinProvider(uri, exportedAddress, timeout);
+        int minConnections = getInt("minConnections", 0);
+        int dispatchShards = getInt("dispatchShards", ClientInvokerImpl.DEFAULT_SHARDS);
+        provider = new FastBinProvider(uri, exportedAddress, timeout, minConnections, dispatchShards);
         client = provider.getClient();
         server = provider.getServer();
         Dictionary<String, Object> props = new Hashtable<>();
-        props.put(RemoteConstants.REMOTE_INTENTS_SUPPORTED, new String[]{});
+        props.put(RemoteConstants.REMOTE_INTENTS_SUPPORTED, new String[]{FastBinProvider.BY_REFERENCE_INTENT, FastBinProvider.ONE_WAY_INTENT});
         props.put(RemoteConstants.REMOTE_CONFIGS_SUPPORTED, provider.getSupportedTypes());
         register(DistributionProvider.class, provider, props);
     }
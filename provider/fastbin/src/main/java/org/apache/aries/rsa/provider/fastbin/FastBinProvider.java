@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
@@ -36,9 +38,11 @@ import org.apache.aries.rsa.provider.fastbin.util.UuidGenerator;
 import org.apache.aries.rsa.spi.DistributionProvider;
 import org.apache.aries.rsa.spi.Endpoint;
 import org.apache.aries.rsa.spi.IntentUnsatisfiedException;
+import org.apache.aries.rsa.util.StringPlus;
 import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.slf4j.Logger;
@@ -53,22 +57,55 @@ public class FastBinProvider implements DistributionProvider {
 
     public static final String FASTBIN_ADDRESS = FASTBIN_CONFIG_TYPE + ".address";
 
+    /**
+     * Announces that the server of the endpoint resolves the method ids of compact request headers
+     */
+    public static final String FASTBIN_METHOD_IDS = FASTBIN_CONFIG_TYPE + ".methodIds";
+
+    /**
+     * Allows consumers in the same framework to pass arguments and results by reference
+     */
+    public static final String BY_REFERENCE_INTENT = "aries.byReference";
+
+    /**
+     * Calls all void methods of the service one-way
+     */
+    public static final String ONE_WAY_INTENT = "aries.oneway";
+
     private final String uri;
     private final String exportedAddress;
     private final long timeout;
+    private final int minConnections;
 
     private final DispatchQueue queue = Dispatch.createQueue();
     private final Map<String, SerializationStrategy> serializationStrategies = new ConcurrentHashMap<>();
+    private final Map<String, Object> localServices = new ConcurrentHashMap<>();
 
     private ClientInvoker client;
     private ServerInvoker server;
 
     public FastBinProvider(java.lang.String uri, java.lang.String exportedAddress, long timeout) throws Exception {
+        this(uri, exportedAddress, timeout, 0);
+    }
+
+    /**
+     * @param minConnections number of transports connected to an address when an endpoint is imported
+     */
+    public FastBinProvider(java.lang.String uri, java.lang.String exportedAddress, long timeout, int minConnections) throws Exception {
+        this(uri, exportedAddress, timeout, minConnections, ClientInvokerImpl.DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param minConnections number of transports connected to an address when an endpoint is imported
+     * @param dispatchShards number of dispatch queues the client spreads its calls across
+     */
+    public FastBinProvider(java.lang.String uri, java.lang.String exportedAddress, long timeout, int minConnections, int dispatchShards) throws Exception {
         this.uri = uri;
         this.exportedAddress = exportedAddress;
         this.timeout = timeout;
+        this.minConnections = minConnections;
         // Create client and server
-        this.client = new ClientInvokerImpl(queue, timeout, serializationStrategies);
+        this.client = new ClientInvokerImpl(queue, timeout, serializationStrategies, dispatchShards);
         this.server = new ServerInvokerImpl(uri, queue, serializationStrategies);
         this.client.start();
         this.server.start();
@@ -146,7 +183,18 @@ public class FastBinProvider implements DistributionProvider {
         URI connectUri = URI.create(this.server.getConnectAddress());
         String fastbinAddress = connectUri.getScheme() + "://" + exportedAddress + ":" + connectUri.getPort();
         effectiveProperties.put(FASTBIN_ADDRESS, fastbinAddress);
+        effectiveProperties.put(FASTBIN_METHOD_IDS, "true");
         effectiveProperties.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, getSupportedTypes());
+        List<String> intents = new ArrayList<>();
+        for (String intent : new String[] {BY_REFERENCE_INTENT, ONE_WAY_INTENT}) {
+            if (hasIntent(effectiveProperties.get(RemoteConstants.SERVICE_EXPORTED_INTENTS), intent)
+                || hasIntent(effectiveProperties.get(RemoteConstants.SERVICE_EXPORTED_INTENTS_EXTRA), intent)) {
+                intents.add(intent);
+            }
+        }
+        if (!intents.isEmpty()) {
+            effectiveProperties.put(RemoteConstants.SERVICE_INTENTS, intents);
+        }
 
         // Now, export the service
         final EndpointDescription description = new EndpointDescription(effectiveProperties);
@@ -159,6 +207,7 @@ public class FastBinProvider implements DistributionProvider {
             public void unget() {
             }
         }, serviceO.getClass().getClassLoader());
+        localServices.put(description.getId(), serviceO);
 
         return new Endpoint() {
             @Override
@@ -168,6 +217,7 @@ public class FastBinProvider implements DistributionProvider {
 
             @Override
             public void close() throws IOException {
+                localServices.remove(description.getId());
                 server.unregisterService(description.getId());
             }
         };
@@ -180,9 +230,34 @@ public class FastBinProvider implements DistributionProvider {
                                  EndpointDescription endpoint)
             throws IntentUnsatisfiedException {
 
-        String address = (String) endpoint.getProperties().get(FASTBIN_ADDRESS);
-        InvocationHandler handler = client.getProxy(address, endpoint.getId(), cl);
+        Object localService = getLocalService(consumerContext, endpoint);
+        InvocationHandler handler;
+        if (localService != null) {
+            boolean byReference = endpoint.getIntents().contains(BY_REFERENCE_INTENT);
+            handler = client.getLocalProxy(endpoint.getId(), localService, cl, byReference);
+        } else {
+            String address = (String) endpoint.getProperties().get(FASTBIN_ADDRESS);
+            boolean methodIds = Boolean.parseBoolean(String.valueOf(endpoint.getProperties().get(FASTBIN_METHOD_IDS)));
+            handler = client.getProxy(address, endpoint.getId(), cl, endpoint.getIntents().contains(ONE_WAY_INTENT), minConnections, methodIds);
+        }
         return Proxy.newProxyInstance(cl, interfaces, handler);
     }
 
+    /**
+     * Endpoints exported by this provider to the framework of the consumer are called without a transport
+     */
+    private Object getLocalService(BundleContext consumerContext, EndpointDescription endpoint) {
+        Object service = localServices.get(endpoint.getId());
+        if (service == null || endpoint.getFrameworkUUID() == null
+            || !endpoint.getFrameworkUUID().equals(consumerContext.getProperty(Constants.FRAMEWORK_UUID))) {
+            return null;
+        }
+        return service;
+    }
+
+    private static boolean hasIntent(Object intents, String intent) {
+        List<String> names = StringPlus.normalize(intents);
+        return names != null && names.contains(intent);
+    }
+
 }
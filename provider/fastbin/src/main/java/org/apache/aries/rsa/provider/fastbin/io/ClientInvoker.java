@@ -24,4 +24,31 @@ public interface ClientInvoker extends Service {
 
     InvocationHandler getProxy(String address, String service, ClassLoader classLoader);
 
+    /**
+     * @param oneWay true to call all void methods one-way, otherwise only those annotated as one-way
+     */
+    InvocationHandler getProxy(String address, String service, ClassLoader classLoader, boolean oneWay);
+
+    /**
+     * Creates a proxy that starts connecting to the address right away. The returned handler is an
+     * {@link org.apache.aries.rsa.spi.ImportReadiness} that completes once the connections are up.
+     *
+     * @param minConnections number of transports to connect ahead of the first call
+     */
+    InvocationHandler getProxy(String address, String service, ClassLoader classLoader, boolean oneWay, int minConnections);
+
+    /**
+     * @param methodIds true if the endpoint announced that its server resolves method ids. Otherwise
+     *        every request names the service and method.
+     */
+    InvocationHandler getProxy(String address, String service, ClassLoader classLoader, boolean oneWay, int minConnections, boolean methodIds);
+
+    /**
+     * Creates a proxy that calls a service of the same framework without a transport.
+     *
+     * @param target the exported service object
+     * @param byReference true to pass arguments and results by reference instead of copying them
+     */
+    InvocationHandler getLocalProxy(String service, Object target, ClassLoader classLoader, boolean byReference);
+
 }
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin.streams;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.aries.rsa.provider.fastbin.Activator;
+
+/**
+ * Stands in for a {@link Stream} in remote calls. The receiver gets a stream that reads the
+ * elements in batches from the sender once it consumed the previous batch.
+ */
+public class ElementStreamProxy implements Serializable {
+
+    /** field <code>serialVersionUID</code> */
+    private static final long serialVersionUID = -3162545312464780386L;
+    protected static final int BATCH_SIZE = 64;
+    private int streamID;
+    private String address;
+
+    private transient StreamProvider streamProvider;
+
+    public ElementStreamProxy(int streamID, String address) {
+        this.streamID = streamID;
+        this.address = address;
+    }
+
+    /**
+     * @return a stream of the remote elements. Closing it before its end releases the remote stream
+     */
+    public Stream<Object> toStream() {
+        RemoteIterator elements = new RemoteIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(elements, Spliterator.ORDERED), false)
+            .onClose(elements::close);
+    }
+
+    private void readObject(ObjectInputStream stream)
+            throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        InvocationHandler handler = Activator.getInstance().getClient().getProxy(address, StreamProvider.STREAM_PROVIDER_SERVICE_NAME, getClass().getClassLoader());
+        streamProvider = (StreamProvider)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{StreamProvider.class}, handler);
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return toStream();
+    }
+
+    protected void setStreamProvider(StreamProvider streamProvider) {
+        this.streamProvider = streamProvider;
+    }
+
+    private class RemoteIterator implements Iterator<Object> {
+
+        private Object[] batch = new Object[0];
+        private int position;
+        private boolean reachedEnd;
+
+        @Override
+        public boolean hasNext() {
+            if (position == batch.length && !reachedEnd) {
+                fetch();
+            }
+            return position < batch.length;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object next = batch[position];
+            batch[position++] = null;
+            return next;
+        }
+
+        private void fetch() {
+            try {
+                batch = streamProvider.next(streamID, BATCH_SIZE);
+                position = 0;
+                reachedEnd = batch.length < BATCH_SIZE;
+            } catch (IOException e) {
+                reachedEnd = true;
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            if (!reachedEnd) {
+                reachedEnd = true;
+                try {
+                    streamProvider.close(streamID);
+                } catch (Exception e) {
+                    //NOOP
+                }
+            }
+        }
+    }
+}
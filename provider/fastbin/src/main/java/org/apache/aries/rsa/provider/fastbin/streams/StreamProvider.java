@@ -21,6 +21,7 @@ package org.apache.aries.rsa.provider.fastbin.streams;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.stream.Stream;
 
 import org.apache.aries.rsa.provider.fastbin.io.ServerInvoker;
 
@@ -47,6 +48,16 @@ public interface StreamProvider {
      */
     Chunk read(int streamID) throws IOException;
 
+    /**
+     * reads the next elements from the specified element stream. The elements are only produced
+     * on request, so the reader controls the pace of the stream.
+     * @param streamID
+     * @param max the maximum number of elements to read
+     * @return the next elements. Fewer than max elements mark the end of the stream
+     * @throws IOException
+     */
+    Object[] next(int streamID, int max) throws IOException;
+
     /**
      * writes the next chunk of data to the specified output stream
      * @param streamID
@@ -69,6 +80,13 @@ public interface StreamProvider {
      */
     int registerStream(OutputStream out);
 
+    /**
+     * registers a new (local) element stream that will be made available for remote calls.
+     * @param elements
+     * @return the stream id
+     */
+    int registerStream(Stream<?> elements);
+
 }
 
 
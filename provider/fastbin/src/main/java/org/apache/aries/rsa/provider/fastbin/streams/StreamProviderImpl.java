@@ -22,8 +22,11 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 public class StreamProviderImpl implements StreamProvider {
 
@@ -56,6 +59,13 @@ public class StreamProviderImpl implements StreamProvider {
         return streamID;
     }
 
+    @Override
+    public int registerStream(Stream<?> elements) {
+        int streamID = counter.incrementAndGet();
+        streams.put(streamID, new ElementSource(elements));
+        return streamID;
+    }
+
     @Override
     public void close(int streamID) throws IOException {
         Closeable stream = streams.remove(streamID);
@@ -83,6 +93,26 @@ public class StreamProviderImpl implements StreamProvider {
         return new Chunk(result, chunkNumber.incrementAndGet());
     }
 
+    @Override
+    public Object[] next(int streamID, int max) throws IOException {
+        ElementSource source = getStream(streamID);
+        Object[] result = new Object[max];
+        int read = 0;
+        try {
+            while (read < max && source.elements.hasNext()) {
+                result[read++] = source.elements.next();
+            }
+        } catch (RuntimeException e) {
+            close(streamID);
+            throw new IOException("Failed to read stream " + streamID, e);
+        }
+        if (read < max) {
+            close(streamID); //we are finished, best clean it up right away
+            result = Arrays.copyOf(result, read);
+        }
+        return result;
+    }
+
     @Override
     public void write(int streamID, Chunk chunk) throws IOException {
         OutputStream out = getStream(streamID);
@@ -107,7 +137,20 @@ public class StreamProviderImpl implements StreamProvider {
         }
     }
 
-}
+    private static class ElementSource implements Closeable {
 
+        private final Stream<?> stream;
+        private final Iterator<?> elements;
+
+        ElementSource(Stream<?> stream) {
+            this.stream = stream;
+            this.elements = stream.iterator();
+        }
 
+        @Override
+        public void close() {
+            stream.close();
+        }
+    }
 
+}
@@ -22,9 +22,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import org.apache.aries.rsa.provider.fastbin.Activator;
 import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
+import org.apache.aries.rsa.provider.fastbin.streams.ElementStreamProxy;
 import org.apache.aries.rsa.provider.fastbin.streams.InputStreamProxy;
 import org.apache.aries.rsa.provider.fastbin.streams.OutputStreamProxy;
 import org.fusesource.hawtbuf.DataByteArrayInputStream;
@@ -68,11 +70,16 @@ public abstract class AbstractInvocationStrategy implements InvocationStrategy
             int streamID = Activator.getInstance().getServer().getStreamProvider().registerStream(out);
             value = new OutputStreamProxy(streamID, Activator.getInstance().getServer().getConnectAddress());
         }
+        else if (value instanceof Stream) {
+            Stream<?> elements = (Stream<?>)value;
+            int streamID = Activator.getInstance().getServer().getStreamProvider().registerStream(elements);
+            value = new ElementStreamProxy(streamID, Activator.getInstance().getServer().getConnectAddress());
+        }
         return value;
     }
 
     protected boolean isStream(Class<?> clazz) {
-        return clazz==InputStream.class || clazz==OutputStream.class;
+        return clazz==InputStream.class || clazz==OutputStream.class || clazz==Stream.class;
     }
 
 
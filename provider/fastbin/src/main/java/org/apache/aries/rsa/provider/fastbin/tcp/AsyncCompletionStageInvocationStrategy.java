@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin.tcp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+/**
+ * Serves methods returning a {@link CompletionStage} that is not a future. The response is sent
+ * when the stage completes, the client receives a CompletableFuture.
+ */
+@SuppressWarnings("rawtypes")
+public class AsyncCompletionStageInvocationStrategy extends AsyncFutureInvocationStrategy {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void doService(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, final DataByteArrayOutputStream responseStream, final Runnable onComplete) {
+
+        final AsyncServiceResponse helper = new AsyncServiceResponse(loader, method, responseStream, onComplete, serializationStrategy);
+        try {
+            Class<?>[] types = method.getParameterTypes();
+            final Object[] args = new Object[types.length];
+            serializationStrategy.decodeRequest(loader, types, requestStream, args);
+            CompletionStage<Object> stage = (CompletionStage<Object>)method.invoke(target, args);
+            stage.whenComplete((returnValue, exception) -> {
+                if (exception instanceof CompletionException && exception.getCause() != null) {
+                    exception = exception.getCause();
+                }
+                helper.send(exception, returnValue);
+            });
+
+        } catch (Throwable t) {
+            helper.send(t, null);
+        }
+    }
+}
@@ -19,18 +19,19 @@
 package org.apache.aries.rsa.provider.fastbin.tcp;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 
 import org.apache.aries.rsa.provider.fastbin.api.AsyncCallback;
@@ -39,11 +40,12 @@ import org.fusesource.hawtbuf.DataByteArrayInputStream;
 import org.fusesource.hawtbuf.DataByteArrayOutputStream;
 import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
+import org.osgi.util.promise.Promise;
 
 @SuppressWarnings("rawtypes")
 public class AsyncFutureInvocationStrategy extends AbstractInvocationStrategy {
 
-    private FutureCompleter completer = new FutureCompleter();
+    private final FutureCompleter completer = new FutureCompleter();
 
     @SuppressWarnings("unchecked")
     protected void doService(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, final DataByteArrayOutputStream responseStream, final Runnable onComplete) {
@@ -149,82 +151,91 @@ public class AsyncFutureInvocationStrategy extends AbstractInvocationStrategy {
     }
 
     /**
-     * Helper class that polls available futures in a background thread for readiness
-     * and reports them to a completable future
-     *
+     * Reports the outcome of futures to completable futures. Futures that notify listeners are
+     * completed by a callback that runs on the global dispatch queue, so the response is not encoded
+     * on the thread that completes the future. All others are polled on that queue, first after 1 ms
+     * and then with a doubling interval of at most 50 ms, so the delay stays small compared to the
+     * run time of the future.
      */
-    private static class FutureCompleter extends Thread {
-
-        private ConcurrentMap<Future<Object>, CompletableFuture<Object>> futures;
-        private Semaphore counter;
-        private AtomicBoolean started;
-
-        public FutureCompleter() {
-            setName("Fastbin-Future-Completer");
-            setDaemon(true);
-            futures = new ConcurrentHashMap<>();
-            counter = new Semaphore(0);
-            started = new AtomicBoolean(false);
+    static class FutureCompleter {
+
+        static final long MIN_POLL_MILLIS = 1;
+        static final long MAX_POLL_MILLIS = 50;
+
+        private final ConcurrentMap<Class<?>, Optional<Method>> listenerMethods = new ConcurrentHashMap<>();
+
+        public CompletableFuture<Object> complete(final Future<Object> future) {
+            final CompletableFuture<Object> completable = new CompletableFuture<>();
+            if (future instanceof CompletionStage) {
+                ((CompletionStage<?>)future).whenComplete((result, error) -> {
+                    if (error instanceof CompletionException && error.getCause() != null) {
+                        completable.completeExceptionally(error.getCause());
+                    } else if (error != null) {
+                        completable.completeExceptionally(error);
+                    } else {
+                        completable.complete(result);
+                    }
+                });
+            } else if (future.isDone()) {
+                completeFrom(future, completable);
+            } else if (future instanceof Promise) {
+                ((Promise<?>)future).onResolve(() -> completeFrom(future, completable));
+            } else if (!addListener(future, completable)) {
+                poll(future, completable, MIN_POLL_MILLIS);
+            }
+            return completable;
         }
 
-        @Override
-        public void run() {
-            while(true) {
-                // all currently available entries will be processed
-                int takenPermits = Math.max(1, counter.availablePermits());
-                try {
-                    counter.acquire(takenPermits);
-                }
-                catch (InterruptedException e) {
-                    continue;
+        /**
+         * Registers a callback with futures that offer addListener(Runnable, Executor) like the
+         * ListenableFuture of Guava
+         */
+        private boolean addListener(final Future<Object> future, final CompletableFuture<Object> completable) {
+            Optional<Method> addListener = listenerMethods.computeIfAbsent(future.getClass(), FutureCompleter::findListenerMethod);
+            if (!addListener.isPresent()) {
+                return false;
+            }
+            try {
+                Runnable listener = () -> completeFrom(future, completable);
+                addListener.get().invoke(future, listener, Dispatch.getGlobalQueue());
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private static Optional<Method> findListenerMethod(Class<?> type) {
+            try {
+                Method method = type.getMethod("addListener", Runnable.class, Executor.class);
+                if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                    method.setAccessible(true);
                 }
-                Set<Entry<Future<Object>, CompletableFuture<Object >>> entrySet = futures.entrySet();
-                int processed = 0;
-                for (Entry<Future<Object>, CompletableFuture<Object>> entry : entrySet) {
-                    if(processed == takenPermits) {
-                        //we only release as many as we took permits. The remainder will be handled in the next iteration
-                        break;
-                    }
-                    Future< ? > future = entry.getKey();
-                    if(future.isDone()) {
-                        try {
-                            Object object = future.get();
-                            entry.getValue().complete(object);
-                        }
-                        catch (ExecutionException e) {
-                            entry.getValue().completeExceptionally(e.getCause());
-                        }
-                        catch (Exception e) {
-                            entry.getValue().completeExceptionally(e);
-                        }
-                        futures.remove(future);
-                        processed++;
-                    }
-                    else {
-                        // if the future is complete, the permit is not released
-                        counter.release();
-                    }
-                    try {
-                        Thread.sleep(20);
-                    }
-                    catch (InterruptedException e) {
-                        // sleep a little to wait for additional futures to complete
+                return Optional.of(method);
+            } catch (Exception e) {
+                return Optional.empty();
+            }
+        }
+
+        private void poll(final Future<Object> future, final CompletableFuture<Object> completable, final long delay) {
+            Dispatch.getGlobalQueue().executeAfter(delay, TimeUnit.MILLISECONDS, new Runnable() {
+                public void run() {
+                    if (future.isDone()) {
+                        completeFrom(future, completable);
+                    } else {
+                        poll(future, completable, Math.min(delay * 2, MAX_POLL_MILLIS));
                     }
                 }
-            }
+            });
         }
 
-        public CompletableFuture<Object> complete(Future<Object> future) {
-            if(started.compareAndSet(false, true)) {
-                start();
+        private static void completeFrom(Future<Object> future, CompletableFuture<Object> completable) {
+            try {
+                completable.complete(future.get());
+            } catch (ExecutionException e) {
+                completable.completeExceptionally(e.getCause());
+            } catch (Throwable e) {
+                completable.completeExceptionally(e);
             }
-            CompletableFuture<Object> completable = new CompletableFuture<>();
-            futures.put(future, completable);
-            counter.release();
-            return completable;
         }
     }
 }
-
-
-
@@ -19,11 +19,18 @@
 package org.apache.aries.rsa.provider.fastbin.tcp;
 
 import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -37,20 +44,36 @@ import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
 import org.apache.aries.rsa.provider.fastbin.io.ClientInvoker;
 import org.apache.aries.rsa.provider.fastbin.io.ProtocolCodec;
 import org.apache.aries.rsa.provider.fastbin.io.Transport;
+import org.apache.aries.rsa.spi.ImportReadiness;
 import org.fusesource.hawtbuf.Buffer;
-import org.fusesource.hawtbuf.BufferEditor;
 import org.fusesource.hawtbuf.DataByteArrayInputStream;
 import org.fusesource.hawtbuf.DataByteArrayOutputStream;
 import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.osgi.framework.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Sends the requests of the proxies over pooled transports. The calls are spread across shards,
+ * each with its own dispatch queue, transports and requests in flight, so the framing and the
+ * response routing of the shards run in parallel. All state of a shard is only accessed on its queue.
+ */
 public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
 
+    /**
+     * Default number of shards, one per processor up to 8
+     */
+    public static final int DEFAULT_SHARDS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8));
+
+    /**
+     * Correlation id of one-way requests, the server does not answer them
+     */
+    public static final long ONE_WAY_CORRELATION = 0;
+
     protected static final Logger LOGGER = LoggerFactory.getLogger(ClientInvokerImpl.class);
 
     @SuppressWarnings("rawtypes")
@@ -69,20 +92,33 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     protected final AtomicLong correlationGenerator = new AtomicLong();
     protected final DispatchQueue queue;
-    protected final Map<String, TransportPool> transports = new HashMap<>();
+    protected final Shard[] shards;
     protected final AtomicBoolean running = new AtomicBoolean(false);
-    protected final Map<Long, ResponseFuture> requests = new HashMap<>();
     protected final long timeout;
     protected final Map<String, SerializationStrategy> serializationStrategies;
+    private final AtomicInteger nextShard = new AtomicInteger();
 
     public ClientInvokerImpl(DispatchQueue queue, Map<String, SerializationStrategy> serializationStrategies) {
         this(queue, DEFAULT_TIMEOUT, serializationStrategies);
     }
 
     public ClientInvokerImpl(DispatchQueue queue, long timeout, Map<String, SerializationStrategy> serializationStrategies) {
+        this(queue, timeout, serializationStrategies, DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param queue queue of the first shard, the other shards get queues of their own
+     * @param shardCount number of shards. Each shard keeps its own transports to an address
+     */
+    public ClientInvokerImpl(DispatchQueue queue, long timeout, Map<String, SerializationStrategy> serializationStrategies, int shardCount) {
         this.queue = queue;
         this.timeout = timeout;
         this.serializationStrategies = serializationStrategies;
+        this.shards = new Shard[Math.max(1, shardCount)];
+        int poolSize = Math.max(1, TransportPool.DEFAULT_POOL_SIZE / shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i == 0 ? queue : Dispatch.createQueue("fastbin client shard " + i), poolSize);
+        }
     }
 
     public DispatchQueue queue() {
@@ -106,23 +142,17 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     public void stop(final Runnable onComplete) {
         if (running.compareAndSet(true, false)) {
-            queue().execute(new Runnable() {
+            final AtomicInteger stopped = new AtomicInteger(shards.length);
+            final Runnable shardStopped = new Runnable() {
                 public void run() {
-                    final AtomicInteger latch = new AtomicInteger(transports.size());
-                    final Runnable countDown = new Runnable() {
-                        public void run() {
-                            if (latch.decrementAndGet() == 0) {
-                                if (onComplete != null) {
-                                    onComplete.run();
-                                }
-                            }
-                        }
-                    };
-                    for (TransportPool pool : transports.values()) {
-                        pool.stop(countDown);
+                    if (stopped.decrementAndGet() == 0 && onComplete != null) {
+                        onComplete.run();
                     }
                 }
-            });
+            };
+            for (Shard shard : shards) {
+                shard.stop(shardStopped);
+            }
         } else {
             if (onComplete != null) {
                 onComplete.run();
@@ -131,16 +161,58 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     }
 
     public InvocationHandler getProxy(String address, String service, ClassLoader classLoader) {
-        return new ProxyInvocationHandler(address, service, classLoader);
+        return getProxy(address, service, classLoader, false);
+    }
+
+    public InvocationHandler getProxy(String address, String service, ClassLoader classLoader, boolean oneWay) {
+        return new ProxyInvocationHandler(address, service, classLoader, oneWay);
+    }
+
+    public InvocationHandler getProxy(String address, String service, ClassLoader classLoader, boolean oneWay, int minConnections) {
+        return getProxy(address, service, classLoader, oneWay, minConnections, false);
+    }
+
+    public InvocationHandler getProxy(String address, String service, ClassLoader classLoader, boolean oneWay, int minConnections, boolean methodIds) {
+        ProxyInvocationHandler handler = new ProxyInvocationHandler(address, service, classLoader, oneWay, methodIds);
+        if (minConnections > 0) {
+            handler.ready = warmUp(address, minConnections);
+        }
+        return handler;
+    }
+
+    /**
+     * Connects the transports to the address ahead of the first call. The connections are spread
+     * across the shards.
+     */
+    protected CompletableFuture<Void> warmUp(final String address, final int connections) {
+        if (!running.get()) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            done.completeExceptionally(new IllegalStateException("DOSGi Client stopped"));
+            return done;
+        }
+        List<CompletableFuture<Void>> shardsDone = new ArrayList<>();
+        for (int i = 0; i < shards.length && i < connections; i++) {
+            int shardConnections = connections / shards.length + (i < connections % shards.length ? 1 : 0);
+            shardsDone.add(shards[i].warmUp(address, shardConnections));
+        }
+        return CompletableFuture.allOf(shardsDone.toArray(new CompletableFuture[shardsDone.size()]));
+    }
+
+    private Shard nextShard() {
+        return shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    public InvocationHandler getLocalProxy(String service, Object target, ClassLoader classLoader, boolean byReference) {
+        return new LocalInvocationHandler(service, target, classLoader, byReference);
     }
 
-    protected void onCommand(TransportPool pool, Object data) {
+    protected void onCommand(Shard shard, TransportPool pool, Object data) {
         try {
             DataByteArrayInputStream bais = new DataByteArrayInputStream( (Buffer) data);
             bais.readInt();
             long correlation = bais.readVarLong();
             pool.onDone(correlation);
-            ResponseFuture response = requests.remove(correlation);
+            ResponseFuture response = shard.requests.remove(correlation);
             if( response!=null ) {
                 response.set(bais);
             }
@@ -149,8 +221,8 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         }
     }
 
-    protected void onFailure(Object id, Throwable throwable) {
-        ResponseFuture response = requests.remove(id);
+    protected void onFailure(Shard shard, Object id, Throwable throwable) {
+        ResponseFuture response = shard.requests.remove(id);
         if( response!=null ) {
             response.fail(throwable);
         }
@@ -162,11 +234,33 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         private final SerializationStrategy serializationStrategy;
         final Buffer signature;
         final InvocationStrategy invocationStrategy;
+        final boolean voidMethod;
+        final boolean oneWay;
 
-        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Buffer signature) {
+        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Buffer signature, Method method) {
             this.invocationStrategy = invocationStrategy;
             this.serializationStrategy = serializationStrategy;
             this.signature = signature;
+            this.voidMethod = method.getReturnType() == void.class && invocationStrategy instanceof BlockingInvocationStrategy;
+            this.oneWay = voidMethod && hasOneWayAnnotation(method);
+        }
+
+        /**
+         * Void methods are one-way if the proxy calls all of them one-way or the method is annotated
+         * with an annotation named Oneway or OneWay, like javax.jws.Oneway
+         */
+        boolean isOneWay(boolean allVoidMethods) {
+            return oneWay || allVoidMethods && voidMethod;
+        }
+
+        private static boolean hasOneWayAnnotation(Method method) {
+            for (Annotation annotation : method.getAnnotations()) {
+                String name = annotation.annotationType().getSimpleName();
+                if ("Oneway".equals(name) || "OneWay".equals(name)) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
@@ -201,7 +295,7 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
             final InvocationStrategy strategy = InvocationType.forMethod(method);
 
-            rc = new MethodData(strategy, serializationStrategy, signature);
+            rc = new MethodData(strategy, serializationStrategy, signature, method);
             synchronized (method_cache) {
                 method_cache.put(method, rc);
             }
@@ -225,43 +319,39 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             throw new IllegalStateException("DOSGi Client stopped");
         }
 
-        final long correlation = correlationGenerator.incrementAndGet();
+        MethodData methodData = getMethodData(method);
+        final boolean oneWay = methodData.isOneWay(handler.oneWay);
+        final long correlation = oneWay ? ONE_WAY_CORRELATION : correlationGenerator.incrementAndGet();
 
         // Encode the request before we try to pass it onto
         // IO layers so that #1 we can report encoding error back to the caller
         // and #2 reduce CPU load done in the execution queue since it's
         // serially executed.
 
+        // The header depends on the connection the request is sent over, so only
+        // space for it is left here.
         DataByteArrayOutputStream baos = new DataByteArrayOutputStream((int) (handler.lastRequestSize*1.10));
-        baos.writeInt(0); // we don't know the size yet...
-        baos.writeVarLong(correlation);
-        writeBuffer(baos, service);
-
-        MethodData methodData = getMethodData(method);
-        writeBuffer(baos, methodData.signature);
+        baos.skip(RequestFrame.reserve(service, methodData.signature));
 
         final ResponseFuture future = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
 
         // toBuffer() is better than toByteArray() since it avoids an
         // array copy.
-        final Buffer command = baos.toBuffer();
+        final Buffer buffer = baos.toBuffer();
+        handler.lastRequestSize = buffer.length;
+        final RequestFrame command = new RequestFrame(correlation, service, methodData.signature, buffer, handler.methodIds);
 
-
-        // Update the field size.
-        BufferEditor editor = command.buffer().bigEndianEditor();
-        editor.writeInt(command.length);
-        handler.lastRequestSize = command.length;
-
-        queue().execute(new Runnable() {
+        final Shard shard = nextShard();
+        shard.queue.execute(new Runnable() {
             public void run() {
                 try {
-                    TransportPool pool = transports.get(address);
-                    if (pool == null) {
-                        pool = new InvokerTransportPool(address, queue());
-                        transports.put(address, pool);
-                        pool.start();
+                    TransportPool pool = shard.getTransportPool(address);
+                    if (oneWay) {
+                        // nothing waits for a response, so the transport does not track it either
+                        pool.offer(command, null);
+                        return;
                     }
-                    requests.put(correlation, future);
+                    shard.requests.put(correlation, future);
                     pool.offer(command, correlation);
                 } catch (Exception e) {
                     LOGGER.info("Error while sending request", e);
@@ -270,26 +360,81 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             }
         });
 
+        if (oneWay) {
+            return null;
+        }
+
         // TODO: make that configurable, that's only for tests
         return future.get(timeout, TimeUnit.MILLISECONDS);
     }
 
-    private void writeBuffer(DataByteArrayOutputStream baos, Buffer value) throws IOException {
-        baos.writeVarInt(value.length);
-        baos.write(value);
+    /**
+     * Passes the request through the same serialization and invocation strategies as a remote
+     * call, but hands the encoded request and response over in memory. The service is called on
+     * the thread of the caller unless it is {@link Dispatched}.
+     */
+    protected Object requestLocal(final LocalInvocationHandler handler, final Method method, final Object[] args) throws Exception {
+        if (!running.get()) {
+            throw new IllegalStateException("DOSGi Client stopped");
+        }
+
+        final Method targetMethod = handler.getTargetMethod(method);
+        final MethodData methodData = getMethodData(method);
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream(handler.lastRequestSize);
+        final ResponseFuture future = methodData.invocationStrategy.request(methodData.serializationStrategy, handler.classLoader, method, args, baos);
+        final Buffer request = baos.toBuffer();
+        handler.lastRequestSize = Math.max(request.length, 64);
+
+        Runnable task = new Runnable() {
+            public void run() {
+                final DataByteArrayOutputStream response = new DataByteArrayOutputStream();
+                methodData.invocationStrategy.service(methodData.serializationStrategy, handler.targetLoader, targetMethod, handler.target,
+                                                      new DataByteArrayInputStream(request), response, new Runnable() {
+                    public void run() {
+                        try {
+                            future.set(new DataByteArrayInputStream(response.toBuffer()));
+                        } catch (Exception e) {
+                            future.fail(e);
+                        }
+                    }
+                });
+            }
+        };
+        if (handler.target instanceof Dispatched) {
+            ((Dispatched) handler.target).queue().execute(task);
+        } else {
+            task.run();
+        }
+        return future.get(timeout, TimeUnit.MILLISECONDS);
     }
 
-    protected class ProxyInvocationHandler implements InvocationHandler {
+    protected class ProxyInvocationHandler implements InvocationHandler, ImportReadiness {
 
         final String address;
         final UTF8Buffer service;
         final ClassLoader classLoader;
+        final boolean oneWay;
+        final boolean methodIds;
         int lastRequestSize = 250;
+        volatile CompletionStage<Void> ready = CompletableFuture.completedFuture(null);
 
         public ProxyInvocationHandler(String address, String service, ClassLoader classLoader) {
+            this(address, service, classLoader, false);
+        }
+
+        public ProxyInvocationHandler(String address, String service, ClassLoader classLoader, boolean oneWay) {
+            this(address, service, classLoader, oneWay, false);
+        }
+
+        /**
+         * @param methodIds true if the server announced that it resolves method ids
+         */
+        public ProxyInvocationHandler(String address, String service, ClassLoader classLoader, boolean oneWay, boolean methodIds) {
             this.address = address;
             this.service = new UTF8Buffer(service);
             this.classLoader = classLoader;
+            this.oneWay = oneWay;
+            this.methodIds = methodIds;
         }
 
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -309,7 +454,7 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
                     //shortcut for hashcode, toString...
                     return method.invoke(this, args);
                 }
-                return request(this, address, service, classLoader, method, args);
+                return doInvoke(method, args);
             }
             catch (Throwable e) {
                 if (e instanceof ExecutionException) {
@@ -329,18 +474,147 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             }
         }
 
+        protected Object doInvoke(Method method, Object[] args) throws Throwable {
+            return request(this, address, service, classLoader, method, args);
+        }
+
+        @Override
+        public CompletionStage<Void> ready() {
+            return ready;
+        }
+
+    }
+
+    /**
+     * Calls a service exported by the same framework. Arguments and results are copied by the
+     * serialization strategy of the method unless they are passed by reference.
+     */
+    protected class LocalInvocationHandler extends ProxyInvocationHandler {
+
+        final Object target;
+        final ClassLoader targetLoader;
+        final boolean byReference;
+        private final Map<Method, Method> targetMethods = new ConcurrentHashMap<>();
+
+        public LocalInvocationHandler(String service, Object target, ClassLoader classLoader, boolean byReference) {
+            super(null, service, classLoader);
+            this.target = target;
+            this.targetLoader = target.getClass().getClassLoader();
+            this.byReference = byReference;
+        }
+
+        @Override
+        protected Object doInvoke(Method method, Object[] args) throws Throwable {
+            if (!byReference) {
+                return requestLocal(this, method, args);
+            }
+            try {
+                return getTargetMethod(method).invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        Method getTargetMethod(Method method) {
+            Method targetMethod = targetMethods.get(method);
+            if (targetMethod == null) {
+                try {
+                    targetMethod = target.getClass().getMethod(method.getName(), method.getParameterTypes());
+                } catch (NoSuchMethodException e) {
+                    throw new ServiceException("The requested method {" + method.getName() + "} is not available", e);
+                }
+                targetMethods.put(method, targetMethod);
+            }
+            return targetMethod;
+        }
+    }
+
+    /**
+     * Transports and requests in flight of the calls assigned to one shard
+     */
+    protected class Shard {
+
+        final DispatchQueue queue;
+        final int poolSize;
+        final Map<String, TransportPool> transports = new HashMap<>();
+        final Map<Long, ResponseFuture> requests = new HashMap<>();
+
+        Shard(DispatchQueue queue, int poolSize) {
+            this.queue = queue;
+            this.poolSize = poolSize;
+        }
+
+        /**
+         * Must be called on the queue of the shard
+         */
+        TransportPool getTransportPool(String address) throws Exception {
+            TransportPool pool = transports.get(address);
+            if (pool == null) {
+                pool = new InvokerTransportPool(this, address);
+                transports.put(address, pool);
+                pool.start();
+            }
+            return pool;
+        }
+
+        CompletableFuture<Void> warmUp(final String address, final int connections) {
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            queue.execute(new Runnable() {
+                public void run() {
+                    try {
+                        getTransportPool(address).warmUp(connections).whenComplete((result, error) -> {
+                            if (error != null) {
+                                done.completeExceptionally(error);
+                            } else {
+                                done.complete(null);
+                            }
+                        });
+                    } catch (Exception e) {
+                        done.completeExceptionally(e);
+                    }
+                }
+            });
+            return done;
+        }
+
+        void stop(final Runnable onComplete) {
+            queue.execute(new Runnable() {
+                public void run() {
+                    if (transports.isEmpty()) {
+                        onComplete.run();
+                        return;
+                    }
+                    final AtomicInteger latch = new AtomicInteger(transports.size());
+                    final Runnable countDown = new Runnable() {
+                        public void run() {
+                            if (latch.decrementAndGet() == 0) {
+                                onComplete.run();
+                            }
+                        }
+                    };
+                    for (TransportPool pool : transports.values()) {
+                        pool.stop(countDown);
+                    }
+                }
+            });
+        }
     }
 
     protected class InvokerTransportPool extends TransportPool {
 
-        public InvokerTransportPool(String uri, DispatchQueue queue) {
+        private final Shard shard;
+        private final Map<Transport, RequestFrame.MethodIds> methodIds = new WeakHashMap<>();
+        private final DataByteArrayOutputStream header = new DataByteArrayOutputStream(64);
+
+        public InvokerTransportPool(Shard shard, String uri) {
             /*
              * the evict time needs to be 0. Otherwise the client will
              * evict transport objects which breaks the connection for
              * long running async calls.
-             * Since there is limit of 2 transports per uri it shouldn't be that many objects
+             * Since there is limit of 2 transports per uri and shard it shouldn't be that many objects
              */
-            super(uri, queue, TransportPool.DEFAULT_POOL_SIZE, 0);
+            super(uri, shard.queue, shard.poolSize, 0);
+            this.shard = shard;
         }
 
         @Override
@@ -353,14 +627,31 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             return new LengthPrefixedCodec();
         }
 
+        @Override
+        protected boolean doOffer(Transport transport, Object command, Object id) {
+            if (command instanceof RequestFrame) {
+                RequestFrame.MethodIds ids = methodIds.get(transport);
+                if (ids == null) {
+                    ids = new RequestFrame.MethodIds();
+                    methodIds.put(transport, ids);
+                }
+                try {
+                    command = ((RequestFrame) command).frame(ids, header);
+                } catch (IOException e) { // should not happen
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.doOffer(transport, command, id);
+        }
+
         @Override
         protected void onCommand(Object command) {
-            ClientInvokerImpl.this.onCommand(this, command);
+            ClientInvokerImpl.this.onCommand(shard, this, command);
         }
 
         @Override
         protected void onFailure(Object id, Throwable throwable) {
-            ClientInvokerImpl.this.onFailure(id, throwable);
+            ClientInvokerImpl.this.onFailure(shard, id, throwable);
         }
     }
 
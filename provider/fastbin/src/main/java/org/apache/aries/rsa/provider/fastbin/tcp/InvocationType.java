@@ -19,6 +19,7 @@
 package org.apache.aries.rsa.provider.fastbin.tcp;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 
 import org.apache.aries.rsa.provider.fastbin.api.AsyncCallback;
@@ -37,6 +38,16 @@ public enum InvocationType
             return false;
         }
 
+    }, COMPLETION_STAGE(new AsyncCompletionStageInvocationStrategy()){
+
+        /**
+         * The caller gets a CompletableFuture, so subtypes of CompletionStage are not served this way
+         */
+        @Override
+        protected boolean applies(Method method) {
+            return method.getReturnType() == CompletionStage.class;
+        }
+
     }, ASYNC_CALLBACK(new AsyncInvocationStrategy()){
 
         @Override
@@ -23,11 +23,15 @@ import java.io.IOException;
 import java.net.ProtocolException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import org.apache.aries.rsa.provider.fastbin.io.ProtocolCodec;
 import org.fusesource.hawtbuf.Buffer;
@@ -37,11 +41,42 @@ public class LengthPrefixedCodec implements ProtocolCodec {
     /** prevent DOS attacks in case a very large size field is sent. Default is 10MB */
     private static final int MAX_PACKET_SIZE = Integer.getInteger("aries.fastbin.max.packet.bytes", 1024 * 1024 * 10) <= 0 ? Integer.MAX_VALUE : Integer.getInteger("aries.fastbin.max.packet.bytes", 1024 * 1024 * 10);
 
-    final int write_buffer_size = 1024 * 64;
+    /** Socket send and receive buffer size. 0 or less keeps the default of the OS */
+    private static final int WRITE_BUFFER_SIZE = Integer.getInteger("aries.fastbin.send.buffer.bytes", 1024 * 64);
+    private static final int READ_BUFFER_SIZE = Integer.getInteger("aries.fastbin.receive.buffer.bytes", 1024 * 64);
+    /** Messages up to this size are copied into one direct buffer before they are written. 0 or less disables it */
+    private static final int COALESCE_THRESHOLD = Integer.getInteger("aries.fastbin.coalesce.bytes", 1024 * 8);
+
+    private static final int COALESCE_BUFFER_SIZE = 1024 * 64;
+    /** at most that many buffers are handed to a gathering write */
+    private static final int MAX_GATHER = 64;
+    /** direct buffers of connections that have nothing left to write, so idle connections do not hold one */
+    private static final Queue<ByteBuffer> COALESCE_BUFFERS = new ArrayBlockingQueue<>(16);
+
+    final int write_buffer_size;
+    final int coalesce_threshold;
     long write_counter = 0L;
     WritableByteChannel write_channel;
     final Queue<ByteBuffer> next_write_buffers = new LinkedList<>();
     int next_write_size = 0;
+    final ByteBuffer[] write_batch = new ByteBuffer[MAX_GATHER];
+    ByteBuffer coalesce_buffer;
+
+    public LengthPrefixedCodec() {
+        this(WRITE_BUFFER_SIZE, READ_BUFFER_SIZE, COALESCE_THRESHOLD);
+    }
+
+    /**
+     * @param writeBufferSize socket send buffer size, 0 keeps the default of the OS
+     * @param readBufferSize socket receive buffer size, 0 keeps the default of the OS
+     * @param coalesceThreshold messages up to this size are copied into one buffer before they are
+     *        written, 0 writes every message from its own buffer
+     */
+    public LengthPrefixedCodec(int writeBufferSize, int readBufferSize, int coalesceThreshold) {
+        this.write_buffer_size = writeBufferSize;
+        this.read_buffer_size = readBufferSize;
+        this.coalesce_threshold = Math.min(coalesceThreshold, COALESCE_BUFFER_SIZE);
+    }
 
     public boolean full() {
         return false;
@@ -63,7 +98,7 @@ public class LengthPrefixedCodec implements ProtocolCodec {
 
     public void setWritableByteChannel(WritableByteChannel channel) {
         this.write_channel = channel;
-        if (channel instanceof SocketChannel) {
+        if (channel instanceof SocketChannel && write_buffer_size > 0) {
             try {
                 ((SocketChannel) channel).socket().setSendBufferSize(write_buffer_size);
             } catch (SocketException e) {
@@ -86,19 +121,27 @@ public class LengthPrefixedCodec implements ProtocolCodec {
 
     public BufferState flush() throws IOException {
         final long writeCounterBeforeFlush = write_counter;
-        while(!next_write_buffers.isEmpty()) {
-            final ByteBuffer nextBuffer = next_write_buffers.peek();
-            if (nextBuffer.remaining() < 1) {
-                next_write_buffers.remove();
-                continue;
+        int count;
+        while ((count = nextBatch()) > 0) {
+            // one system call for all queued messages instead of one per message
+            long bytesWritten;
+            if (count > 1) {
+                bytesWritten = ((GatheringByteChannel) write_channel).write(write_batch, 0, count);
+            } else {
+                bytesWritten = write_channel.write(write_batch[0]);
             }
-            int bytesWritten = write_channel.write(nextBuffer);
             write_counter += bytesWritten;
             next_write_size -= bytesWritten;
-            if (nextBuffer.remaining() > 0) {
+            boolean written = !write_batch[count - 1].hasRemaining();
+            Arrays.fill(write_batch, 0, count, null);
+            if (!written) {
                 break;
             }
         }
+        if (coalesce_buffer != null && !coalesce_buffer.hasRemaining()) {
+            COALESCE_BUFFERS.offer(coalesce_buffer);
+            coalesce_buffer = null;
+        }
         if (empty()) {
             if (writeCounterBeforeFlush == write_counter) {
                 return BufferState.WAS_EMPTY;
@@ -109,19 +152,68 @@ public class LengthPrefixedCodec implements ProtocolCodec {
         return BufferState.NOT_EMPTY;
     }
 
+    /**
+     * Fills the write batch with the buffers to write next. The rest of the coalesce buffer comes
+     * first, then the queued buffers. Channels that can not gather get one buffer at a time.
+     *
+     * @return number of buffers in the batch
+     */
+    private int nextBatch() {
+        int count = 0;
+        if (coalesce_buffer == null || !coalesce_buffer.hasRemaining()) {
+            coalesce();
+        }
+        if (coalesce_buffer != null && coalesce_buffer.hasRemaining()) {
+            write_batch[count++] = coalesce_buffer;
+        }
+        int max = write_channel instanceof GatheringByteChannel ? write_batch.length : 1;
+        for (Iterator<ByteBuffer> it = next_write_buffers.iterator(); it.hasNext() && count < max;) {
+            ByteBuffer buffer = it.next();
+            if (buffer.hasRemaining()) {
+                write_batch[count++] = buffer;
+            } else {
+                it.remove();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Moves the small messages at the head of the queue into the coalesce buffer.
+     */
+    private void coalesce() {
+        ByteBuffer head = next_write_buffers.peek();
+        if (coalesce_threshold <= 0 || head == null || head.remaining() > coalesce_threshold) {
+            return;
+        }
+        if (coalesce_buffer == null) {
+            coalesce_buffer = COALESCE_BUFFERS.poll();
+            if (coalesce_buffer == null) {
+                coalesce_buffer = ByteBuffer.allocateDirect(COALESCE_BUFFER_SIZE);
+            }
+        }
+        coalesce_buffer.clear();
+        while (head != null && head.remaining() <= coalesce_threshold && head.remaining() <= coalesce_buffer.remaining()) {
+            coalesce_buffer.put(head);
+            next_write_buffers.remove();
+            head = next_write_buffers.peek();
+        }
+        coalesce_buffer.flip();
+    }
+
     public long getWriteCounter() {
         return write_counter;
     }
 
     long read_counter = 0L;
-    int read_buffer_size = 1024 * 64;
+    final int read_buffer_size;
     ReadableByteChannel read_channel = null;
     ByteBuffer read_buffer = ByteBuffer.allocate(4);
 
 
     public void setReadableByteChannel(ReadableByteChannel channel) {
         read_channel = channel;
-        if (channel instanceof SocketChannel) {
+        if (channel instanceof SocketChannel && read_buffer_size > 0) {
             try {
                 ((SocketChannel) channel).socket().setReceiveBufferSize(read_buffer_size);
             } catch (SocketException e) {
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin.tcp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.fusesource.hawtbuf.UTF8Buffer;
+
+/**
+ * Encoded request whose header is written once the connection that sends it is known. The first
+ * request for a method on a connection defines an id for its service and signature, the following
+ * ones only carry that id. Requests to servers that did not announce method ids, and requests for
+ * methods beyond {@link #MAX_METHOD_IDS} of a connection, name the service and method instead.
+ * <p>
+ * The payload is encoded behind enough free space for the longest header, so the header is written
+ * in front of it without copying the payload.
+ */
+class RequestFrame {
+
+    /**
+     * Maximum number of method ids a client defines on one connection. The server closes
+     * connections that define more.
+     */
+    static final int MAX_METHOD_IDS = 4096;
+
+    // size, correlation, marker and method id
+    private static final int MAX_HEADER = 4 + 10 + 1 + 5;
+
+    private final long correlation;
+    private final UTF8Buffer service;
+    private final Buffer signature;
+    private final Buffer buffer;
+    private final boolean methodIds;
+    private final int payloadOffset;
+
+    /**
+     * @param buffer buffer starting with {@link #reserve(UTF8Buffer, Buffer)} bytes of free space
+     *        followed by the payload
+     * @param methodIds true if the server announced that it resolves method ids
+     */
+    RequestFrame(long correlation, UTF8Buffer service, Buffer signature, Buffer buffer, boolean methodIds) {
+        this.correlation = correlation;
+        this.service = service;
+        this.signature = signature;
+        this.buffer = buffer;
+        this.methodIds = methodIds;
+        this.payloadOffset = reserve(service, signature);
+    }
+
+    /**
+     * @return number of bytes to leave free in front of the payload
+     */
+    static int reserve(UTF8Buffer service, Buffer signature) {
+        return MAX_HEADER + 5 + service.length + 5 + signature.length;
+    }
+
+    /**
+     * Writes the header for a connection in front of the payload.
+     *
+     * @param ids method ids of the connection
+     * @param header scratch buffer for the header
+     * @return the complete request
+     */
+    Buffer frame(MethodIds ids, DataByteArrayOutputStream header) throws IOException {
+        header.restart();
+        header.writeInt(0); // we don't know the size yet...
+        header.writeVarLong(correlation);
+        Integer id = methodIds ? ids.get(service, signature) : null;
+        if (id != null) {
+            // a zero length tells the server that no service name follows but a method id
+            header.writeVarInt(0);
+            header.writeVarInt(id << 1);
+        } else if (methodIds && (id = ids.define(service, signature)) != null) {
+            header.writeVarInt(0);
+            header.writeVarInt(id << 1 | 1);
+            writeBuffer(header, service);
+            writeBuffer(header, signature);
+        } else {
+            writeBuffer(header, service);
+            writeBuffer(header, signature);
+        }
+
+        int start = payloadOffset - header.size();
+        Buffer frame = new Buffer(buffer.data, buffer.offset + start, buffer.length - start);
+        System.arraycopy(header.getData(), 0, frame.data, frame.offset, header.size());
+        frame.buffer().bigEndianEditor().writeInt(frame.length);
+        return frame;
+    }
+
+    private static void writeBuffer(DataByteArrayOutputStream header, Buffer value) throws IOException {
+        header.writeVarInt(value.length);
+        header.write(value.data, value.offset, value.length);
+    }
+
+    /**
+     * Ids of the methods a client called over one connection. Only accessed on the queue of the
+     * transport pool.
+     */
+    static class MethodIds {
+
+        private final Map<UTF8Buffer, Map<Buffer, Integer>> ids = new HashMap<>();
+        private int next;
+
+        Integer get(UTF8Buffer service, Buffer signature) {
+            Map<Buffer, Integer> methods = ids.get(service);
+            return methods == null ? null : methods.get(signature);
+        }
+
+        /**
+         * @return the new id or null if the connection has no ids left
+         */
+        Integer define(UTF8Buffer service, Buffer signature) {
+            if (next >= MAX_METHOD_IDS) {
+                return null;
+            }
+            Map<Buffer, Integer> methods = ids.get(service);
+            if (methods == null) {
+                methods = new HashMap<>();
+                ids.put(service, methods);
+            }
+            methods.put(signature, next);
+            return next++;
+        }
+    }
+}
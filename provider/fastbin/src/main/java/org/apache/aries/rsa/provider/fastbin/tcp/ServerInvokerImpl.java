@@ -20,11 +20,15 @@ package org.apache.aries.rsa.provider.fastbin.tcp;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -45,6 +49,7 @@ import org.fusesource.hawtbuf.BufferEditor;
 import org.fusesource.hawtbuf.DataByteArrayInputStream;
 import org.fusesource.hawtbuf.DataByteArrayOutputStream;
 import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.osgi.framework.ServiceException;
 import org.slf4j.Logger;
@@ -70,7 +75,7 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     protected final DispatchQueue queue;
     private final Map<String, SerializationStrategy> serializationStrategies;
     protected final TransportServer server;
-    protected final Map<UTF8Buffer, ServiceFactoryHolder> holders = new HashMap<>();
+    protected final Map<UTF8Buffer, ServiceFactoryHolder> holders = new ConcurrentHashMap<>();
     private StreamProvider streamProvider;
 
     static class MethodData {
@@ -78,11 +83,18 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         private final SerializationStrategy serializationStrategy;
         final InvocationStrategy invocationStrategy;
         final Method method;
+        // the service the method was resolved on, null for error responses
+        final ServiceFactoryHolder holder;
 
         MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Method method) {
+            this(invocationStrategy, serializationStrategy, method, null);
+        }
+
+        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Method method, ServiceFactoryHolder holder) {
             this.invocationStrategy = invocationStrategy;
             this.serializationStrategy = serializationStrategy;
             this.method = method;
+            this.holder = holder;
         }
     }
 
@@ -91,7 +103,8 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         private final ServiceFactory factory;
         private final ClassLoader loader;
         private final Class clazz;
-        private HashMap<Buffer, MethodData> method_cache = new HashMap<>();
+        private final Map<Buffer, MethodData> method_cache = new ConcurrentHashMap<>();
+        private volatile boolean unregistered;
 
         public ServiceFactoryHolder(ServiceFactory factory, ClassLoader loader) {
             this.factory = factory;
@@ -127,7 +140,7 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
                 final InvocationStrategy invocationStrategy = InvocationType.forMethod(method);
 
-                rc = new MethodData(invocationStrategy, serializationStrategy, method);
+                rc = new MethodData(invocationStrategy, serializationStrategy, method, this);
                 method_cache.put(data, rc);
             }
             return rc;
@@ -186,7 +199,11 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     public void unregisterService(final String id) {
         queue().execute(new Runnable() {
             public void run() {
-                holders.remove(new UTF8Buffer(id));
+                ServiceFactoryHolder holder = holders.remove(new UTF8Buffer(id));
+                if (holder != null) {
+                    // connections that bound methods of the service look it up again
+                    holder.unregistered = true;
+                }
             }
         });
     }
@@ -233,18 +250,44 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     }
 
 
-    protected void onCommand(final Transport transport, Object data) {
+    /**
+     * @param methods methods the client bound to ids on the connection the request arrived on
+     */
+    protected void onCommand(final Transport transport, Object data, List<MethodBinding> methods) {
         try {
             final DataByteArrayInputStream bais = new DataByteArrayInputStream((Buffer) data);
             final int size = bais.readInt();
             final long correlation = bais.readVarLong();
 
-            // Use UTF8Buffer instead of string to avoid encoding/decoding UTF-8 strings
-            // for every request.
-            final UTF8Buffer service = readBuffer(bais).utf8();
-            final Buffer encoded_method = readBuffer(bais);
+            // Service ids are never empty, so a zero length marks a request that refers to its
+            // method by the id the client assigned on this connection
+            MethodBinding binding;
+            int length = bais.readVarInt();
+            if (length == 0) {
+                int key = bais.readVarInt();
+                int id = key >>> 1;
+                if ((key & 1) != 0) {
+                    if (id != methods.size() || id >= RequestFrame.MAX_METHOD_IDS) {
+                        fail(transport, "Unexpected definition of method id " + id);
+                        return;
+                    }
+                    // Use UTF8Buffer instead of string to avoid encoding/decoding UTF-8 strings
+                    // for every request.
+                    methods.add(new MethodBinding(readBuffer(bais).utf8(), readBuffer(bais)));
+                } else if (id >= methods.size()) {
+                    fail(transport, "Unknown method id " + id);
+                    return;
+                }
+                binding = methods.get(id);
+            } else {
+                // request of a client that names the service and method every time
+                binding = new MethodBinding(readBuffer(bais, length).utf8(), readBuffer(bais));
+            }
 
-            final ServiceFactoryHolder holder = holders.get(service);
+            final UTF8Buffer service = binding.service;
+            final Buffer encoded_method = binding.method;
+            MethodData methodData = binding.resolved();
+            ServiceFactoryHolder holder = methodData != null ? methodData.holder : holders.get(service);
             Runnable task = null;
             if(holder==null) {
                 String message = "The requested service {"+service+"} is not available";
@@ -254,7 +297,10 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
             final Object svc = holder==null ? null : holder.factory.get();
             if(holder!=null) {
                 try {
-                    final MethodData methodData = holder.getMethodData(encoded_method);
+                    if (methodData == null) {
+                        methodData = holder.getMethodData(encoded_method);
+                        binding.resolve(methodData);
+                    }
                     task = new SendTask(svc, bais, holder, correlation, methodData, transport);
                 }
                 catch (ReflectiveOperationException reflectionEx) {
@@ -278,8 +324,21 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         }
     }
 
+    /**
+     * Closes a connection whose client does not follow the protocol. Its pending calls fail right
+     * away instead of waiting for their timeout.
+     */
+    private void fail(Transport transport, String message) {
+        LOGGER.warn(message + ", closing the connection of " + transport.getRemoteAddress());
+        transport.stop();
+    }
+
     private Buffer readBuffer(DataByteArrayInputStream bais) throws IOException {
-        byte b[] = new byte[bais.readVarInt()];
+        return readBuffer(bais, bais.readVarInt());
+    }
+
+    private Buffer readBuffer(DataByteArrayInputStream bais, int length) throws IOException {
+        byte b[] = new byte[length];
         bais.readFully(b);
         return new Buffer(b);
     }
@@ -288,7 +347,8 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
         public void onAccept(TransportServer transportServer, TcpTransport transport) {
             transport.setProtocolCodec(new LengthPrefixedCodec());
-            transport.setDispatchQueue(queue());
+            // each connection decodes its calls and writes its responses on a queue of its own
+            transport.setDispatchQueue(Dispatch.createQueue("fastbin connection " + transport.getRemoteAddress()));
             transport.setTransportListener(new InvokerTransportListener());
             transport.start();
         }
@@ -298,10 +358,47 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         }
     }
 
+    /**
+     * Service and method a client refers to by an id on one connection. The method is resolved on
+     * the first call and again after its service was unregistered. The binding only keeps a weak
+     * reference to it, so an unregistered service and its class loader are not held by the
+     * connections that called it.
+     */
+    static class MethodBinding {
+
+        final UTF8Buffer service;
+        final Buffer method;
+        private WeakReference<MethodData> resolved;
+
+        MethodBinding(UTF8Buffer service, Buffer method) {
+            this.service = service;
+            this.method = method;
+        }
+
+        /**
+         * @return the method as resolved on the registered service or null
+         */
+        MethodData resolved() {
+            MethodData methodData = resolved == null ? null : resolved.get();
+            if (methodData == null || methodData.holder.unregistered) {
+                resolved = null;
+                return null;
+            }
+            return methodData;
+        }
+
+        void resolve(MethodData methodData) {
+            resolved = new WeakReference<>(methodData);
+        }
+    }
+
     class InvokerTransportListener implements TransportListener {
 
+        // indexed by method id, at most RequestFrame.MAX_METHOD_IDS, only accessed on the queue of the connection
+        private final List<MethodBinding> methods = new ArrayList<>();
+
         public void onTransportCommand(Transport transport, Object command) {
-            ServerInvokerImpl.this.onCommand(transport, command);
+            ServerInvokerImpl.this.onCommand(transport, command, methods);
         }
 
         public void onRefill(Transport transport) {
@@ -362,13 +459,16 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
                 public void run() {
                     if(holder!=null)
                         holder.factory.unget();
+                    if (correlation == ClientInvokerImpl.ONE_WAY_CORRELATION) {
+                        return;
+                    }
                     final Buffer command = baos.toBuffer();
 
                     // Update the size field.
                     BufferEditor editor = command.buffer().bigEndianEditor();
                     editor.writeInt(command.length);
 
-                    queue().execute(new Runnable() {
+                    transport.queue().execute(new Runnable() {
                         public void run() {
                             transport.offer(command);
                         }
@@ -331,6 +331,10 @@ public class TcpTransport implements Transport {
             if (!socketState.isConnected()) {
                 throw new IOException("Not connected.");
             }
+            if (!channel.isOpen()) {
+                // resuming the write source of a closed channel would fail in the selector thread
+                throw new IOException("Channel closed.");
+            }
             if (!getServiceState().isStarted()) {
                 throw new IOException("Not running.");
             }
@@ -19,11 +19,15 @@
 package org.apache.aries.rsa.provider.fastbin.tcp;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -48,6 +52,7 @@ public abstract class TransportPool implements Service {
     protected final DispatchQueue queue;
     protected final LinkedList<Pair> pending = new LinkedList<>();
     protected final Map<Transport, TransportState> transports = new HashMap<>();
+    protected final List<WarmUp> warmUps = new ArrayList<>();
     protected AtomicBoolean running = new AtomicBoolean(false);
 
     protected int poolSize;
@@ -99,8 +104,62 @@ public abstract class TransportPool implements Service {
         });
     }
 
+    /**
+     * Starts transports until the pool has the given number of them, at most its pool size.
+     *
+     * @return completes once that many transports are connected or fails if one of them could not
+     *         connect
+     */
+    public CompletableFuture<Void> warmUp(final int connections) {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        if (!running.get()) {
+            done.completeExceptionally(new IllegalStateException("Transport pool stopped"));
+            return done;
+        }
+        queue.execute(new Runnable() {
+            public void run() {
+                int target = Math.min(connections, poolSize);
+                if (connectedTransports() >= target) {
+                    done.complete(null);
+                    return;
+                }
+                warmUps.add(new WarmUp(target, done));
+                try {
+                    while (transports.size() < target) {
+                        startNewTransport();
+                    }
+                } catch (Exception e) {
+                    LOGGER.info("Unable to start new transport", e);
+                    failWarmUps(e);
+                }
+            }
+        });
+        return done;
+    }
+
+    private int connectedTransports() {
+        int connected = 0;
+        for (TransportState state : transports.values()) {
+            if (state.connected) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    private void failWarmUps(Throwable error) {
+        while (!warmUps.isEmpty()) {
+            warmUps.remove(0).done.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * @param id id of the response to the command or null if it is not answered
+     */
     protected boolean doOffer(Transport transport, Object command, Object id) {
-        transports.get(transport).inflight.add(id);
+        if (id != null) {
+            transports.get(transport).inflight.add(id);
+        }
         return transport.offer(command);
     }
 
@@ -144,6 +203,7 @@ public abstract class TransportPool implements Service {
                                     Pair p = pending.removeFirst();
                                     onFailure(p.id, new IOException("Transport stopped"));
                                 }
+                                failWarmUps(new IOException("Transport stopped"));
                                 onComplete.run();
                             }
                         }
@@ -185,8 +245,19 @@ public abstract class TransportPool implements Service {
         }
     }
 
+    protected static class WarmUp {
+        final int target;
+        final CompletableFuture<Void> done;
+
+        WarmUp(int target, CompletableFuture<Void> done) {
+            this.target = target;
+            this.done = done;
+        }
+    }
+
     protected static class TransportState {
         long time;
+        boolean connected;
         final Set<Object> inflight;
 
         public TransportState() {
@@ -236,6 +307,9 @@ public abstract class TransportPool implements Service {
                     for (Object id : state.inflight) {
                         onFailure(id, error);
                     }
+                    if (!state.connected) {
+                        failWarmUps(error);
+                    }
                 }
                 transport.stop();
                 if (transports.isEmpty()) {
@@ -248,6 +322,18 @@ public abstract class TransportPool implements Service {
         }
 
         public void onTransportConnected(Transport transport) {
+            TransportState state = transports.get(transport);
+            if (state != null) {
+                state.connected = true;
+                int connected = connectedTransports();
+                for (Iterator<WarmUp> it = warmUps.iterator(); it.hasNext();) {
+                    WarmUp warmUp = it.next();
+                    if (warmUp.target <= connected) {
+                        it.remove();
+                        warmUp.done.complete(null);
+                    }
+                }
+            }
             transport.resumeRead();
             onRefill(transport);
         }
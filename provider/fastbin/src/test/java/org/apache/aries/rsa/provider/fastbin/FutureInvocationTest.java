@@ -30,6 +30,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -39,7 +41,10 @@ import java.util.concurrent.TimeUnit;
 import org.apache.aries.rsa.provider.fastbin.InvocationTest.HelloImpl;
 import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
 import org.apache.aries.rsa.provider.fastbin.io.ServerInvoker;
+import org.apache.aries.rsa.provider.fastbin.tcp.AsyncCompletionStageInvocationStrategy;
+import org.apache.aries.rsa.provider.fastbin.tcp.BlockingInvocationStrategy;
 import org.apache.aries.rsa.provider.fastbin.tcp.ClientInvokerImpl;
+import org.apache.aries.rsa.provider.fastbin.tcp.InvocationType;
 import org.apache.aries.rsa.provider.fastbin.tcp.ServerInvokerImpl;
 import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
@@ -155,6 +160,41 @@ public class FutureInvocationTest
     }
 
 
+    @Test
+    public void testInvokeCompletionStage() throws Exception {
+        assertEquals("Hello", testService.helloStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInvokeCompletionStageExceptionally() throws Exception {
+        try {
+            testService.exceptionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expecting exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("test", e.getCause().getMessage());
+        }
+    }
+
+
+    @Test
+    public void testCompletionStageSubtypeIsNotServedAsStage() throws Exception {
+        assertTrue(InvocationType.forMethod(TestService.class.getMethod("helloStage")) instanceof AsyncCompletionStageInvocationStrategy);
+        // the proxy could not return the CompletableFuture of the stage strategy for it
+        assertTrue(InvocationType.forMethod(NamedStageService.class.getMethod("helloNamedStage")) instanceof BlockingInvocationStrategy);
+    }
+
+
+    public interface NamedStage<T> extends CompletionStage<T>
+    {
+        String getName();
+    }
+
+    public interface NamedStageService
+    {
+        NamedStage<String> helloNamedStage();
+    }
+
     public interface TestService
     {
         CompletableFuture<String> helloAsync();
@@ -162,6 +202,10 @@ public class FutureInvocationTest
         Future<String> helloAsyncStandardFuture();
 
         CompletableFuture<String> exceptionAsync() throws IOException;
+
+        CompletionStage<String> helloStage();
+
+        CompletionStage<String> exceptionStage();
     }
 
     public class TestServiceImpl implements TestService {
@@ -181,6 +225,18 @@ public class FutureInvocationTest
              return f;
         }
 
+        @Override
+        public CompletionStage<String> helloStage() {
+            return CompletableFuture.supplyAsync(() -> "Hel").thenApply(s -> s + "lo");
+        }
+
+        @Override
+        public CompletionStage<String> exceptionStage() {
+            return CompletableFuture.supplyAsync(() -> {
+                throw new CompletionException(new IOException("test"));
+            });
+        }
+
         private void sleep(long time) {
             try {
                 Thread.sleep(time);
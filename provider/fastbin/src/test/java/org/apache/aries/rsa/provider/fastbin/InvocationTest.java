@@ -21,23 +21,33 @@ package org.apache.aries.rsa.provider.fastbin;
 import static org.fusesource.hawtdispatch.Dispatch.createQueue;
 import static org.junit.Assert.*;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.aries.rsa.provider.fastbin.api.AsyncCallback;
 import org.apache.aries.rsa.provider.fastbin.api.AsyncCallbackFuture;
 import org.apache.aries.rsa.provider.fastbin.api.Dispatched;
+import org.apache.aries.rsa.provider.fastbin.api.ObjectSerializationStrategy;
 import org.apache.aries.rsa.provider.fastbin.api.ProtobufSerializationStrategy;
 import org.apache.aries.rsa.provider.fastbin.api.Serialization;
 import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
@@ -45,6 +55,10 @@ import org.apache.aries.rsa.provider.fastbin.io.ServerInvoker;
 import org.apache.aries.rsa.provider.fastbin.tcp.ClientInvokerImpl;
 import org.apache.aries.rsa.provider.fastbin.tcp.ServerInvokerImpl;
 import org.apache.aries.rsa.provider.fastbin.test.StringValue;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.fusesource.hawtbuf.UTF8Buffer;
 import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.junit.Test;
@@ -445,6 +459,309 @@ public class InvocationTest {
         }
     }
 
+    @Test(timeout=30*1000)
+    public void testShardedClient() throws Exception {
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+
+        DispatchQueue queue = Dispatch.createQueue();
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, ClientInvokerImpl.DEFAULT_TIMEOUT, map, 4);
+        client.start();
+
+        try {
+            final HelloImpl helloImpl = new HelloImpl();
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return helloImpl;
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            final Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            final AtomicInteger failures = new AtomicInteger(0);
+            Thread[] threads = new Thread[20];
+            for (int t = 0; t < threads.length; t++) {
+                final String name = "Fabric" + t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < 100; i++) {
+                            if (!("Hello " + name + "!").equals(hello.hello(name))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, failures.get());
+        }
+        finally {
+            server.stop();
+            final CountDownLatch stopped = new CountDownLatch(1);
+            client.stop(stopped::countDown);
+            assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testMethodIds() throws Exception {
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+
+        DispatchQueue queue = Dispatch.createQueue();
+        final ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+        // one shard, so all calls share the method ids of one connection
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, ClientInvokerImpl.DEFAULT_TIMEOUT, map, 1);
+        client.start();
+
+        try {
+            register(server, "service-a", new HelloImpl());
+            register(server, "service-b", new GreetingImpl("Hi"));
+
+            Hello a = proxy(client, server, "service-a");
+            Hello b = proxy(client, server, "service-b");
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Hello Fabric!", a.hello("Fabric"));
+                assertEquals("Hi Fabric!", b.hello("Fabric"));
+                assertEquals("Hello World!", b.helloworld());
+                assertEquals('a', a.mix(0));
+                assertEquals('b', a.mix(new int[] {0}));
+            }
+
+            // the connection keeps its ids, but the service is looked up again
+            server.unregisterService("service-a");
+            register(server, "service-a", new GreetingImpl("Bye"));
+            assertEquals("Bye Fabric!", a.hello("Fabric"));
+            assertEquals("Hi Fabric!", b.hello("Fabric"));
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testRequestNamingTheService() throws Exception {
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+
+        DispatchQueue queue = Dispatch.createQueue();
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        try (Socket socket = new Socket("localhost", server.getSocketAddress().getPort())) {
+            register(server, "service-id", new HelloImpl());
+
+            // the format of clients that send the service and method with every request
+            DataByteArrayOutputStream request = new DataByteArrayOutputStream();
+            request.writeInt(0);
+            request.writeVarLong(7);
+            Buffer service = new UTF8Buffer("service-id");
+            request.writeVarInt(service.length);
+            request.write(service);
+            Buffer method = new UTF8Buffer("hello,Ljava.lang.String");
+            request.writeVarInt(method.length);
+            request.write(method);
+            ObjectSerializationStrategy.INSTANCE.encodeRequest(getClass().getClassLoader(), new Class[] {String.class}, new Object[] {"Fabric"}, request);
+            Buffer command = request.toBuffer();
+            command.buffer().bigEndianEditor().writeInt(command.length);
+            socket.getOutputStream().write(command.data, command.offset, command.length);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] response = new byte[in.readInt()];
+            in.readFully(response, 4, response.length - 4);
+            DataByteArrayInputStream bais = new DataByteArrayInputStream(response);
+            bais.readInt();
+            assertEquals(7, bais.readVarLong());
+            AsyncCallbackFuture<String> result = new AsyncCallbackFuture<>();
+            ObjectSerializationStrategy.INSTANCE.decodeResponse(getClass().getClassLoader(), String.class, bais, result);
+            assertEquals("Hello Fabric!", result.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testFullHeaderUnlessMethodIdsAnnounced() throws Exception {
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+
+        DispatchQueue queue = Dispatch.createQueue();
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, 500, map, 1);
+        client.start();
+        final BlockingQueue<String> services = new LinkedBlockingQueue<>();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+
+        // a server of an older version that does not answer, so the calls time out
+        try (final ServerSocket server = new ServerSocket(0)) {
+            executor.execute(() -> {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        executor.execute(() -> {
+                            try {
+                                DataInputStream in = new DataInputStream(socket.getInputStream());
+                                while (true) {
+                                    DataByteArrayInputStream request = new DataByteArrayInputStream(readFrame(in));
+                                    request.readInt();
+                                    request.readVarLong();
+                                    byte[] service = new byte[request.readVarInt()];
+                                    request.readFully(service);
+                                    services.add(new String(service, StandardCharsets.UTF_8));
+                                }
+                            } catch (IOException e) {
+                                // closed
+                            }
+                        });
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+
+            InvocationHandler handler = client.getProxy("tcp://localhost:" + server.getLocalPort(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+            for (int i = 0; i < 2; i++) {
+                try {
+                    hello.hello("Fabric");
+                    fail("Expecting a timeout");
+                } catch (ServiceException e) {
+                    // the server did not answer
+                }
+                assertEquals("service-id", services.poll(5, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            client.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testMethodIdLimit() throws Exception {
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+
+        DispatchQueue queue = Dispatch.createQueue();
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        try (Socket socket = new Socket("localhost", server.getSocketAddress().getPort())) {
+            register(server, "service-id", new HelloImpl());
+
+            // a client that defines a new id for every request
+            int limit = 4096;
+            DataByteArrayOutputStream requests = new DataByteArrayOutputStream();
+            for (int id = 0; id < limit; id++) {
+                writeDefinition(requests, id);
+            }
+            Buffer all = requests.toBuffer();
+            socket.getOutputStream().write(all.data, all.offset, all.length);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < limit; i++) {
+                readFrame(in);
+            }
+
+            // one more id closes the connection
+            requests = new DataByteArrayOutputStream();
+            writeDefinition(requests, limit);
+            all = requests.toBuffer();
+            socket.getOutputStream().write(all.data, all.offset, all.length);
+            try {
+                assertEquals(-1, in.read());
+            } catch (SocketException e) {
+                // reset by the server
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testUnregisteredServiceIsReleased() throws Exception {
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+
+        DispatchQueue queue = Dispatch.createQueue();
+        final ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, ClientInvokerImpl.DEFAULT_TIMEOUT, map, 1);
+        client.start();
+
+        try {
+            ClassLoader loader = new ClassLoader(HelloImpl.class.getClassLoader()) {};
+            WeakReference<ClassLoader> released = new WeakReference<>(loader);
+            register(server, "service-id", new HelloImpl(), loader);
+            loader = null;
+            Hello hello = proxy(client, server, "service-id");
+            assertEquals("Hello Fabric!", hello.hello("Fabric"));
+
+            // the connection still binds the method id to the service
+            server.unregisterService("service-id");
+            for (int i = 0; i < 50 && released.get() != null; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertNull(released.get());
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    private void writeDefinition(DataByteArrayOutputStream out, int id) throws Exception {
+        DataByteArrayOutputStream request = new DataByteArrayOutputStream();
+        request.writeInt(0);
+        request.writeVarLong(id + 1);
+        request.writeVarInt(0);
+        request.writeVarInt(id << 1 | 1);
+        Buffer service = new UTF8Buffer("service-id");
+        request.writeVarInt(service.length);
+        request.write(service);
+        Buffer method = new UTF8Buffer("hello,Ljava.lang.String");
+        request.writeVarInt(method.length);
+        request.write(method);
+        ObjectSerializationStrategy.INSTANCE.encodeRequest(getClass().getClassLoader(), new Class[] {String.class}, new Object[] {"Fabric"}, request);
+        Buffer command = request.toBuffer();
+        command.buffer().bigEndianEditor().writeInt(command.length);
+        out.write(command);
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame, 4, frame.length - 4);
+        return frame;
+    }
+
+    private static void register(ServerInvokerImpl server, String id, final HelloImpl service) throws InterruptedException {
+        register(server, id, service, HelloImpl.class.getClassLoader());
+    }
+
+    private static void register(ServerInvokerImpl server, String id, final HelloImpl service, ClassLoader loader) throws InterruptedException {
+        server.registerService(id, new ServerInvoker.ServiceFactory() {
+            public Object get() {
+                return service;
+            }
+            public void unget() {
+            }
+        }, loader);
+        // registrations are applied on the queue of the server
+        CountDownLatch registered = new CountDownLatch(1);
+        server.queue().execute(registered::countDown);
+        assertTrue(registered.await(5, TimeUnit.SECONDS));
+    }
+
+    private static Hello proxy(ClientInvokerImpl client, ServerInvokerImpl server, String id) {
+        InvocationHandler handler = client.getProxy(server.getConnectAddress(), id, HelloImpl.class.getClassLoader(), false, 0, true);
+        return (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+    }
+
 
     class AsyncClient implements AsyncCallback<StringValue.Getter> {
 
@@ -603,6 +920,19 @@ public class InvocationTest {
         return rc;
     }
 
+    public static class GreetingImpl extends HelloImpl {
+
+        private final String greeting;
+
+        public GreetingImpl(String greeting) {
+            this.greeting = greeting;
+        }
+
+        public String hello(String name) {
+            return greeting + " " + name + "!";
+        }
+    }
+
     public static class HelloImpl implements Hello, Dispatched {
 
         DispatchQueue queue = Dispatch.createQueue();
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.spi.Endpoint;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+public class LocalInvocationTest {
+
+    private static final String FRAMEWORK_UUID = "local-framework";
+
+    private FastBinProvider provider;
+    private BundleContext bundleContext;
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        provider = new FastBinProvider("tcp://localhost:0", "localhost", TimeUnit.SECONDS.toMillis(5));
+        bundleContext = EasyMock.createMock(BundleContext.class);
+        EasyMock.expect(bundleContext.getProperty(Constants.FRAMEWORK_UUID)).andReturn(FRAMEWORK_UUID).anyTimes();
+        EasyMock.replay(bundleContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.close();
+        }
+        provider.close();
+    }
+
+    @Test
+    public void testLocalCallCopiesValues() throws Exception {
+        TestServiceImpl service = new TestServiceImpl();
+        TestService proxy = importService(export(service, FRAMEWORK_UUID, null));
+
+        List<String> list = new ArrayList<>();
+        List<String> result = proxy.add(list, "a");
+
+        assertTrue(list.isEmpty());
+        assertEquals(Collections.singletonList("a"), result);
+        assertNotSame(list, service.received);
+        assertNotSame(service.received, result);
+        assertEquals(Collections.singletonList("b"), proxy.addAsync(new ArrayList<String>(), "b").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLocalCallByReference() throws Exception {
+        TestServiceImpl service = new TestServiceImpl();
+        TestService proxy = importService(export(service, FRAMEWORK_UUID, FastBinProvider.BY_REFERENCE_INTENT));
+
+        List<String> list = new ArrayList<>();
+        List<String> result = proxy.add(list, "a");
+
+        assertSame(list, service.received);
+        assertSame(list, result);
+    }
+
+    @Test
+    public void testLocalCallException() throws Exception {
+        TestService proxy = importService(export(new TestServiceImpl(), FRAMEWORK_UUID, null));
+        try {
+            proxy.add(null, "a");
+            fail("Expecting exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("no list", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOtherFrameworkIsCalledRemotely() throws Exception {
+        TestServiceImpl service = new TestServiceImpl();
+        EndpointDescription endpoint = export(service, "other-framework", FastBinProvider.BY_REFERENCE_INTENT);
+        // the consumer only sends compact request headers as the server announces it
+        assertEquals("true", endpoint.getProperties().get(FastBinProvider.FASTBIN_METHOD_IDS));
+        TestService proxy = importService(endpoint);
+
+        List<String> list = new ArrayList<>();
+        assertEquals(Collections.singletonList("a"), proxy.add(list, "a"));
+        assertTrue(list.isEmpty());
+    }
+
+    private EndpointDescription export(Object service, String frameworkUUID, String intent) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(Constants.OBJECTCLASS, new String[] {TestService.class.getName()});
+        props.put(RemoteConstants.ENDPOINT_FRAMEWORK_UUID, frameworkUUID);
+        if (intent != null) {
+            props.put(RemoteConstants.SERVICE_EXPORTED_INTENTS, intent);
+        }
+        Endpoint endpoint = provider.exportService(service, bundleContext, props, new Class[] {TestService.class});
+        endpoints.add(endpoint);
+        return endpoint.description();
+    }
+
+    private TestService importService(EndpointDescription endpoint) {
+        return (TestService) provider.importEndpoint(TestService.class.getClassLoader(), bundleContext,
+                                                     new Class[] {TestService.class}, endpoint);
+    }
+
+    public interface TestService {
+        List<String> add(List<String> list, String value);
+
+        Future<List<String>> addAsync(List<String> list, String value);
+    }
+
+    public static class TestServiceImpl implements TestService {
+        List<String> received;
+
+        @Override
+        public List<String> add(List<String> list, String value) {
+            if (list == null) {
+                throw new IllegalArgumentException("no list");
+            }
+            received = list;
+            list.add(value);
+            return list;
+        }
+
+        @Override
+        public Future<List<String>> addAsync(List<String> list, String value) {
+            return CompletableFuture.completedFuture(add(list, value));
+        }
+    }
+}
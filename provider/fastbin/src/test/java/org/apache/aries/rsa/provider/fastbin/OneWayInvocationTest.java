@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
+import org.apache.aries.rsa.provider.fastbin.io.ServerInvoker;
+import org.apache.aries.rsa.provider.fastbin.tcp.ClientInvokerImpl;
+import org.apache.aries.rsa.provider.fastbin.tcp.ServerInvokerImpl;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OneWayInvocationTest {
+
+    private ServerInvokerImpl server;
+    private ClientInvokerImpl client;
+    private TestServiceImpl testService;
+
+    @Before
+    public void setup() throws Exception {
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+        server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        client = new ClientInvokerImpl(queue, map);
+        client.start();
+        testService = new TestServiceImpl();
+        server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+            public Object get() {
+                return testService;
+            }
+
+            public void unget() {
+            }
+        }, TestServiceImpl.class.getClassLoader());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        client.stop();
+    }
+
+    @Test
+    public void testAnnotatedMethodDoesNotWait() throws Exception {
+        TestService proxy = createProxy(false);
+
+        proxy.record("a");
+        proxy.record("b");
+        assertEquals(0, testService.count.get());
+
+        testService.release.countDown();
+        assertTrue(testService.recorded.await(5, TimeUnit.SECONDS));
+        assertEquals(2, proxy.count());
+    }
+
+    @Test
+    public void testFailureIsNotReported() throws Exception {
+        testService.release.countDown();
+        TestService proxy = createProxy(false);
+
+        proxy.record(null);
+        proxy.record("a");
+        proxy.record("b");
+
+        assertTrue(testService.recorded.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAllVoidMethodsOneWay() throws Exception {
+        TestService proxy = createProxy(true);
+
+        proxy.recordAndWait("a");
+        proxy.record("b");
+        assertEquals(0, testService.count.get());
+
+        testService.release.countDown();
+        assertTrue(testService.recorded.await(5, TimeUnit.SECONDS));
+    }
+
+    private TestService createProxy(boolean oneWay) {
+        InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", TestServiceImpl.class.getClassLoader(), oneWay);
+        return (TestService) Proxy.newProxyInstance(TestServiceImpl.class.getClassLoader(), new Class[] {TestService.class}, handler);
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface OneWay {
+    }
+
+    public interface TestService {
+        @OneWay
+        void record(String value);
+
+        void recordAndWait(String value);
+
+        int count();
+    }
+
+    public static class TestServiceImpl implements TestService {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch recorded = new CountDownLatch(2);
+        final AtomicInteger count = new AtomicInteger();
+
+        public void record(String value) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("No value");
+            }
+            count.incrementAndGet();
+            recorded.countDown();
+        }
+
+        public void recordAndWait(String value) {
+            record(value);
+        }
+
+        public int count() {
+            return count.get();
+        }
+    }
+}
@@ -31,10 +31,16 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.aries.rsa.provider.fastbin.InvocationTest.HelloImpl;
 import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
@@ -53,6 +59,7 @@ public class StreamInvocationTest {
     private ServerInvokerImpl server;
     private ClientInvokerImpl client;
     private TestService testService;
+    private final AtomicInteger produced = new AtomicInteger();
 
 
     @Before
@@ -154,6 +161,34 @@ public class StreamInvocationTest {
 
     }
 
+    @Test(timeout=5000)
+    public void testElementStream() throws IOException {
+        try (Stream<Integer> elements = testService.elements(1000)) {
+            Iterator<Integer> iterator = elements.iterator();
+            assertEquals(Integer.valueOf(0), iterator.next());
+            // only the first batch is produced until it is consumed
+            assertTrue(produced.get() < 1000);
+            int expected = 1;
+            while (iterator.hasNext()) {
+                assertEquals(Integer.valueOf(expected++), iterator.next());
+            }
+            assertEquals(1000, expected);
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testElementStreamClosedEarly() throws IOException {
+        try (Stream<Integer> elements = testService.elements(1000)) {
+            assertEquals(Arrays.asList(0, 1, 2), elements.limit(3).collect(Collectors.toList()));
+        }
+        assertTrue(produced.get() < 1000);
+    }
+
+    @Test(timeout=5000)
+    public void testElementStreamArgument() throws IOException {
+        assertEquals(4950, testService.sum(IntStream.range(0, 100).boxed()));
+    }
+
     public interface TestService {
         String toString(InputStream in) throws IOException;
 
@@ -162,6 +197,10 @@ public class StreamInvocationTest {
         void intoStream(OutputStream out, String string) throws IOException;
 
         Future<byte[]> digest(InputStream in) throws IOException;
+
+        Stream<Integer> elements(int count);
+
+        int sum(Stream<Integer> elements);
     }
 
     public class TestServiceImpl implements TestService {
@@ -191,6 +230,16 @@ public class StreamInvocationTest {
             }).start();
         }
 
+        @Override
+        public Stream<Integer> elements(int count) {
+            return IntStream.range(0, count).peek(i -> produced.incrementAndGet()).boxed();
+        }
+
+        @Override
+        public int sum(Stream<Integer> elements) {
+            return elements.mapToInt(Integer::intValue).sum();
+        }
+
         @Override
         public Future<byte[]> digest(InputStream in) throws IOException {
             return CompletableFuture.supplyAsync(() -> {
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.fastbin.api.SerializationStrategy;
+import org.apache.aries.rsa.provider.fastbin.io.ServerInvoker;
+import org.apache.aries.rsa.provider.fastbin.tcp.ClientInvokerImpl;
+import org.apache.aries.rsa.provider.fastbin.tcp.ServerInvokerImpl;
+import org.apache.aries.rsa.spi.ImportReadiness;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WarmUpTest {
+
+    private ServerInvokerImpl server;
+    private ClientInvokerImpl client;
+
+    @Before
+    public void setup() throws Exception {
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<>();
+        server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        client = new ClientInvokerImpl(queue, map);
+        client.start();
+        server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+            public Object get() {
+                return new HelloImpl();
+            }
+
+            public void unget() {
+            }
+        }, HelloImpl.class.getClassLoader());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        client.stop();
+    }
+
+    @Test
+    public void testProxyIsReadyOnceConnected() throws Exception {
+        Hello proxy = createProxy(server.getConnectAddress(), 2);
+        ImportReadiness.of(proxy).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals("Hello Fabric!", proxy.hello("Fabric"));
+    }
+
+    @Test
+    public void testProxyWithoutWarmUpIsReady() throws Exception {
+        Hello proxy = createProxy(server.getConnectAddress(), 0);
+        assertTrue(ImportReadiness.of(proxy).toCompletableFuture().isDone());
+        assertEquals("Hello Fabric!", proxy.hello("Fabric"));
+    }
+
+    @Test
+    public void testReadinessFailsIfServerIsNotReachable() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Hello proxy = createProxy("tcp://localhost:" + port, 1);
+        try {
+            ImportReadiness.of(proxy).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expecting connection failure");
+        } catch (ExecutionException e) {
+            // expected
+        }
+    }
+
+    private Hello createProxy(String address, int minConnections) {
+        InvocationHandler handler = client.getProxy(address, "service-id", HelloImpl.class.getClassLoader(), false, minConnections);
+        return (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] {Hello.class}, handler);
+    }
+
+    public interface Hello {
+        String hello(String name);
+    }
+
+    public static class HelloImpl implements Hello {
+        public String hello(String name) {
+            return "Hello " + name + "!";
+        }
+    }
+}
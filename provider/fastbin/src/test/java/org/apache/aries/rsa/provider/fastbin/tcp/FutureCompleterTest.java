@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.fastbin.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.fastbin.tcp.AsyncFutureInvocationStrategy.FutureCompleter;
+import org.junit.Test;
+
+public class FutureCompleterTest {
+
+    private final FutureCompleter completer = new FutureCompleter();
+
+    @Test
+    public void testCompletedFuture() throws Exception {
+        FutureTask<Object> task = new FutureTask<>(() -> "Hello");
+        task.run();
+        CompletableFuture<Object> completable = completer.complete(task);
+        assertTrue(completable.isDone());
+        assertEquals("Hello", completable.get());
+    }
+
+    @Test
+    public void testPolledFuture() throws Exception {
+        List<FutureTask<Object>> tasks = new ArrayList<>();
+        List<CompletableFuture<Object>> completables = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            FutureTask<Object> task = new FutureTask<>(() -> value);
+            tasks.add(task);
+            completables.add(completer.complete(task));
+        }
+        for (FutureTask<Object> task : tasks) {
+            task.run();
+        }
+        for (int i = 0; i < completables.size(); i++) {
+            assertEquals(i, completables.get(i).get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testPolledFutureException() throws Exception {
+        FutureTask<Object> task = new FutureTask<>(() -> {
+            throw new IOException("test");
+        });
+        CompletableFuture<Object> completable = completer.complete(task);
+        task.run();
+        try {
+            completable.get(1, TimeUnit.SECONDS);
+            fail("Expecting exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testListenableFuture() throws Exception {
+        ListenableTask task = new ListenableTask();
+        CompletableFuture<Object> completable = completer.complete(task);
+        assertEquals(1, task.listeners.size());
+        assertFalse(completable.isDone());
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Thread> completedBy = completable.thenApply(result -> Thread.currentThread());
+        task.run();
+        assertEquals("Hello", completable.get(1, TimeUnit.SECONDS));
+        // the callback is handed off to the dispatch queue instead of running on the completing thread
+        assertNotSame(caller, completedBy.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletionStage() throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> completable = completer.complete(future);
+        future.completeExceptionally(new IOException("test"));
+        try {
+            completable.get(1, TimeUnit.SECONDS);
+            fail("Expecting exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * Future in the style of the Guava ListenableFuture
+     */
+    public static class ListenableTask extends FutureTask<Object> {
+
+        final List<Runnable> listeners = new ArrayList<>();
+
+        public ListenableTask() {
+            super(() -> "Hello");
+        }
+
+        public void addListener(Runnable listener, Executor executor) {
+            listeners.add(() -> executor.execute(listener));
+        }
+
+        @Override
+        protected void done() {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.aries.rsa.provider.fastbin.tcp;
 import java.net.ProtocolException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -34,9 +35,11 @@ import org.junit.Test;
 
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 
 public class LengthPrefixedCodecTest {
@@ -140,6 +143,69 @@ public class LengthPrefixedCodecTest {
 		assertEquals(bytesThatWillBeWritten, codec.getWriteCounter());
 	}
 
+	@Test
+	public void testFlush$Coalesced() throws Exception {
+		codec.write(Buffer.ascii("TESTDATA"));
+		codec.write(Buffer.ascii("TESTDATA"));
+		codec.write(Buffer.ascii("TESTDATA"));
+		// the small messages are written with one call
+		expect(writableByteChannel.write((ByteBuffer) anyObject())).andAnswer(createWriteAnswer(24));
+		replay(writableByteChannel);
+
+		assertEquals(BufferState.EMPTY, codec.flush());
+		assertEquals(true, codec.empty());
+		assertEquals(24L, codec.getWriteCounter());
+		verify(writableByteChannel);
+	}
+
+	@Test
+	public void testFlush$CoalescedPartially() throws Exception {
+		codec.write(Buffer.ascii("TESTDATA"));
+		codec.write(Buffer.ascii("TESTDATA"));
+		expect(writableByteChannel.write((ByteBuffer) anyObject())).andAnswer(createWriteAnswer(10));
+		expect(writableByteChannel.write((ByteBuffer) anyObject())).andAnswer(createWriteAnswer(6));
+		replay(writableByteChannel);
+
+		assertEquals(BufferState.NOT_EMPTY, codec.flush());
+		assertEquals(false, codec.empty());
+		assertEquals(10L, codec.getWriteCounter());
+
+		assertEquals(BufferState.EMPTY, codec.flush());
+		assertEquals(true, codec.empty());
+		assertEquals(16L, codec.getWriteCounter());
+		verify(writableByteChannel);
+	}
+
+	@Test
+	public void testFlush$Gathering() throws Exception {
+		GatheringByteChannel channel = createMock(GatheringByteChannel.class);
+		codec = new LengthPrefixedCodec(0, 0, 0);
+		codec.setWritableByteChannel(channel);
+		codec.write(Buffer.ascii("TESTDATA"));
+		codec.write(Buffer.ascii("TESTDATA"));
+		codec.write(Buffer.ascii("TESTDATA"));
+		// all queued messages are handed to the channel at once
+		expect(channel.write((ByteBuffer[]) anyObject(), eq(0), eq(3))).andAnswer(new IAnswer<Long>() {
+			@Override
+			public Long answer() throws Throwable {
+				long written = 0;
+				for (ByteBuffer buffer : (ByteBuffer[]) getCurrentArguments()[0]) {
+					if (buffer != null) {
+						written += buffer.remaining();
+						buffer.position(buffer.limit());
+					}
+				}
+				return written;
+			}
+		});
+		replay(channel);
+
+		assertEquals(BufferState.EMPTY, codec.flush());
+		assertEquals(true, codec.empty());
+		assertEquals(24L, codec.getWriteCounter());
+		verify(channel);
+	}
+
     @Test(expected=ProtocolException.class)
     public void testReadEvilPackage() throws Exception {
 
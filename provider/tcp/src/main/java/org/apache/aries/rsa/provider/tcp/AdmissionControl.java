@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the calls of one endpoint that occupy a worker at the same time. Further calls wait in a
+ * bounded queue for a limited time. A call that exceeds a limit is rejected right away, so the caller
+ * gets a fast answer instead of running into its timeout and can try another endpoint.
+ */
+class AdmissionControl {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final String endpointId;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final int maxConcurrentCalls;
+    private final int maxQueueSize;
+    private final long maxQueueWaitMillis;
+    private final Set<Waiting> queue = new LinkedHashSet<>();
+    private int running;
+
+    /**
+     * A call that can be answered without executing it
+     */
+    interface Call extends Runnable {
+        void reject(String reason);
+    }
+
+    /**
+     * @param timer timer for the queue wait limit, only used if maxQueueWaitMillis is positive
+     * @param maxQueueWaitMillis maximum time a call waits in the queue or 0 for no limit
+     */
+    AdmissionControl(String endpointId, Executor executor, ScheduledExecutorService timer,
+                     int maxConcurrentCalls, int maxQueueSize, long maxQueueWaitMillis) {
+        this.endpointId = endpointId;
+        this.executor = executor;
+        this.timer = timer;
+        this.maxConcurrentCalls = Math.max(1, maxConcurrentCalls);
+        this.maxQueueSize = Math.max(0, maxQueueSize);
+        this.maxQueueWaitMillis = maxQueueWaitMillis;
+    }
+
+    /**
+     * Executes the call, queues it or rejects it
+     */
+    void submit(Call call) {
+        boolean execute = false;
+        synchronized (this) {
+            if (running < maxConcurrentCalls) {
+                running++;
+                execute = true;
+            } else if (queue.size() < maxQueueSize) {
+                final Waiting waiting = new Waiting(call);
+                queue.add(waiting);
+                if (maxQueueWaitMillis > 0) {
+                    waiting.timeout = timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            expire(waiting);
+                        }
+                    }, maxQueueWaitMillis, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        if (execute) {
+            execute(call);
+        } else {
+            call.reject(String.format("Server busy, %d calls to %s are waiting already", maxQueueSize, endpointId));
+        }
+    }
+
+    /**
+     * Executes the call on a worker. If the executor does not accept it anymore, the call and the
+     * calls that would take over its worker are rejected.
+     */
+    private void execute(Call call) {
+        while (call != null) {
+            final Call next = call;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            next.run();
+                        } finally {
+                            finished();
+                        }
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                next.reject(String.format("Server stopped, call to %s not executed", endpointId));
+                call = takeNext();
+            }
+        }
+    }
+
+    /**
+     * Frees the worker of a call for the next waiting one
+     */
+    private void finished() {
+        Call next = takeNext();
+        if (next != null) {
+            execute(next);
+        }
+    }
+
+    /**
+     * @return the waiting call that takes over the worker of a finished call or null if the
+     *         worker is free
+     */
+    private Call takeNext() {
+        Waiting next = null;
+        synchronized (this) {
+            Iterator<Waiting> waiting = queue.iterator();
+            if (waiting.hasNext()) {
+                next = waiting.next();
+                waiting.remove();
+            } else {
+                running--;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        if (next.timeout != null) {
+            next.timeout.cancel(false);
+        }
+        return next.call;
+    }
+
+    private void expire(Waiting waiting) {
+        synchronized (this) {
+            if (!queue.remove(waiting)) {
+                return;
+            }
+        }
+        waiting.call.reject(String.format("Server busy, call to %s waited more than %d ms", endpointId, maxQueueWaitMillis));
+    }
+
+    private static final class Waiting {
+        final Call call;
+        volatile ScheduledFuture<?> timeout;
+
+        Waiting(Call call) {
+            this.call = call;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.aries.rsa.provider.tcp.metrics.CallMetrics;
+import org.apache.aries.rsa.provider.tcp.metrics.MethodMetrics;
+import org.apache.aries.rsa.provider.tcp.metrics.MethodMetrics.Side;
+
+/**
+ * Collects the statistics of all calls of a provider. The recorders are looked up once per method
+ * and recording a call only updates striped counters and the histogram, so it does not allocate
+ * and does not contend on a lock.
+ */
+class CallStatistics implements CallMetrics {
+    private final Map<String, Recorder> clientRecorders = new ConcurrentHashMap<>();
+    private final Map<String, Map<Long, Recorder>> serverRecorders = new ConcurrentHashMap<>();
+
+    /**
+     * @param method signature of the method as created by {@link TcpProtocol#methodSignature(java.lang.reflect.Method)}
+     */
+    Recorder client(String endpointId, String method) {
+        String key = endpointId + "#" + method;
+        Recorder recorder = clientRecorders.get(key);
+        if (recorder == null) {
+            recorder = clientRecorders.computeIfAbsent(key, k -> new Recorder(endpointId, method, Side.CLIENT));
+        }
+        return recorder;
+    }
+
+    Recorder server(String endpointId, long methodId, MethodInvoker invoker) {
+        Map<Long, Recorder> recorders = serverRecorders.get(endpointId);
+        if (recorders == null) {
+            recorders = serverRecorders.computeIfAbsent(endpointId, k -> new ConcurrentHashMap<>());
+        }
+        Recorder recorder = recorders.get(methodId);
+        if (recorder == null) {
+            String method = invoker != null ? invoker.getSignature(methodId) : String.format("%016x", methodId);
+            recorder = recorders.computeIfAbsent(methodId, k -> new Recorder(endpointId, method, Side.SERVER));
+        }
+        return recorder;
+    }
+
+    /**
+     * Drops the server side statistics of an endpoint that is no longer exported
+     */
+    void removeEndpoint(String endpointId) {
+        serverRecorders.remove(endpointId);
+    }
+
+    @Override
+    public List<MethodMetrics> getMethods() {
+        List<MethodMetrics> methods = new ArrayList<>();
+        for (Recorder recorder : clientRecorders.values()) {
+            methods.add(recorder.snapshot());
+        }
+        for (Map<Long, Recorder> recorders : serverRecorders.values()) {
+            for (Recorder recorder : recorders.values()) {
+                methods.add(recorder.snapshot());
+            }
+        }
+        return methods;
+    }
+
+    @Override
+    public void reset() {
+        for (Recorder recorder : clientRecorders.values()) {
+            recorder.reset();
+        }
+        for (Map<Long, Recorder> recorders : serverRecorders.values()) {
+            for (Recorder recorder : recorders.values()) {
+                recorder.reset();
+            }
+        }
+    }
+
+    /**
+     * Statistics of one method on one side
+     */
+    static final class Recorder {
+        private final String endpointId;
+        private final String method;
+        private final Side side;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Recorder(String endpointId, String method, Side side) {
+            this.endpointId = endpointId;
+            this.method = method;
+            this.side = side;
+        }
+
+        /**
+         * @param startNanos start of the call in terms of {@link System#nanoTime()}
+         */
+        void success(long startNanos) {
+            calls.increment();
+            latency.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * The call completed with an exception of the service
+         */
+        void failure(long startNanos) {
+            calls.increment();
+            errors.increment();
+            latency.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * The call did not complete, so its latency is unknown
+         */
+        void error() {
+            calls.increment();
+            errors.increment();
+        }
+
+        void timeout() {
+            calls.increment();
+            errors.increment();
+            timeouts.increment();
+        }
+
+        void bytesIn(int bytes) {
+            bytesIn.add(bytes);
+        }
+
+        void bytesOut(int bytes) {
+            bytesOut.add(bytes);
+        }
+
+        MethodMetrics snapshot() {
+            return new Snapshot(this, latency.snapshot());
+        }
+
+        void reset() {
+            calls.reset();
+            errors.reset();
+            timeouts.reset();
+            bytesIn.reset();
+            bytesOut.reset();
+            latency.reset();
+        }
+    }
+
+    private static final class Snapshot implements MethodMetrics {
+        private final String endpointId;
+        private final String method;
+        private final Side side;
+        private final long calls;
+        private final long errors;
+        private final long timeouts;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final LatencyHistogram.Snapshot latency;
+
+        Snapshot(Recorder recorder, LatencyHistogram.Snapshot latency) {
+            this.endpointId = recorder.endpointId;
+            this.method = recorder.method;
+            this.side = recorder.side;
+            this.calls = recorder.calls.sum();
+            this.errors = recorder.errors.sum();
+            this.timeouts = recorder.timeouts.sum();
+            this.bytesIn = recorder.bytesIn.sum();
+            this.bytesOut = recorder.bytesOut.sum();
+            this.latency = latency;
+        }
+
+        @Override
+        public String getEndpointId() {
+            return endpointId;
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+        @Override
+        public Side getSide() {
+            return side;
+        }
+
+        @Override
+        public long getCalls() {
+            return calls;
+        }
+
+        @Override
+        public long getErrors() {
+            return errors;
+        }
+
+        @Override
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        @Override
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        @Override
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        @Override
+        public long getMeanNanos() {
+            return latency.mean();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return latency.max;
+        }
+
+        @Override
+        public long getP50Nanos() {
+            return latency.valueAt(50);
+        }
+
+        @Override
+        public long getP90Nanos() {
+            return latency.valueAt(90);
+        }
+
+        @Override
+        public long getP99Nanos() {
+            return latency.valueAt(99);
+        }
+
+        @Override
+        public long getP999Nanos() {
+            return latency.valueAt(99.9);
+        }
+
+        @Override
+        public String toString() {
+            return side + " " + endpointId + " " + method + ": " + calls + " calls, " + errors + " errors, p50 "
+                + getP50Nanos() + " ns, p99 " + getP99Nanos() + " ns";
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.aries.rsa.provider.tcp.ConnectionPool.Call;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.Frame;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.FrameBuffer;
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
+
+/**
+ * Connection of a {@link ConnectionPool}. The calls in flight are registered by their request id
+ * and completed by the selector thread when the matching response frame is read, in whatever order
+ * the server answers them.
+ */
+class ClientConnection extends FrameConnection {
+    /**
+     * Maximum number of timed out calls whose late response is still expected. The server drops
+     * calls whose deadline passed without a response, so the oldest are forgotten.
+     */
+    static final int MAX_ABANDONED = 256;
+
+    private final ConnectionPool pool;
+    private final Map<Long, Call> calls = new ConcurrentHashMap<>();
+    private final Map<Long, Call> abandoned = Collections.synchronizedMap(new LinkedHashMap<Long, Call>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Call> eldest) {
+            return size() > MAX_ABANDONED;
+        }
+    });
+    private final boolean unixSocket;
+    private volatile boolean ready;
+    /**
+     * Calls dispatched to this connection that are not done yet, guarded by the pool
+     */
+    int inFlight;
+
+    ClientConnection(ConnectionPool pool, SelectorLoop loop, SocketChannel channel, boolean unixSocket) {
+        super(loop, channel, pool.getExecutor());
+        this.pool = pool;
+        this.unixSocket = unixSocket;
+    }
+
+    boolean isUnixSocket() {
+        return unixSocket;
+    }
+
+    /**
+     * Registers the channel with the selector, called on the loop thread
+     */
+    void start(boolean connected) {
+        try {
+            register(connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+            if (connected) {
+                send(TcpProtocol.handshake(TcpProtocol.VERSION, Compression.available()));
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    @Override
+    protected void connected() throws IOException {
+        channel.finishConnect();
+        key.interestOps(SelectionKey.OP_READ);
+        send(TcpProtocol.handshake(TcpProtocol.VERSION, Compression.available()));
+    }
+
+    /**
+     * Encodes the request with the dictionary of this connection and sends it followed by its streams
+     */
+    void dispatch(Call call) {
+        FrameBuffer request;
+        try {
+            request = call.encoder.encode(call.requestId, this);
+        } catch (IOException | RuntimeException e) {
+            call.fail(e);
+            pool.release(this);
+            return;
+        }
+        call.connection = this;
+        call.request = request;
+        if (call.requestId == TcpProtocol.ONE_WAY_ID) {
+            send(request.toByteBuffer());
+            request.startStreams();
+            // no response will arrive, so the connection is free for the next call right away
+            call.sent();
+            pool.release(this);
+            return;
+        }
+        calls.put(call.requestId, call);
+        if (isClosed()) {
+            // closed concurrently, the call would not be failed by closed()
+            calls.remove(call.requestId);
+            call.fail(new IOException("Connection to " + pool + " closed"));
+            return;
+        }
+        if (call.response.isDone() && calls.remove(call.requestId, call)) {
+            // timed out while it was encoded, the timeout did not find it registered
+            request.discard();
+            pool.release(this);
+            return;
+        }
+        send(request.toByteBuffer());
+        request.startStreams();
+    }
+
+    @Override
+    protected int process(ByteBuffer in) throws IOException {
+        if (!ready) {
+            if (in.remaining() < TcpProtocol.HANDSHAKE_SIZE) {
+                return 0;
+            }
+            int version = TcpProtocol.readHandshake(in.getInt(), in.getInt());
+            if (version < TcpProtocol.VERSION) {
+                throw new IOException("Server at " + pool + " does not support protocol version " + TcpProtocol.VERSION);
+            }
+            setCompressions(in.getInt() & Compression.available());
+            ready = true;
+            pool.connectionReady(this);
+        }
+        byte[] data;
+        while ((data = nextFrame(in)) != null) {
+            if (streams.handle(data)) {
+                continue;
+            }
+            final Frame frame = new Frame(data, this);
+            Call call = calls.remove(frame.requestId);
+            if (call != null) {
+                // released first so the next call of a waiting caller finds a free place
+                pool.release(this);
+                call.complete(frame);
+                continue;
+            }
+            final Call late = abandoned.remove(frame.requestId);
+            if (late != null) {
+                pool.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        late.encoder.releaseStreams(frame);
+                    }
+                });
+            }
+        }
+        return pendingFrameSize(in);
+    }
+
+    /**
+     * Stops waiting for the response of a call that timed out. A response that still arrives is
+     * only read to release the streams it references.
+     *
+     * @return false if the call was not registered with this connection
+     */
+    boolean abandon(Call call) {
+        if (!calls.remove(call.requestId, call)) {
+            return false;
+        }
+        abandoned.put(call.requestId, call);
+        return true;
+    }
+
+    @Override
+    protected void closed(Throwable cause) {
+        for (Call call : calls.values()) {
+            call.fail(cause);
+        }
+        calls.clear();
+        abandoned.clear();
+        pool.connectionClosed(this, cause, ready);
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.Frame;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.FrameBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps persistent connections to one remote TCPServer, so subsequent calls from all proxies of the
+ * same address reuse a few long-lived sockets instead of opening one per call. A connection carries
+ * up to maxPipelinedCalls calls at a time. Their responses are matched by request id and may arrive
+ * in any order, so a slow call does not hold up the ones sent after it. A call goes to an idle
+ * connection if there is one and is otherwise pipelined on the least loaded connection while a new
+ * connection is opened as long as the pool is below maxConnections. Calls that find all connections
+ * at their limit wait in a queue. No thread is blocked while a call waits or is in flight.
+ * <p>
+ * If the server is on the same host and listens on a Unix domain socket, the connections use that
+ * socket. Once such a connection fails before its handshake the pool falls back to TCP.
+ * <p>
+ * Connections are opened on demand unless the pool is {@link #warmUp(int) warmed up} in advance.
+ */
+class ConnectionPool implements Closeable {
+    static final int DEFAULT_MAX_PIPELINED_CALLS = 16;
+
+    private final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+    private final TcpClient client;
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final int maxPipelinedCalls;
+    private volatile String unixSocket;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final List<ClientConnection> readyConnections = new ArrayList<>();
+    private final Deque<Call> waiting = new ArrayDeque<>();
+    private final List<ClientConnection> connections = new ArrayList<>();
+    private final List<WarmUp> warmUps = new ArrayList<>();
+    private int size;
+    private boolean closed;
+    /**
+     * Proxies using this pool, guarded by the client
+     */
+    int imports;
+
+    ConnectionPool(TcpClient client, String host, int port, int maxConnections) {
+        this(client, host, port, maxConnections, null);
+    }
+
+    ConnectionPool(TcpClient client, String host, int port, int maxConnections, String unixSocket) {
+        this(client, host, port, maxConnections, DEFAULT_MAX_PIPELINED_CALLS, unixSocket);
+    }
+
+    /**
+     * @param maxPipelinedCalls maximum number of calls in flight on one connection, 1 to send the
+     *        next call of a connection only after the response of the previous one
+     * @param unixSocket path of the Unix domain socket of the server or null to connect by TCP
+     */
+    ConnectionPool(TcpClient client, String host, int port, int maxConnections, int maxPipelinedCalls, String unixSocket) {
+        this.client = client;
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.maxPipelinedCalls = Math.max(1, maxPipelinedCalls);
+        this.unixSocket = unixSocket;
+    }
+
+    /**
+     * Sends the request and returns the future response. The future fails with a
+     * {@link SocketTimeoutException} if the response does not arrive in time.
+     *
+     * @param timeoutMillis timeout or {@link TcpProtocol#NO_TIMEOUT} to wait without limit
+     */
+    CompletableFuture<Frame> call(RequestEncoder encoder, int timeoutMillis) {
+        return submit(new Call(requestIds.incrementAndGet(), encoder), timeoutMillis);
+    }
+
+    /**
+     * Sends a one-way request the server does not answer. The returned future completes once the
+     * request is handed to a connection, so it only fails if no connection is available in time.
+     */
+    CompletableFuture<Frame> send(RequestEncoder encoder, int timeoutMillis) {
+        return submit(new Call(TcpProtocol.ONE_WAY_ID, encoder), timeoutMillis);
+    }
+
+    private CompletableFuture<Frame> submit(final Call call, int timeoutMillis) {
+        if (timeoutMillis != TcpProtocol.NO_TIMEOUT) {
+            call.timeout = client.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeout(call);
+                }
+            }, timeoutMillis);
+        }
+        ClientConnection connection;
+        boolean connect = false;
+        synchronized (this) {
+            if (closed) {
+                call.fail(new IOException("Connection pool for " + host + ":" + port + " is closed"));
+                return call.response;
+            }
+            connection = leastLoaded();
+            if ((connection == null || connection.inFlight > 0) && size < maxConnections) {
+                // a busy connection still takes the call, the new one serves the calls after it
+                size++;
+                connect = true;
+            }
+            if (connection != null) {
+                connection.inFlight++;
+            } else {
+                waiting.add(call);
+            }
+        }
+        if (connection != null) {
+            connection.dispatch(call);
+        }
+        if (connect) {
+            connect();
+        }
+        return call.response;
+    }
+
+    /**
+     * @return the ready connection with the fewest calls in flight or null if all are at their limit
+     */
+    private ClientConnection leastLoaded() {
+        ClientConnection best = null;
+        for (ClientConnection connection : readyConnections) {
+            if (connection.inFlight < maxPipelinedCalls && (best == null || connection.inFlight < best.inFlight)) {
+                best = connection;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Opens connections until the pool has at least the given number, so the first calls do not
+     * wait for name resolution, connect and handshake.
+     *
+     * @return completes once that many connections finished their handshake. Fails if a connection
+     *         could not be established
+     */
+    CompletableFuture<Void> warmUp(int minConnections) {
+        int target = Math.min(minConnections, maxConnections);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        int open;
+        synchronized (this) {
+            if (closed) {
+                done.completeExceptionally(new IOException("Connection pool for " + host + ":" + port + " is closed"));
+                return done;
+            }
+            if (readyConnections.size() >= target) {
+                done.complete(null);
+                return done;
+            }
+            warmUps.add(new WarmUp(target, done));
+            open = Math.max(0, target - size);
+            size += open;
+        }
+        for (int c = 0; c < open; c++) {
+            connect();
+        }
+        return done;
+    }
+
+    Executor getExecutor() {
+        return client.getExecutor();
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if new connections use the Unix domain socket of the server
+     */
+    boolean isUnixSocket() {
+        return unixSocket != null;
+    }
+
+    private void connect() {
+        SocketChannel channel = null;
+        ClientConnection connection = null;
+        try {
+            final String path = unixSocket;
+            if (path != null) {
+                channel = UnixSockets.openChannel();
+            } else {
+                channel = SocketChannel.open();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            channel.configureBlocking(false);
+            connection = new ClientConnection(this, client.getLoop(), channel, path != null);
+            synchronized (this) {
+                connections.add(connection);
+            }
+            final boolean connected = openConnection(channel, path);
+            final ClientConnection started = connection;
+            client.getLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.start(connected);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.close(e);
+            } else {
+                SelectorLoop.closeQuietly(channel);
+                connectionClosed(null, e, false);
+            }
+        }
+    }
+
+    private boolean openConnection(final SocketChannel channel, final String path) throws IOException {
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<Boolean>() {
+                @Override
+                public Boolean run() throws IOException {
+                    SocketAddress address = path != null ? UnixSockets.address(path) : new InetSocketAddress(host, port);
+                    return channel.connect(address);
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
+    }
+
+    /**
+     * Called once the handshake of a new connection is done
+     */
+    void connectionReady(ClientConnection connection) {
+        List<WarmUp> done = new ArrayList<>();
+        synchronized (this) {
+            readyConnections.add(connection);
+            for (Iterator<WarmUp> it = warmUps.iterator(); it.hasNext();) {
+                WarmUp warmUp = it.next();
+                if (warmUp.target <= readyConnections.size()) {
+                    done.add(warmUp);
+                    it.remove();
+                }
+            }
+        }
+        for (WarmUp warmUp : done) {
+            warmUp.done.complete(null);
+        }
+        dispatchWaiting(connection);
+    }
+
+    /**
+     * Called when a call of the connection is done, which frees a place for the next waiting call
+     */
+    void release(ClientConnection connection) {
+        synchronized (this) {
+            connection.inFlight--;
+        }
+        dispatchWaiting(connection);
+    }
+
+    /**
+     * Hands waiting calls to the connection until it reaches its limit
+     */
+    private void dispatchWaiting(final ClientConnection connection) {
+        List<Call> next = new ArrayList<>();
+        boolean open;
+        synchronized (this) {
+            open = !closed;
+            if (open) {
+                while (connection.inFlight < maxPipelinedCalls) {
+                    Call call = waiting.poll();
+                    if (call == null) {
+                        break;
+                    }
+                    if (!call.response.isDone()) {
+                        connection.inFlight++;
+                        next.add(call);
+                    }
+                }
+            }
+        }
+        if (!open) {
+            connection.close(new IOException("Connection pool closed"));
+            return;
+        }
+        for (final Call call : next) {
+            if (client.getLoop().isLoopThread()) {
+                // encoding the request is left to the executor to keep the selector thread free
+                client.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.dispatch(call);
+                    }
+                });
+            } else {
+                connection.dispatch(call);
+            }
+        }
+    }
+
+    /**
+     * @param connection the closed connection or null if it could not even be created
+     * @param ready if the connection completed its handshake before it was closed
+     */
+    void connectionClosed(ClientConnection connection, Throwable cause, boolean ready) {
+        List<Call> failed = new ArrayList<>();
+        List<WarmUp> failedWarmUps = new ArrayList<>();
+        boolean reconnect = false;
+        synchronized (this) {
+            size--;
+            boolean fallback = false;
+            if (connection != null) {
+                readyConnections.remove(connection);
+                connections.remove(connection);
+                if (!ready && connection.isUnixSocket()) {
+                    if (unixSocket != null) {
+                        log.info("Connecting to {} by TCP as its Unix domain socket {} failed: {}", this, unixSocket, cause.toString());
+                        unixSocket = null;
+                    }
+                    fallback = true;
+                }
+            }
+            if (closed || (!ready && size == 0 && !fallback)) {
+                // Nothing is left that could serve the waiting calls
+                failed.addAll(waiting);
+                waiting.clear();
+            } else if ((!waiting.isEmpty() || (fallback && !warmUps.isEmpty())) && size < maxConnections) {
+                size++;
+                reconnect = true;
+            }
+            if (closed || (!ready && !fallback)) {
+                failedWarmUps.addAll(warmUps);
+                warmUps.clear();
+            }
+        }
+        for (Call call : failed) {
+            call.fail(cause);
+        }
+        for (WarmUp warmUp : failedWarmUps) {
+            warmUp.done.completeExceptionally(cause);
+        }
+        if (reconnect) {
+            connect();
+        }
+    }
+
+    private void timeout(Call call) {
+        SocketTimeoutException e = new SocketTimeoutException("Timeout waiting for response from " + host + ":" + port);
+        if (!call.response.completeExceptionally(e)) {
+            return;
+        }
+        call.abortStreams();
+        ClientConnection connection = call.connection;
+        if (connection != null) {
+            // the connection stays open for the other calls in flight, a late response is dropped
+            if (connection.abandon(call)) {
+                release(connection);
+            }
+        } else {
+            synchronized (this) {
+                waiting.remove(call);
+            }
+        }
+    }
+
+    /**
+     * Gives the pool back to the client once a proxy using it is closed
+     */
+    void releaseImport() {
+        client.releasePool(this);
+    }
+
+    @Override
+    public void close() {
+        List<ClientConnection> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<>(connections);
+        }
+        for (ClientConnection connection : open) {
+            connection.close(new IOException("Connection pool for " + host + ":" + port + " is closed"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Writes a request once the connection that sends it is known
+     */
+    interface RequestEncoder {
+        FrameBuffer encode(long requestId, FrameConnection connection) throws IOException;
+
+        /**
+         * Reads a response that arrived after the call timed out, only to close the streams it
+         * references. Their content would otherwise stay buffered until the connection closes.
+         */
+        void releaseStreams(Frame response);
+    }
+
+    private static final class WarmUp {
+        final int target;
+        final CompletableFuture<Void> done;
+
+        WarmUp(int target, CompletableFuture<Void> done) {
+            this.target = target;
+            this.done = done;
+        }
+    }
+
+    /**
+     * A request and its pending response
+     */
+    static final class Call {
+        final long requestId;
+        final RequestEncoder encoder;
+        final CompletableFuture<Frame> response = new CompletableFuture<>();
+        volatile ClientConnection connection;
+        volatile FrameBuffer request;
+        volatile ScheduledFuture<?> timeout;
+
+        Call(long requestId, RequestEncoder encoder) {
+            this.requestId = requestId;
+            this.encoder = encoder;
+        }
+
+        /**
+         * One-way requests are done once they are sent. Their streams are still sent afterwards.
+         */
+        void sent() {
+            response.complete(null);
+            cancelTimeout();
+        }
+
+        /**
+         * Streams of the request that the service did not consume until it returned are aborted
+         */
+        void complete(Frame frame) {
+            response.complete(frame);
+            cancelTimeout();
+            abortStreams();
+        }
+
+        void fail(Throwable cause) {
+            response.completeExceptionally(cause);
+            cancelTimeout();
+            abortStreams();
+        }
+
+        private void abortStreams() {
+            FrameBuffer sent = request;
+            if (sent != null) {
+                sent.abortStreams();
+            }
+        }
+
+        private void cancelTimeout() {
+            ScheduledFuture<?> scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
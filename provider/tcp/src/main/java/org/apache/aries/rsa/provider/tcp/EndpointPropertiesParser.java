@@ -18,9 +18,14 @@
  */
 package org.apache.aries.rsa.provider.tcp;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.aries.rsa.util.StringPlus;
+
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
 
 public class EndpointPropertiesParser {
     static final String PORT_KEY = "aries.rsa.port";
@@ -28,6 +33,26 @@ public class EndpointPropertiesParser {
     static final String HOSTNAME_KEY = "aries.rsa.hostname";
     static final String TIMEOUT_KEY = "osgi.basic.timeout";
     static final String DEFAULT_TIMEOUT_MILLIS = "300000";
+    static final String METHOD_TIMEOUT_PREFIX = "aries.rsa.timeout.";
+    static final String PROTOCOL_KEY = TCPProvider.TCP_CONFIG_TYPE + ".protocol";
+    static final String MAX_CONNECTIONS_KEY = "aries.rsa.maxConnections";
+    static final String DEFAULT_MAX_CONNECTIONS = "8";
+    static final String MIN_CONNECTIONS_KEY = "aries.rsa.minConnections";
+    static final String MAX_PIPELINED_CALLS_KEY = "aries.rsa.maxPipelinedCalls";
+    static final String SERIALIZATION_KEY = TCPProvider.TCP_CONFIG_TYPE + ".serialization";
+    static final String MAX_CONCURRENT_CALLS_KEY = "aries.rsa.maxConcurrentCalls";
+    static final String MAX_QUEUE_SIZE_KEY = "aries.rsa.maxQueueSize";
+    static final String MAX_QUEUE_WAIT_KEY = "aries.rsa.maxQueueWait";
+    static final String COMPRESSION_KEY = TCPProvider.TCP_CONFIG_TYPE + ".compression";
+    static final String COMPRESSION_THRESHOLD_KEY = TCPProvider.TCP_CONFIG_TYPE + ".compressionThreshold";
+    static final String DEFAULT_COMPRESSION_THRESHOLD = "8192";
+    static final String UNIX_SOCKET_KEY = TCPProvider.TCP_CONFIG_TYPE + ".unixSocket";
+    static final String UNIX_ADDRESS_KEY = TCPProvider.TCP_CONFIG_TYPE + ".unixAddress";
+    static final String UNIX_SCHEME = "unix://";
+    static final String BY_REFERENCE_INTENT = "aries.byReference";
+    static final String ONE_WAY_INTENT = "aries.oneway";
+    private static final String[] INTENT_KEYS = {RemoteConstants.SERVICE_EXPORTED_INTENTS,
+        RemoteConstants.SERVICE_EXPORTED_INTENTS_EXTRA, RemoteConstants.SERVICE_INTENTS};
 
     private Map<String, Object> ep;
 
@@ -42,6 +67,20 @@ public class EndpointPropertiesParser {
     public int getTimeoutMillis() {
       return getInt(TIMEOUT_KEY, DEFAULT_TIMEOUT_MILLIS);
     }
+
+    /**
+     * @return timeouts of single methods by method name, configured by properties of the form
+     *         aries.rsa.timeout.&lt;method name&gt;
+     */
+    public Map<String, Integer> getMethodTimeouts() {
+        Map<String, Integer> timeouts = new HashMap<>();
+        for (String key : ep.keySet()) {
+            if (key.startsWith(METHOD_TIMEOUT_PREFIX) && key.length() > METHOD_TIMEOUT_PREFIX.length()) {
+                timeouts.put(key.substring(METHOD_TIMEOUT_PREFIX.length()), getInt(key, null));
+            }
+        }
+        return timeouts;
+    }
     
     int getInt(String key, String defaultValue) {
         return Integer.parseInt(getString(key, defaultValue));
@@ -67,4 +106,113 @@ public class EndpointPropertiesParser {
     public int getNumThreads() {
         return getInt("aries.rsa.numThreads", "10");
     }
+
+    /**
+     * @return version of the wire protocol the exporter speaks. Endpoints of exporters that
+     *         predate connection reuse do not carry this property
+     */
+    public int getProtocolVersion() {
+        return getInt(PROTOCOL_KEY, String.valueOf(TcpProtocol.LEGACY_VERSION));
+    }
+
+    /**
+     * @return maximum number of calls to the endpoint executed at the same time, by default the
+     *         number of worker threads
+     */
+    public int getMaxConcurrentCalls() {
+        return getInt(MAX_CONCURRENT_CALLS_KEY, String.valueOf(getNumThreads()));
+    }
+
+    /**
+     * @return maximum number of calls waiting for execution before further calls are rejected
+     */
+    public int getMaxQueueSize() {
+        return getInt(MAX_QUEUE_SIZE_KEY, String.valueOf(AdmissionControl.UNLIMITED));
+    }
+
+    /**
+     * @return maximum time in ms a call waits for execution or 0 for no limit
+     */
+    public int getMaxQueueWaitMillis() {
+        return getInt(MAX_QUEUE_WAIT_KEY, "0");
+    }
+
+    public int getMaxConnections() {
+        return getInt(MAX_CONNECTIONS_KEY, System.getProperty(MAX_CONNECTIONS_KEY, DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+     * @return number of connections the consumer opens when it imports the endpoint
+     */
+    public int getMinConnections() {
+        return getInt(MIN_CONNECTIONS_KEY, System.getProperty(MIN_CONNECTIONS_KEY, "0"));
+    }
+
+    /**
+     * @return maximum number of calls the consumer has in flight on one connection
+     */
+    public int getMaxPipelinedCalls() {
+        return getInt(MAX_PIPELINED_CALLS_KEY, System.getProperty(MAX_PIPELINED_CALLS_KEY,
+                                                                 String.valueOf(ConnectionPool.DEFAULT_MAX_PIPELINED_CALLS)));
+    }
+
+    /**
+     * @return names of the serializations the exporter accepts in the order of its preference
+     */
+    public List<String> getSerializations() {
+        List<String> names = StringPlus.normalize(ep.get(SERIALIZATION_KEY));
+        return names != null && !names.isEmpty() ? names : Serializations.DEFAULT_NAMES;
+    }
+
+    /**
+     * @return path of the Unix domain socket the exporter should listen on or null
+     */
+    public String getUnixSocket() {
+        return getString(UNIX_SOCKET_KEY, null);
+    }
+
+    /**
+     * @return path of the Unix domain socket the endpoint is published with or null
+     */
+    public String getUnixAddress() {
+        String address = getString(UNIX_ADDRESS_KEY, null);
+        return address != null && address.startsWith(UNIX_SCHEME) ? address.substring(UNIX_SCHEME.length()) : null;
+    }
+
+    /**
+     * @return true if the exporter allows consumers of the same framework to pass arguments and
+     *         results by reference
+     */
+    public boolean isPassByReference() {
+        return hasIntent(BY_REFERENCE_INTENT);
+    }
+
+    /**
+     * @return true if all void methods of the service are called one-way
+     */
+    public boolean isOneWay() {
+        return hasIntent(ONE_WAY_INTENT);
+    }
+
+    private boolean hasIntent(String intent) {
+        for (String key : INTENT_KEYS) {
+            List<String> intents = StringPlus.normalize(ep.get(key));
+            if (intents != null && intents.contains(intent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return compression of payloads above the threshold with the codecs listed in the order of
+     *         preference. By default payloads are not compressed
+     */
+    PayloadCompression getCompression() {
+        List<String> names = StringPlus.normalize(ep.get(COMPRESSION_KEY));
+        if (names == null) {
+            return PayloadCompression.NONE;
+        }
+        return PayloadCompression.of(names, getInt(COMPRESSION_THRESHOLD_KEY, DEFAULT_COMPRESSION_THRESHOLD));
+    }
 }
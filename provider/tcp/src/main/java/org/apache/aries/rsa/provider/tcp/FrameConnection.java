@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.aries.rsa.provider.tcp.ser.Compressors;
+import org.apache.aries.rsa.provider.tcp.ser.ConnectionDictionary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non blocking connection that exchanges length prefixed frames. Input is only read on the
+ * selector loop thread while frames can be sent from any thread. If the socket buffer is full
+ * the rest is written by the loop thread once the channel is writable again. Frames can end
+ * with a region of a file that is transferred to the socket without copying it.
+ */
+abstract class FrameConnection implements SelectorLoop.Handler {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private Logger log = LoggerFactory.getLogger(FrameConnection.class);
+    protected final SelectorLoop loop;
+    protected final SocketChannel channel;
+    protected SelectionKey key;
+    protected final ConnectionDictionary dictionary = new ConnectionDictionary();
+    protected final FrameStreams streams;
+    protected final Compressors compressors = new Compressors();
+    private volatile int compressions;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    /**
+     * ByteBuffers and FileRegions to write and actions to run once everything before them is written
+     */
+    private final Deque<Object> writeQueue = new ArrayDeque<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param executor executor that pumps the streams sent over the connection
+     */
+    FrameConnection(SelectorLoop loop, SocketChannel channel, Executor executor) {
+        this.loop = loop;
+        this.channel = channel;
+        this.streams = new FrameStreams(this, executor);
+    }
+
+    /**
+     * Must be called on the loop thread
+     */
+    void register(int ops) throws IOException {
+        key = loop.register(channel, ops, this);
+    }
+
+    @Override
+    public void handle(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                connected();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                write();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            log.debug("Closing connection after error", e);
+            close(e);
+        }
+    }
+
+    /**
+     * Called on the loop thread once a pending connect can be finished
+     */
+    protected void connected() throws IOException {
+    }
+
+    /**
+     * Consumes the complete frames available in the buffer.
+     *
+     * @return the capacity needed to hold the next incomplete frame
+     */
+    protected abstract int process(ByteBuffer in) throws IOException;
+
+    /**
+     * Called once when the connection is closed
+     */
+    protected void closed(Throwable cause) {
+    }
+
+    private void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            close(new EOFException("Connection closed by peer"));
+            return;
+        }
+        readBuffer.flip();
+        int required;
+        try {
+            required = process(readBuffer);
+        } finally {
+            readBuffer.compact();
+        }
+        if (required > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(required);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * @return the next complete frame without its length prefix or null if it is not fully read yet
+     */
+    protected static byte[] nextFrame(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4) {
+            return null;
+        }
+        int length = TcpProtocol.checkFrameLength(in.getInt(in.position()));
+        if (in.remaining() < length + 4) {
+            return null;
+        }
+        in.getInt();
+        byte[] data = new byte[length];
+        in.get(data);
+        return data;
+    }
+
+    /**
+     * @return the size of the incomplete frame at the start of the buffer
+     */
+    protected static int pendingFrameSize(ByteBuffer in) throws IOException {
+        return in.remaining() < 4 ? 0 : TcpProtocol.checkFrameLength(in.getInt(in.position())) + 4;
+    }
+
+    /**
+     * Removes the input that was read but not yet processed
+     */
+    protected byte[] takeBufferedInput() {
+        readBuffer.flip();
+        byte[] input = new byte[readBuffer.remaining()];
+        readBuffer.get(input);
+        readBuffer.clear();
+        return input;
+    }
+
+    void send(ByteBuffer buffer) {
+        enqueue(buffer);
+    }
+
+    /**
+     * Sends the header followed by count bytes of the file starting at position
+     */
+    void send(ByteBuffer header, FileChannel file, long position, long count) {
+        synchronized (this) {
+            enqueue(header);
+            enqueue(new FileRegion(file, position, count));
+        }
+    }
+
+    /**
+     * Runs the action once everything sent before is written or the connection is closed
+     */
+    void afterWrites(Runnable action) {
+        enqueue(action);
+    }
+
+    private void enqueue(Object item) {
+        synchronized (this) {
+            if (isClosed()) {
+                if (item instanceof Runnable) {
+                    ((Runnable) item).run();
+                }
+                return;
+            }
+            boolean writing = !writeQueue.isEmpty();
+            writeQueue.add(item);
+            if (writing) {
+                // write interest is already registered
+                return;
+            }
+            try {
+                if (writeQueued()) {
+                    return;
+                }
+            } catch (IOException e) {
+                log.debug("Error writing to connection", e);
+                close(e);
+                return;
+            }
+        }
+        if (loop.isLoopThread()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            return;
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                } catch (CancelledKeyException e) {
+                    // connection was closed in the meantime
+                }
+            }
+        });
+    }
+
+    private synchronized void write() throws IOException {
+        if (writeQueued()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * @return true if the queue is written completely, false if the socket buffer is full
+     */
+    private boolean writeQueued() throws IOException {
+        Object item;
+        while ((item = writeQueue.peek()) != null) {
+            if (item instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) item;
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+            } else if (item instanceof FileRegion) {
+                if (!((FileRegion) item).transferTo(channel)) {
+                    return false;
+                }
+            } else {
+                ((Runnable) item).run();
+            }
+            writeQueue.poll();
+        }
+        return true;
+    }
+
+    /**
+     * @return flags of the compression codecs both sides support
+     */
+    int getCompressions() {
+        return compressions;
+    }
+
+    void setCompressions(int compressions) {
+        this.compressions = compressions;
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    void close(Throwable cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        SelectorLoop.closeQuietly(channel);
+        synchronized (this) {
+            for (Object item : writeQueue) {
+                if (item instanceof Runnable) {
+                    ((Runnable) item).run();
+                }
+            }
+            writeQueue.clear();
+        }
+        streams.closed(cause);
+        compressors.close();
+        closed(cause);
+    }
+
+    private static final class FileRegion {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.remaining = count;
+        }
+
+        /**
+         * @return true if the region is written completely
+         */
+        boolean transferTo(WritableByteChannel target) throws IOException {
+            while (remaining > 0) {
+                long count = file.transferTo(position, remaining, target);
+                if (count == 0) {
+                    if (position >= file.size()) {
+                        throw new EOFException("File was truncated while it was sent");
+                    }
+                    return false;
+                }
+                position += count;
+                remaining -= count;
+            }
+            return true;
+        }
+    }
+}
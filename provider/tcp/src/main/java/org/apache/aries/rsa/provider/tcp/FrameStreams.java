@@ -0,0 +1,447 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The streams a connection carries beside its call frames. The content of an InputStream of a call
+ * is sent in chunks after the frame that references it. A sender has at most {@link #WINDOW} bytes
+ * in flight that the reader did not consume yet and gets new credit as the reader goes on, so a
+ * slow reader neither fills the memory of its side nor blocks the other calls of the connection.
+ * Streams of a plain FileInputStream are transferred from the file to the socket without copying.
+ */
+class FrameStreams {
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int WINDOW = 1024 * 1024;
+
+    private static final int HEADER_SIZE = 12;
+
+    private final Logger log = LoggerFactory.getLogger(FrameStreams.class);
+    private final FrameConnection connection;
+    private final Executor executor;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, OutgoingStream> outgoing = new ConcurrentHashMap<>();
+    private final Map<Long, IncomingStream> incoming = new ConcurrentHashMap<>();
+    private final Function<Long, IncomingStream> newIncoming = new Function<Long, IncomingStream>() {
+        @Override
+        public IncomingStream apply(Long id) {
+            return new IncomingStream(id);
+        }
+    };
+    private volatile IOException closedCause;
+
+    FrameStreams(FrameConnection connection, Executor executor) {
+        this.connection = connection;
+        this.executor = executor;
+    }
+
+    /**
+     * Registers a stream to send. Its id can be referenced in a frame, the content is only sent
+     * once the stream is started.
+     */
+    OutgoingStream open(InputStream in) {
+        OutgoingStream stream = new OutgoingStream(ids.incrementAndGet(), in);
+        outgoing.put(stream.id, stream);
+        return stream;
+    }
+
+    /**
+     * @return the stream with the content the other side sends under the id
+     */
+    InputStream receive(long id) {
+        return incoming.computeIfAbsent(id, newIncoming);
+    }
+
+    /**
+     * Cancels the transfer of a stream nobody will read and drops what was received of it
+     */
+    void release(long id) {
+        incoming.computeIfAbsent(id, newIncoming).close();
+    }
+
+    /**
+     * Handles the frame if it belongs to a stream. Called on the loop thread.
+     *
+     * @return false if the frame is a call frame
+     */
+    boolean handle(byte[] data) throws IOException {
+        ByteBuffer frame = ByteBuffer.wrap(data);
+        long header = frame.getLong();
+        long id = TcpProtocol.frameId(header);
+        int kind = TcpProtocol.frameKind(header);
+        switch (kind) {
+        case TcpProtocol.CALL_FRAME:
+            return false;
+        case TcpProtocol.STREAM_DATA:
+            incoming.computeIfAbsent(id, newIncoming).add(frame);
+            break;
+        case TcpProtocol.STREAM_END:
+            incoming.computeIfAbsent(id, newIncoming).end(null);
+            break;
+        case TcpProtocol.STREAM_ERROR:
+            String message = new String(data, frame.position(), frame.remaining(), StandardCharsets.UTF_8);
+            incoming.computeIfAbsent(id, newIncoming).end(new IOException(message));
+            break;
+        case TcpProtocol.STREAM_CREDIT:
+            OutgoingStream stream = outgoing.get(id);
+            if (stream != null) {
+                stream.credit(frame.getInt());
+            }
+            break;
+        case TcpProtocol.STREAM_CANCEL:
+            OutgoingStream cancelled = outgoing.get(id);
+            if (cancelled != null) {
+                cancelled.cancel();
+            }
+            break;
+        default:
+            throw new StreamCorruptedException("Unknown frame kind " + kind);
+        }
+        return true;
+    }
+
+    /**
+     * Fails the streams of the closed connection
+     */
+    void closed(Throwable cause) {
+        closedCause = new IOException("Connection closed", cause);
+        for (IncomingStream stream : incoming.values()) {
+            stream.end(closedCause);
+        }
+        for (OutgoingStream stream : outgoing.values()) {
+            stream.abort();
+        }
+    }
+
+    private static ByteBuffer frame(int kind, long id, int size) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + size);
+        frame.putInt(8 + size).putLong(TcpProtocol.streamHeader(kind, id));
+        return frame;
+    }
+
+    private void sendCredit(long id, int credit) {
+        ByteBuffer frame = frame(TcpProtocol.STREAM_CREDIT, id, 4);
+        frame.putInt(credit).flip();
+        connection.send(frame);
+    }
+
+    private void sendCancel(long id) {
+        ByteBuffer frame = frame(TcpProtocol.STREAM_CANCEL, id, 0);
+        frame.flip();
+        connection.send(frame);
+    }
+
+    /**
+     * Stream sent to the other side. Its content is read and sent by a task on the executor that
+     * runs as long as there is credit.
+     */
+    final class OutgoingStream implements Runnable {
+        final long id;
+        private final InputStream source;
+        private final FileChannel file;
+        private long position = -1;
+        private final AtomicLong credit = new AtomicLong(WINDOW);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean started;
+        private volatile boolean cancelled;
+        private volatile boolean aborted;
+        private volatile boolean done;
+
+        OutgoingStream(long id, InputStream source) {
+            this.id = id;
+            this.source = source;
+            // subclasses of FileInputStream might change the content they read
+            this.file = source.getClass() == FileInputStream.class ? ((FileInputStream) source).getChannel() : null;
+        }
+
+        void start() {
+            started = true;
+            schedule();
+        }
+
+        /**
+         * The reader closed the stream before its end
+         */
+        void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        /**
+         * Stops the stream if it was not sent completely. The reader gets an error.
+         */
+        void abort() {
+            if (done) {
+                return;
+            }
+            aborted = true;
+            if (started) {
+                schedule();
+            } else {
+                finish(null);
+            }
+        }
+
+        void credit(int bytes) {
+            credit.addAndGet(bytes);
+            schedule();
+        }
+
+        private void schedule() {
+            if (started && !done && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    finish(null);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!done) {
+                    if (cancelled) {
+                        // tells the reader that no more data of the stream follows
+                        finish(frame(TcpProtocol.STREAM_END, id, 0));
+                    } else if (aborted) {
+                        finish(error("Call completed before the stream was sent"));
+                    } else if (credit.get() <= 0) {
+                        break;
+                    } else {
+                        int count = (int) Math.min(CHUNK_SIZE, credit.get());
+                        int sent = file != null ? sendRegion(count) : sendChunk(count);
+                        if (sent < 0) {
+                            finish(frame(TcpProtocol.STREAM_END, id, 0));
+                        } else {
+                            credit.addAndGet(-sent);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Error reading stream {}", id, e);
+                finish(error(e.toString()));
+            } finally {
+                scheduled.set(false);
+            }
+            if (!done && (credit.get() > 0 || cancelled || aborted)) {
+                schedule();
+            }
+        }
+
+        private int sendChunk(int count) throws IOException {
+            ByteBuffer frame = frame(TcpProtocol.STREAM_DATA, id, count);
+            int read = source.read(frame.array(), HEADER_SIZE, count);
+            if (read < 0) {
+                return -1;
+            }
+            frame.putInt(0, 8 + read).limit(HEADER_SIZE + read).position(0);
+            connection.send(frame);
+            return read;
+        }
+
+        private int sendRegion(int count) throws IOException {
+            if (position < 0) {
+                position = file.position();
+            }
+            int length = (int) Math.min(count, file.size() - position);
+            if (length <= 0) {
+                return -1;
+            }
+            ByteBuffer header = frame(TcpProtocol.STREAM_DATA, id, 0);
+            header.putInt(0, 8 + length).flip();
+            connection.send(header, file, position, length);
+            position += length;
+            return length;
+        }
+
+        private ByteBuffer error(String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = frame(TcpProtocol.STREAM_ERROR, id, bytes.length);
+            frame.put(bytes);
+            return frame;
+        }
+
+        /**
+         * Sends the last frame of the stream and closes the source once the file regions sent
+         * before are written
+         */
+        private void finish(ByteBuffer last) {
+            done = true;
+            outgoing.remove(id);
+            if (last != null && started) {
+                last.flip();
+                connection.send(last);
+            }
+            connection.afterWrites(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        source.close();
+                    } catch (IOException e) {
+                        log.debug("Error closing stream {}", id, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stream received from the other side. The chunks are added by the loop thread and consumed by
+     * the reader who grants new credit to the sender.
+     */
+    final class IncomingStream extends InputStream {
+        private final long id;
+        private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+        private int consumed;
+        private boolean ended;
+        private IOException error;
+        private boolean closed;
+
+        IncomingStream(long id) {
+            this.id = id;
+            IOException cause = closedCause;
+            if (cause != null) {
+                end(cause);
+            }
+        }
+
+        synchronized void add(ByteBuffer chunk) {
+            if (!closed) {
+                chunks.add(chunk);
+                notifyAll();
+            }
+        }
+
+        synchronized void end(IOException cause) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            error = cause;
+            if (cause != null) {
+                chunks.clear();
+            }
+            if (closed) {
+                incoming.remove(id);
+            }
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int credit = 0;
+            int count;
+            synchronized (this) {
+                while (chunks.isEmpty() && !ended && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading stream " + id);
+                    }
+                }
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                ByteBuffer chunk = chunks.peek();
+                if (chunk == null) {
+                    incoming.remove(id);
+                    if (error != null) {
+                        throw error;
+                    }
+                    return -1;
+                }
+                count = Math.min(len, chunk.remaining());
+                chunk.get(b, off, count);
+                if (!chunk.hasRemaining()) {
+                    chunks.poll();
+                }
+                consumed += count;
+                if (consumed >= WINDOW / 4 && !ended) {
+                    credit = consumed;
+                    consumed = 0;
+                }
+            }
+            if (credit > 0) {
+                sendCredit(id, credit);
+            }
+            return count;
+        }
+
+        @Override
+        public synchronized int available() {
+            ByteBuffer chunk = chunks.peek();
+            return chunk != null ? chunk.remaining() : 0;
+        }
+
+        /**
+         * Closing the stream before its end cancels the rest of the transfer
+         */
+        @Override
+        public void close() {
+            boolean cancel;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                chunks.clear();
+                cancel = !ended;
+                if (ended) {
+                    incoming.remove(id);
+                }
+                notifyAll();
+            }
+            if (cancel) {
+                sendCancel(id);
+            }
+        }
+    }
+}
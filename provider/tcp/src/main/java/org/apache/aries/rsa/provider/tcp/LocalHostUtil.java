@@ -80,6 +80,19 @@ public final class LocalHostUtil {
         }
     }
 
+    /**
+     * @return true if the host name resolves to an address of this machine
+     */
+    public static boolean isLocalAddress(String host) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                || NetworkInterface.getByInetAddress(address) != null;
+        } catch (UnknownHostException | SocketException e) {
+            return false;
+        }
+    }
+
     public static String getLocalIp() {
         String localIP;
         try {
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.aries.rsa.provider.tcp.ser.DeepCopy;
+import org.osgi.framework.ServiceException;
+import org.osgi.util.promise.Deferred;
+import org.osgi.util.promise.Promise;
+
+/**
+ * Calls a service exported by the same framework directly on the thread of the caller instead of
+ * over a connection. Unless the endpoint allows passing by reference, arguments, results and
+ * exceptions are copied, so the call behaves like a remote one. Calls are not subject to timeouts.
+ */
+class LocalInvocationHandler implements InvocationHandler {
+    private final String endpointId;
+    private final MethodInvoker invoker;
+    private final ClassLoader cl;
+    private final DeepCopy copy;
+    private final ConcurrentMap<Method, Long> methodIds = new ConcurrentHashMap<>();
+
+    /**
+     * @param copy copies arguments and results or null to pass them by reference
+     */
+    LocalInvocationHandler(ClassLoader cl, String endpointId, MethodInvoker invoker, DeepCopy copy) {
+        this.cl = cl;
+        this.endpointId = endpointId;
+        this.invoker = invoker;
+        this.copy = copy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (Future.class.isAssignableFrom(method.getReturnType()) ||
+            CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+            return call(method, args);
+        } else if (Promise.class.isAssignableFrom(method.getReturnType())) {
+            final Deferred<Object> deferred = new Deferred<>();
+            call(method, args).whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object result, Throwable error) {
+                    if (error == null) {
+                        deferred.resolve(result);
+                    } else {
+                        deferred.fail(error);
+                    }
+                }
+            });
+            return deferred.getPromise();
+        } else {
+            try {
+                return call(method, args).get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Synchronous results are resolved before this method returns, asynchronous ones by the
+     * service
+     */
+    private CompletableFuture<Object> call(final Method method, Object[] args) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        try {
+            Object[] callArgs = copy != null ? copy.copyArgs(args, invoker.getClassLoader()) : args;
+            TCPServer.whenResolved(invoker.invoke(getMethodId(method), callArgs), new Consumer<Object>() {
+                @Override
+                public void accept(Object value) {
+                    try {
+                        value = copy != null ? copy.copy(value, cl) : value;
+                    } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                        result.completeExceptionally(callFailed(method, e));
+                        return;
+                    }
+                    if (value instanceof Throwable) {
+                        result.completeExceptionally((Throwable) value);
+                    } else {
+                        result.complete(value);
+                    }
+                }
+            });
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            result.completeExceptionally(callFailed(method, e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(callFailed(method, e));
+        }
+        return result;
+    }
+
+    private ServiceException callFailed(Method method, Throwable e) {
+        return new ServiceException("Error calling " + endpointId + " method: " + method.getName(), ServiceException.REMOTE, e);
+    }
+
+    private long getMethodId(Method method) {
+        Long id = methodIds.get(method);
+        if (id == null) {
+            id = TcpProtocol.methodId(method);
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+}
@@ -18,16 +18,24 @@
  */
 package org.apache.aries.rsa.provider.tcp;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class MethodInvoker {
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final MethodType DISPATCH_TYPE = MethodType.methodType(Object.class, Object[].class);
 
     private HashMap<Object, Object> primTypes;
     private Object service;
+    private Map<Long, Target> dispatchTable;
 
     public MethodInvoker(Object service) {
         this.service = service;
@@ -40,8 +48,41 @@ public class MethodInvoker {
         this.primTypes.put(Double.TYPE, Double.class);
         this.primTypes.put(Boolean.TYPE, Boolean.class);
         this.primTypes.put(Character.TYPE, Character.class);
+        this.dispatchTable = createDispatchTable();
     }
-    
+
+    ClassLoader getClassLoader() {
+        return service.getClass().getClassLoader();
+    }
+
+    /**
+     * Invokes the method with the given id as computed by {@link TcpProtocol#methodId(Method)}.
+     * The method handles are resolved once per service so no reflection happens per call.
+     */
+    public Object invoke(long methodId, Object[] args) {
+        Target target = dispatchTable.get(methodId);
+        if (target == null) {
+            return new IllegalArgumentException(String.format("No method found with id %016x on %s",
+                                                              methodId, service.getClass().getName()));
+        }
+        try {
+            return target.handle.invokeExact(args == null ? NO_ARGS : args);
+        } catch (Throwable e) {
+            return e;
+        }
+    }
+
+    /**
+     * @return name and parameter types of the method with the given id
+     */
+    String getSignature(long methodId) {
+        Target target = dispatchTable.get(methodId);
+        return target != null ? target.signature : String.format("%016x", methodId);
+    }
+
+    /**
+     * Finds the method by name and runtime argument types. Only used for clients of the legacy protocol.
+     */
     public Object invoke(String methodName, Object[] args) {
         Class<?>[] parameterTypesAr = getTypes(args);
         try {
@@ -51,7 +92,52 @@ public class MethodInvoker {
             return e;
         }
     }
-    
+
+    /**
+     * @return true if {@link #invoke(String, Object[])} finds a method for the call
+     */
+    boolean accepts(String methodName, Object[] args) {
+        try {
+            getMethod(methodName, getTypes(args));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private Map<Long, Target> createDispatchTable() {
+        Map<Long, Target> table = new HashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Method method : service.getClass().getMethods()) {
+            long id = TcpProtocol.methodId(method);
+            Target existing = table.get(id);
+            if (existing != null) {
+                if (!existing.signature.equals(TcpProtocol.methodSignature(method))) {
+                    throw new IllegalStateException("Methods " + existing.method + " and " + method + " have the same id");
+                }
+                if (!existing.method.isBridge()) {
+                    continue;
+                }
+            }
+            try {
+                table.put(id, new Target(method, createHandle(lookup, method)));
+            } catch (IllegalAccessException | SecurityException e) {
+                throw new IllegalArgumentException("Method " + method + " of exported service is not accessible", e);
+            }
+        }
+        return table;
+    }
+
+    private MethodHandle createHandle(MethodHandles.Lookup lookup, Method method) throws IllegalAccessException {
+        if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            method.setAccessible(true);
+        }
+        return lookup.unreflect(method)
+            .bindTo(service)
+            .asSpreader(Object[].class, method.getParameterTypes().length)
+            .asType(DISPATCH_TYPE);
+    }
+
     private Method getMethod(String methodName, Class<?>[] parameterTypesAr) {
         try {
             return service.getClass().getMethod(methodName, parameterTypesAr);
@@ -71,6 +157,9 @@ public class MethodInvoker {
     }
 
     private boolean allParamsMatch(Class<?>[] methodParamTypes, Class<?>[] parameterTypesAr) {
+        if (methodParamTypes.length != parameterTypesAr.length) {
+            return false;
+        }
         int c = 0;
         for (Class<?> type : methodParamTypes) {
             if (!matches(type, parameterTypesAr[c])) {
@@ -82,6 +171,10 @@ public class MethodInvoker {
     }
 
     private boolean matches(Class<?> type, Class<?> paramType) {
+        if (paramType == null) {
+            // null argument
+            return !type.isPrimitive();
+        }
         if (type.isPrimitive()) {
             return paramType == primTypes.get(type);
         }
@@ -92,10 +185,22 @@ public class MethodInvoker {
         List<Class<?>> parameterTypes = new ArrayList<>();
         if (args != null) {
             for (Object arg : args) {
-                parameterTypes.add(arg.getClass());
+                parameterTypes.add(arg == null ? null : arg.getClass());
             }
         }
         Class<?>[] parameterTypesAr = parameterTypes.toArray(new Class[]{});
         return parameterTypesAr;
     }
+
+    private static final class Target {
+        final Method method;
+        final String signature;
+        final MethodHandle handle;
+
+        Target(Method method, MethodHandle handle) {
+            this.method = method;
+            this.signature = TcpProtocol.methodSignature(method);
+            this.handle = handle;
+        }
+    }
 }
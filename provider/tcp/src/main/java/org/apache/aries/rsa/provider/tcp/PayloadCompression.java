@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
+
+/**
+ * Compression of the payloads of one endpoint. Payloads of at least the threshold size are
+ * compressed with the first of the configured codecs that the connection supports.
+ */
+final class PayloadCompression {
+    static final PayloadCompression NONE = new PayloadCompression(Collections.<Compression>emptyList(), 0);
+
+    private final List<Compression> codecs;
+    private final int threshold;
+
+    private PayloadCompression(List<Compression> codecs, int threshold) {
+        this.codecs = codecs;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param names names of the codecs in the order of preference. Unknown ones are ignored
+     * @param threshold minimum size of the payloads to compress
+     */
+    static PayloadCompression of(List<String> names, int threshold) {
+        List<Compression> codecs = new ArrayList<>();
+        for (String name : names) {
+            Compression codec = Compression.forName(name);
+            if (codec != null && codec != Compression.NONE) {
+                codecs.add(codec);
+            }
+        }
+        return codecs.isEmpty() ? NONE : new PayloadCompression(codecs, threshold);
+    }
+
+    /**
+     * @param supported flags of the codecs the connection supports
+     * @return the codec to use or null to send payloads uncompressed
+     */
+    Compression select(int supported) {
+        for (Compression codec : codecs) {
+            if ((supported & codec.getFlag()) != 0) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+}
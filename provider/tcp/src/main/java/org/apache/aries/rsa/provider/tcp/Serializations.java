@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.provider.tcp.ser.JavaSerialization;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+
+/**
+ * The serializations known to a provider by name
+ */
+class Serializations {
+    /**
+     * Offered by exporters that do not configure the serializations of an endpoint
+     */
+    static final List<String> DEFAULT_NAMES = Arrays.asList(BinarySerialization.NAME, JavaSerialization.NAME);
+
+    private final Map<String, Serialization> serializations = new ConcurrentHashMap<>();
+
+    Serializations() {
+        add(new BinarySerialization());
+        add(new JavaSerialization());
+    }
+
+    void add(Serialization serialization) {
+        serializations.put(serialization.getName(), serialization);
+    }
+
+    void remove(Serialization serialization) {
+        serializations.remove(serialization.getName(), serialization);
+    }
+
+    /**
+     * @return the serialization or null if it is unknown
+     */
+    Serialization get(String name) {
+        return serializations.get(name);
+    }
+
+    /**
+     * @param offered names of the serializations an exporter accepts in the order of its preference
+     * @return the first offered serialization that is known or Java serialization if there is none
+     */
+    Serialization select(List<String> offered) {
+        for (String name : offered) {
+            Serialization serialization = serializations.get(name);
+            if (serialization != null) {
+                return serialization;
+            }
+        }
+        return serializations.get(JavaSerialization.NAME);
+    }
+}
@@ -18,7 +18,8 @@
  */
 package org.apache.aries.rsa.provider.tcp;
 
-import java.lang.reflect.InvocationHandler;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.util.Arrays;
@@ -26,14 +27,30 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.apache.aries.rsa.annotations.RSADistributionProvider;
+import org.apache.aries.rsa.provider.tcp.metrics.CallMetrics;
+import org.apache.aries.rsa.provider.tcp.ser.DeepCopy;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
 import org.apache.aries.rsa.spi.DistributionProvider;
 import org.apache.aries.rsa.spi.Endpoint;
 import org.apache.aries.rsa.spi.IntentUnsatisfiedException;
 import org.apache.aries.rsa.util.StringPlus;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.slf4j.Logger;
@@ -42,14 +59,24 @@ import org.slf4j.LoggerFactory;
 @SuppressWarnings("rawtypes")
 @RSADistributionProvider(configs="aries.tcp")
 @Component(property = { //
-        RemoteConstants.REMOTE_INTENTS_SUPPORTED + "=osgi.basic,osgi.async",
+        RemoteConstants.REMOTE_INTENTS_SUPPORTED + "=osgi.basic,osgi.async," + EndpointPropertiesParser.BY_REFERENCE_INTENT
+            + "," + EndpointPropertiesParser.ONE_WAY_INTENT,
         RemoteConstants.REMOTE_CONFIGS_SUPPORTED + "=" + TCPProvider.TCP_CONFIG_TYPE //
 })
 public class TCPProvider implements DistributionProvider {
     static final String TCP_CONFIG_TYPE = "aries.tcp";
-    private static final String[] SUPPORTED_INTENTS = { "osgi.basic", "osgi.async"};
+    private static final String[] SUPPORTED_INTENTS = { "osgi.basic", "osgi.async", EndpointPropertiesParser.BY_REFERENCE_INTENT,
+        EndpointPropertiesParser.ONE_WAY_INTENT};
     
     private Logger logger = LoggerFactory.getLogger(TCPProvider.class);
+    private TcpClient client;
+    private Serializations serializations = new Serializations();
+    private CallStatistics statistics = new CallStatistics();
+    private ServiceRegistration<CallMetrics> metricsRegistration;
+    private ObjectName metricsName;
+    private TCPServer sharedServer;
+    private int sharedServerUsers;
+    private Map<String, MethodInvoker> localServices = new ConcurrentHashMap<>();
 
     @Override
     public String[] getSupportedTypes() {
@@ -69,7 +96,39 @@ public class TCPProvider implements DistributionProvider {
             logger.warn("Unsupported intents found: {}. Not exporting service", intents);
             return null;
         }
-        return new TcpEndpoint(serviceO, effectiveProperties);
+        return new TcpEndpoint(serviceO, effectiveProperties, this);
+    }
+
+    /**
+     * All endpoints without a configured port are served by one server of this provider.
+     * Its worker pool grows to the largest number of threads requested by these endpoints.
+     */
+    synchronized TCPServer acquireSharedServer(int numThreads) {
+        if (sharedServer == null) {
+            sharedServer = new TCPServer(0, numThreads, serializations, statistics);
+        } else {
+            sharedServer.ensureNumThreads(numThreads);
+        }
+        sharedServerUsers++;
+        return sharedServer;
+    }
+
+    synchronized void releaseSharedServer() throws IOException {
+        if (--sharedServerUsers == 0) {
+            sharedServer.close();
+            sharedServer = null;
+        }
+    }
+
+    /**
+     * Services exported by this provider can be imported by the same framework without a connection
+     */
+    void addLocalService(String endpointId, MethodInvoker invoker) {
+        localServices.put(endpointId, invoker);
+    }
+
+    void removeLocalService(String endpointId) {
+        localServices.remove(endpointId);
     }
 
     private Set<String> getCombinedIntents(Map<String, Object> effectiveProperties) {
@@ -92,13 +151,134 @@ public class TCPProvider implements DistributionProvider {
                                  EndpointDescription endpoint)
         throws IntentUnsatisfiedException {
         try {
+            EndpointPropertiesParser parser = new EndpointPropertiesParser(endpoint);
+            MethodInvoker localService = getLocalService(consumerContext, endpoint);
+            if (localService != null) {
+                DeepCopy copy = parser.isPassByReference() ? null
+                    : new DeepCopy(serializations.select(parser.getSerializations()));
+                return Proxy.newProxyInstance(cl, interfaces, new LocalInvocationHandler(cl, endpoint.getId(), localService, copy));
+            }
             URI address = new URI(endpoint.getId());
-            Integer timeout = new EndpointPropertiesParser(endpoint).getTimeoutMillis();
-            InvocationHandler handler = new TcpInvocationHandler(cl, address.getHost(), address.getPort(), timeout);
+            Integer timeout = parser.getTimeoutMillis();
+            TcpInvocationHandler handler;
+            if (parser.getProtocolVersion() >= TcpProtocol.VERSION) {
+                ConnectionPool pool = getClient().getPool(address.getHost(), address.getPort(), parser.getMaxConnections(),
+                                                          parser.getMaxPipelinedCalls(), getUnixSocket(parser, address.getHost()));
+                Serialization serialization = serializations.select(parser.getSerializations());
+                handler = new TcpInvocationHandler(cl, address.getHost(), address.getPort(), endpoint.getId(), timeout,
+                                                   parser.getMethodTimeouts(), pool, serialization,
+                                                   parser.getCompression(), parser.isOneWay());
+                int minConnections = parser.getMinConnections();
+                if (minConnections > 0) {
+                    handler.setReady(pool.warmUp(minConnections));
+                }
+            } else {
+                handler = new TcpInvocationHandler(cl, address.getHost(), address.getPort(), timeout);
+            }
+            handler.setStatistics(statistics);
             return Proxy.newProxyInstance(cl, interfaces, handler);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * @return the exported service if the endpoint was exported by this provider in the framework of the consumer
+     */
+    private MethodInvoker getLocalService(BundleContext consumerContext, EndpointDescription endpoint) {
+        MethodInvoker service = localServices.get(endpoint.getId());
+        if (service == null || endpoint.getFrameworkUUID() == null
+            || !endpoint.getFrameworkUUID().equals(consumerContext.getProperty(Constants.FRAMEWORK_UUID))) {
+            return null;
+        }
+        return service;
+    }
+
+    /**
+     * Exporters on the same host are preferably called over their Unix domain socket
+     */
+    private String getUnixSocket(EndpointPropertiesParser parser, String host) {
+        String path = parser.getUnixAddress();
+        if (path == null || !UnixSockets.isSupported() || !LocalHostUtil.isLocalAddress(host)) {
+            return null;
+        }
+        return path;
+    }
+
+    Serializations getSerializations() {
+        return serializations;
+    }
+
+    CallStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC, unbind = "removeSerialization")
+    public void addSerialization(Serialization serialization) {
+        serializations.add(serialization);
+    }
+
+    public void removeSerialization(Serialization serialization) {
+        serializations.remove(serialization);
+    }
+
+    /**
+     * The client is only started once the first endpoint is imported
+     */
+    private synchronized TcpClient getClient() throws IOException {
+        if (client == null) {
+            client = new TcpClient();
+        }
+        return client;
+    }
+
+    /**
+     * Publishes the call statistics as OSGi service and MBean
+     */
+    @Activate
+    public synchronized void activate(BundleContext context) {
+        metricsRegistration = context.registerService(CallMetrics.class, statistics, null);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(CallMetrics.OBJECT_NAME + "," + CallMetrics.FRAMEWORK_KEY + "="
+                + getFrameworkKey(context));
+            server.registerMBean(new StandardMBean(statistics, CallMetrics.class, true), name);
+            metricsName = name;
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Unable to register the call statistics as MBean {}", CallMetrics.OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * @return the framework UUID or a key of this provider instance if the framework has none
+     */
+    private String getFrameworkKey(BundleContext context) {
+        String uuid = context.getProperty(Constants.FRAMEWORK_UUID);
+        return uuid != null ? uuid : "provider-" + Integer.toHexString(System.identityHashCode(this));
+    }
+
+    ObjectName getMetricsName() {
+        return metricsName;
+    }
+
+    @Deactivate
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (metricsRegistration != null) {
+            metricsRegistration.unregister();
+            metricsRegistration = null;
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                logger.debug("Unable to unregister MBean {}", metricsName, e);
+            }
+            metricsName = null;
+        }
+    }
+
 }
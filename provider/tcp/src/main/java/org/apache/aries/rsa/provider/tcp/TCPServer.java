@@ -18,119 +18,721 @@
  */
 package org.apache.aries.rsa.provider.tcp;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
-import org.apache.aries.rsa.provider.tcp.ser.BasicObjectOutputStream;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.Frame;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.FrameBuffer;
+import org.apache.aries.rsa.provider.tcp.context.CallContext;
 import org.apache.aries.rsa.provider.tcp.ser.BasicObjectInputStream;
+import org.apache.aries.rsa.provider.tcp.ser.BasicObjectOutputStream;
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.osgi.framework.ServiceException;
 import org.osgi.util.promise.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class TCPServer implements Closeable, Runnable {
+/**
+ * Listens on one port and serves calls to all services registered with it.
+ * <p>
+ * A single selector thread accepts connections and reads request frames. The calls are executed on a
+ * bounded pool of worker threads that is shared by all services of the server. Each request names the
+ * endpoint id of its target service. The {@link AdmissionControl} of that service decides if the call
+ * gets a worker, waits for one or is rejected as the server is busy.
+ */
+public class TCPServer implements Closeable {
+    // file type bits of the unix:mode attribute
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+
     private Logger log = LoggerFactory.getLogger(TCPServer.class);
-    private ServerSocket serverSocket;
-    private Object service;
-    private boolean running;
-    private ExecutorService executor;
-    private MethodInvoker invoker;
-
-    public TCPServer(Object service, String localip, Integer port, int numThreads) {
-        this.service = service;
-        this.invoker = new MethodInvoker(service);
+    private ServerSocketChannel serverChannel;
+    private ServerSocketChannel unixChannel;
+    private Path unixSocket;
+    private SelectorLoop loop;
+    private ThreadPoolExecutor executor;
+    private Map<String, MethodInvoker> services = new ConcurrentHashMap<>();
+    private Map<String, AdmissionControl> admissions = new ConcurrentHashMap<>();
+    private Map<String, PayloadCompression> compressions = new ConcurrentHashMap<>();
+    private ScheduledThreadPoolExecutor timer;
+    private Serializations serializations;
+    private CallStatistics statistics;
+
+    public TCPServer(int port, int numThreads) {
+        this(port, numThreads, new Serializations(), new CallStatistics());
+    }
+
+    /**
+     * @param statistics records the calls of all services of the server
+     */
+    TCPServer(int port, int numThreads, Serializations serializations, CallStatistics statistics) {
+        this.serializations = serializations;
+        this.statistics = statistics;
         try {
-            this.serverSocket = new ServerSocket(port);
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            this.serverChannel.bind(new InetSocketAddress(port));
+            this.serverChannel.configureBlocking(false);
+            this.loop = new SelectorLoop("aries-tcp-server-" + getPort());
         } catch (IOException e) {
+            SelectorLoop.closeQuietly(serverChannel);
             throw new RuntimeException(e);
         }
-        this.running = true;
-        this.executor = Executors.newCachedThreadPool();
-        for (int c = 0; c < numThreads; c++) {
-            this.executor.execute(this);
-        }
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new WorkerThreadFactory("aries-tcp-worker-" + getPort() + "-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loop.register(serverChannel, SelectionKey.OP_ACCEPT, new SelectorLoop.Handler() {
+                        @Override
+                        public void handle(SelectionKey key) {
+                            accept(serverChannel, true);
+                        }
+                    });
+                } catch (IOException e) {
+                    log.warn("Error listening on port {}", getPort(), e);
+                }
+            }
+        });
     }
-    
+
     int getPort() {
-        return this.serverSocket.getLocalPort();
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    public void addService(String endpointId, Object service) {
+        addService(endpointId, service, AdmissionControl.UNLIMITED, AdmissionControl.UNLIMITED, 0,
+                   PayloadCompression.NONE);
+    }
+
+    /**
+     * @param maxConcurrentCalls maximum number of calls to the service that occupy a worker
+     * @param maxQueueSize maximum number of calls that wait for a worker, further calls are rejected
+     * @param maxQueueWaitMillis maximum time a call waits for a worker or 0 for no limit
+     * @param compression compression of the responses of the service
+     */
+    void addService(String endpointId, Object service, int maxConcurrentCalls, int maxQueueSize, int maxQueueWaitMillis,
+                    PayloadCompression compression) {
+        ScheduledExecutorService timer = maxQueueWaitMillis > 0 ? getTimer() : null;
+        admissions.put(endpointId, new AdmissionControl(endpointId, executor, timer, maxConcurrentCalls, maxQueueSize, maxQueueWaitMillis));
+        compressions.put(endpointId, compression);
+        services.put(endpointId, new MethodInvoker(service));
+    }
+
+    /**
+     * @return the service exported under the endpoint id or null
+     */
+    MethodInvoker getService(String endpointId) {
+        return services.get(endpointId);
+    }
+
+    public void removeService(String endpointId) {
+        services.remove(endpointId);
+        admissions.remove(endpointId);
+        compressions.remove(endpointId);
+        statistics.removeEndpoint(endpointId);
+    }
+
+    private synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new WorkerThreadFactory("aries-tcp-timer-" + getPort() + "-"));
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    /**
+     * Additionally accepts connections on a Unix domain socket, so consumers on the same host can
+     * bypass the TCP stack. A server listens on one socket at most.
+     *
+     * @param path path of the socket file. A stale socket of a previous run is replaced, any other
+     *        file at the path is left alone and the server only listens on TCP then
+     * @return the path of the socket the server listens on or null if it only listens on TCP
+     */
+    synchronized String listenUnix(String path) {
+        if (unixSocket != null) {
+            if (!unixSocket.equals(Paths.get(path).toAbsolutePath())) {
+                log.warn("Server on port {} already listens on Unix domain socket {}, ignoring {}", getPort(), unixSocket, path);
+            }
+            return unixSocket.toString();
+        }
+        if (!UnixSockets.isSupported()) {
+            log.info("Unix domain socket {} is not used as this Java runtime does not support it", path);
+            return null;
+        }
+        final Path socket = Paths.get(path).toAbsolutePath();
+        final ServerSocketChannel channel;
+        try {
+            if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+                if (!isSocketFile(socket)) {
+                    throw new IOException("Path exists and is not a socket");
+                }
+                if (isInUse(socket)) {
+                    throw new IOException("Socket is in use by another process");
+                }
+                Files.delete(socket);
+            }
+            channel = UnixSockets.openServerChannel();
+            try {
+                channel.bind(UnixSockets.address(socket.toString()));
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                SelectorLoop.closeQuietly(channel);
+                throw e;
+            }
+        } catch (IOException e) {
+            log.warn("Can not listen on Unix domain socket {}, using TCP only", socket, e);
+            return null;
+        }
+        unixChannel = channel;
+        unixSocket = socket;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loop.register(channel, SelectionKey.OP_ACCEPT, new SelectorLoop.Handler() {
+                        @Override
+                        public void handle(SelectionKey key) {
+                            accept(channel, false);
+                        }
+                    });
+                } catch (IOException e) {
+                    log.warn("Error listening on Unix domain socket {}", socket, e);
+                }
+            }
+        });
+        return socket.toString();
+    }
+
+    /**
+     * Runtimes without the unix attribute view only tell that the file is neither a regular file,
+     * a directory nor a link
+     */
+    private static boolean isSocketFile(Path path) throws IOException {
+        if (path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & S_IFMT) == S_IFSOCK;
+        }
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
     }
 
-    public void run() {
-        ClassLoader serviceCL = service.getClass().getClassLoader();
-        while (running) {
+    private static boolean isInUse(Path socket) {
+        try (SocketChannel channel = UnixSockets.openChannel()) {
+            channel.connect(UnixSockets.address(socket.toString()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes sure the worker pool has at least the given number of threads
+     */
+    public synchronized void ensureNumThreads(int numThreads) {
+        if (numThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(numThreads);
+            executor.setCorePoolSize(numThreads);
+        }
+    }
+
+    private void accept(ServerSocketChannel server, boolean tcp) {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            if (tcp) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            new Connection(loop, channel).register(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            log.warn("Error accepting connection", e);
+        }
+    }
+
+    /**
+     * Reads the header of a request on the selector thread, so the call can be admitted by the
+     * limits of its endpoint before it occupies a worker
+     */
+    private void submit(Connection connection, byte[] data) throws IOException {
+        Frame frame = new Frame(data, connection);
+        String endpointId = connection.dictionary.readString(frame.in);
+        long methodId = frame.in.readLong();
+        int timeoutMillis = frame.in.readInt();
+        Serialization serialization = getSerialization(connection.dictionary.readString(frame.in));
+        Request request = new Request(connection, frame, endpointId, methodId, timeoutMillis, serialization);
+        AdmissionControl admission = admissions.get(endpointId);
+        if (admission != null) {
+            admission.submit(request);
+        } else {
+            executor.execute(request);
+        }
+    }
+
+    /**
+     * @param recorder records the size of the response or null
+     */
+    private void sendResult(Connection connection, long requestId, Serialization serialization,
+                            PayloadCompression compression, Object result, CallStatistics.Recorder recorder) {
+        try {
+            FrameBuffer response = TcpProtocol.responseFrame(requestId, connection);
+            try (ObjectOutput out = serialization.createOutput(response)) {
+                out.writeObject(result);
+            } catch (IOException | RuntimeException e) {
+                response.discard();
+                throw e;
+            }
+            response.compress(compression);
+            try {
+                response.checkSize();
+            } catch (IOException e) {
+                // the client would close the connection, so it only gets the error
+                log.warn("Result of service call not sent.", e);
+                ServiceException error = new ServiceException(e.getMessage(), ServiceException.REMOTE);
+                sendResult(connection, requestId, serialization, compression, error, recorder);
+                return;
+            }
+            if (recorder != null) {
+                recorder.bytesOut(response.size());
+            }
+            connection.send(response.toByteBuffer());
+            response.startStreams();
+        } catch (Exception e) {
+            log.warn("Error processing service call.", e);
+            connection.close(e);
+        }
+    }
+
+    private void handleLegacyCall(SocketChannel channel, InputStream in) {
+        try {
+            List<MethodInvoker> invokers = new ArrayList<>(services.values());
+            if (invokers.isEmpty()) {
+                throw new IllegalStateException("Legacy call on a port without services");
+            }
             try (
-                    Socket socket = this.serverSocket.accept();
-                    ObjectInputStream ois = new BasicObjectInputStream(socket.getInputStream(), serviceCL);
-                    ObjectOutputStream objectOutput = new BasicObjectOutputStream(socket.getOutputStream())
+                    ObjectInputStream ois = new BasicObjectInputStream(in, getLegacyClassLoader(invokers));
+                    ObjectOutputStream objectOutput = new BasicObjectOutputStream(Channels.newOutputStream(channel))
                 ) {
-                handleCall(ois, objectOutput);
-            } catch (SocketException e) {
-                running = false;
-            } catch (Exception e) {
-                log.warn("Error processing service call.", e);
+                String methodName = (String)ois.readObject();
+                Object[] args = (Object[])ois.readObject();
+                Object value = invokeLegacy(invokers, methodName, args);
+                // the legacy connection is served by this worker anyway, so it waits for the result
+                CompletableFuture<Object> result = new CompletableFuture<>();
+                whenResolved(value, result::complete);
+                objectOutput.writeObject(result.get());
             }
+        } catch (Exception e) {
+            log.warn("Error processing service call.", e);
+        } finally {
+            SelectorLoop.closeQuietly(channel);
         }
     }
 
-    private void handleCall(ObjectInputStream ois, ObjectOutputStream objectOutput) throws Exception {
-        String methodName = (String)ois.readObject();
-        Object[] args = (Object[])ois.readObject();
-        Object result = invoker.invoke(methodName, args);
-        result = resolveAsnyc(result);
-        if (result instanceof InvocationTargetException) {
-            result = ((InvocationTargetException) result).getCause();
+    /**
+     * Clients of the legacy protocol do not name the endpoint. On a port shared by several services
+     * the call goes to the only service with a method that accepts it.
+     */
+    private static Object invokeLegacy(List<MethodInvoker> invokers, String methodName, Object[] args) {
+        if (invokers.size() == 1) {
+            return invokers.get(0).invoke(methodName, args);
+        }
+        MethodInvoker target = null;
+        for (MethodInvoker invoker : invokers) {
+            if (invoker.accepts(methodName, args)) {
+                if (target != null) {
+                    return new ServiceException("Legacy call of method " + methodName + " matches several services on a "
+                        + "shared port. Export the service with a port of its own to serve legacy consumers",
+                        ServiceException.REMOTE);
+                }
+                target = invoker;
+            }
+        }
+        if (target == null) {
+            return new ServiceException("No service on this port has a method " + methodName + " for the legacy call",
+                                        ServiceException.REMOTE);
         }
-        objectOutput.writeObject(result);
+        return target.invoke(methodName, args);
     }
 
-    @SuppressWarnings("unchecked")
-    private Object resolveAsnyc(Object result) throws InterruptedException {
-        if (result instanceof Future) {
-            Future<Object> fu = (Future<Object>) result;
-            try {
-                result = fu.get();
-            } catch (ExecutionException e) {
-                result = e.getCause();
+    /**
+     * The arguments of a legacy call are read before its service is known, so on a shared port
+     * their classes are loaded from any of the services
+     */
+    private static ClassLoader getLegacyClassLoader(final List<MethodInvoker> invokers) {
+        if (invokers.size() == 1) {
+            return invokers.get(0).getClassLoader();
+        }
+        return new ClassLoader(null) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                for (MethodInvoker invoker : invokers) {
+                    try {
+                        return Class.forName(name, false, invoker.getClassLoader());
+                    } catch (ClassNotFoundException e) {
+                        // try the next service
+                    }
+                }
+                throw new ClassNotFoundException(name);
             }
+        };
+    }
+
+    /**
+     * The client only uses serializations the endpoint offered, so an unknown one means it was
+     * removed from the provider in the meantime
+     */
+    private Serialization getSerialization(String name) throws IOException {
+        Serialization serialization = serializations.get(name);
+        if (serialization == null) {
+            throw new IOException("Unknown serialization " + name);
+        }
+        return serialization;
+    }
+
+    /**
+     * Hands the result of a call to the consumer. Asynchronous results are handed over by a callback
+     * once they are resolved, so the worker is free to serve other calls in the meantime.
+     */
+    @SuppressWarnings("unchecked")
+    static void whenResolved(Object result, final Consumer<Object> consumer) throws InterruptedException {
+        if (result instanceof InvocationTargetException) {
+            consumer.accept(((InvocationTargetException) result).getCause());
         } else if (result instanceof CompletionStage) {
-            CompletionStage<Object> fu = (CompletionStage<Object>) result;
-            try {
-                result = fu.toCompletableFuture().get();
-            } catch (ExecutionException e) {
-                result = e.getCause();
-            }
+            ((CompletionStage<Object>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object value, Throwable error) {
+                    if (error instanceof CompletionException && error.getCause() != null) {
+                        error = error.getCause();
+                    }
+                    consumer.accept(error != null ? error : value);
+                }
+            });
         } else if (result instanceof Promise) {
-            Promise<Object> fu = (Promise<Object>) result;  
+            final Promise<Object> promise = (Promise<Object>) result;
+            promise.onResolve(new Runnable() {
+                @Override
+                public void run() {
+                    consumer.accept(resolvedValue(promise));
+                }
+            });
+        } else if (result instanceof Future) {
+            // A plain Future offers no callback, so the worker has to wait for it
             try {
-                result = fu.getValue();
-            } catch (InvocationTargetException e) {
-                result = e.getCause();
+                consumer.accept(((Future<Object>) result).get());
+            } catch (ExecutionException e) {
+                consumer.accept(e.getCause());
             }
+        } else {
+            consumer.accept(result);
+        }
+    }
+
+    private static Object resolvedValue(Promise<Object> promise) {
+        try {
+            Throwable failure = promise.getFailure();
+            return failure != null ? failure : promise.getValue();
+        } catch (InvocationTargetException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            // can not happen as the promise is resolved
+            Thread.currentThread().interrupt();
+            return e;
         }
-        return result;
     }
 
     @Override
     public void close() throws IOException {
-        this.serverSocket.close();
-        this.running = false;
+        this.loop.close();
+        this.serverChannel.close();
+        synchronized (this) {
+            if (unixChannel != null) {
+                SelectorLoop.closeQuietly(unixChannel);
+                Files.deleteIfExists(unixSocket);
+            }
+        }
         this.executor.shutdown();
         try {
             this.executor.awaitTermination(10, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
         }
         this.executor.shutdownNow();
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * One accepted connection. Requests are read on the selector thread and executed by the workers
+     * which also write the responses.
+     */
+    private class Connection extends FrameConnection {
+        private boolean handshakeDone;
+
+        Connection(SelectorLoop loop, SocketChannel channel) {
+            super(loop, channel, executor);
+        }
+
+        @Override
+        protected int process(ByteBuffer in) throws IOException {
+            if (!handshakeDone) {
+                if (in.remaining() >= 4 && TcpProtocol.isLegacyStream(in.getInt(0))) {
+                    handOverToLegacyCall();
+                    return 0;
+                }
+                if (in.remaining() < TcpProtocol.HANDSHAKE_SIZE) {
+                    return 0;
+                }
+                int version = TcpProtocol.readHandshake(in.getInt(), in.getInt());
+                setCompressions(in.getInt() & Compression.available());
+                handshakeDone = true;
+                send(TcpProtocol.handshake(Math.min(version, TcpProtocol.VERSION), getCompressions()));
+            }
+            byte[] data;
+            while ((data = nextFrame(in)) != null) {
+                if (!streams.handle(data)) {
+                    submit(this, data);
+                }
+            }
+            return pendingFrameSize(in);
+        }
+
+        /**
+         * Legacy clients are served with blocking streams. The channel can only be switched to
+         * blocking mode once the cancelled key was flushed by the next select.
+         */
+        private void handOverToLegacyCall() {
+            key.cancel();
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startLegacyCall();
+                }
+            });
+        }
+
+        private void startLegacyCall() {
+            try {
+                channel.configureBlocking(true);
+            } catch (IOException e) {
+                log.warn("Error processing service call.", e);
+                close(e);
+                return;
+            }
+            byte[] prefix = takeBufferedInput();
+            final InputStream in = new SequenceInputStream(new ByteArrayInputStream(prefix), Channels.newInputStream(channel));
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleLegacyCall(channel, in);
+                }
+            });
+        }
     }
 
+    /**
+     * A request whose header is read. The arguments are only deserialized by the worker. Requests
+     * whose caller stopped waiting before they got a worker are dropped.
+     */
+    private class Request implements AdmissionControl.Call {
+        private final Connection connection;
+        private final Frame frame;
+        private final String endpointId;
+        private final long methodId;
+        /**
+         * False if the caller waits without limit
+         */
+        private final boolean deadline;
+        private final long deadlineNanos;
+        private final Serialization serialization;
+
+        /**
+         * @param timeoutMillis time the caller waits or {@link TcpProtocol#NO_TIMEOUT}
+         */
+        Request(Connection connection, Frame frame, String endpointId, long methodId, int timeoutMillis,
+                Serialization serialization) {
+            this.connection = connection;
+            this.frame = frame;
+            this.endpointId = endpointId;
+            this.methodId = methodId;
+            this.deadline = timeoutMillis != TcpProtocol.NO_TIMEOUT;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.serialization = serialization;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            MethodInvoker invoker = services.get(endpointId);
+            final CallStatistics.Recorder recorder = invoker != null ? statistics.server(endpointId, methodId, invoker) : null;
+            if (recorder != null) {
+                recorder.bytesIn(frame.size);
+            }
+            if (deadline && deadlineNanos - start <= 0) {
+                log.debug("Dropping call to {} as its caller stopped waiting", endpointId);
+                if (recorder != null) {
+                    recorder.timeout();
+                }
+                releaseStreams(invoker);
+                return;
+            }
+            Object result;
+            // without a deadline the call runs without a context, like a local call
+            CallContext previous = deadline ? CallContext.enter(deadlineNanos) : CallContext.current();
+            try {
+                if (invoker == null) {
+                    releaseStreams(null);
+                    result = new ServiceException("No service exported for endpoint " + endpointId, ServiceException.REMOTE);
+                } else {
+                    result = invoke(invoker);
+                }
+            } finally {
+                CallContext.exit(previous);
+            }
+            try {
+                whenResolved(result, new Consumer<Object>() {
+                    @Override
+                    public void accept(Object value) {
+                        if (recorder != null) {
+                            if (value instanceof Throwable) {
+                                recorder.failure(start);
+                            } else {
+                                recorder.success(start);
+                            }
+                        }
+                        if (frame.requestId == TcpProtocol.ONE_WAY_ID) {
+                            if (value instanceof Throwable) {
+                                log.debug("One-way call to {} failed", endpointId, (Throwable) value);
+                            }
+                            return;
+                        }
+                        sendResult(connection, frame.requestId, serialization, compression(), value, recorder);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                connection.close(e);
+            }
+        }
+
+        @Override
+        public void reject(String reason) {
+            MethodInvoker invoker = services.get(endpointId);
+            CallStatistics.Recorder recorder = invoker != null ? statistics.server(endpointId, methodId, invoker) : null;
+            if (recorder != null) {
+                recorder.bytesIn(frame.size);
+                recorder.error();
+            }
+            releaseStreams(invoker);
+            if (frame.requestId == TcpProtocol.ONE_WAY_ID) {
+                log.debug("Dropping one-way call to {}: {}", endpointId, reason);
+                return;
+            }
+            ServiceException busy = new ServiceException(reason, ServiceException.REMOTE);
+            busy.setStackTrace(new StackTraceElement[0]);
+            sendResult(connection, frame.requestId, serialization, compression(), busy, recorder);
+        }
+
+        /**
+         * Arguments that can not be read only fail their own call. The frame was complete, so the
+         * other calls of the connection are not affected.
+         */
+        private Object invoke(MethodInvoker invoker) {
+            Object[] args;
+            try {
+                frame.in.openPayload();
+                try (ObjectInput in = serialization.createInput(frame.in, invoker.getClassLoader())) {
+                    args = (Object[])in.readObject();
+                }
+            } catch (Exception e) {
+                log.warn("Unable to read the arguments of a call to {}", endpointId, e);
+                frame.in.closeReceivedStreams();
+                return new ServiceException("Unable to read the arguments of the call to "
+                    + invoker.getSignature(methodId) + ": " + e, ServiceException.REMOTE);
+            }
+            return invoker.invoke(methodId, args);
+        }
+
+        /**
+         * Reads the arguments of a call that is not invoked only to close the streams they reference.
+         * Their content would otherwise stay buffered until the connection closes.
+         */
+        private void releaseStreams(MethodInvoker invoker) {
+            ClassLoader loader = invoker != null ? invoker.getClassLoader() : TCPServer.class.getClassLoader();
+            frame.in.releaseStreams();
+            try {
+                frame.in.openPayload();
+                try (ObjectInput in = serialization.createInput(frame.in, loader)) {
+                    in.readObject();
+                }
+            } catch (Exception e) {
+                log.debug("Error releasing the streams of a call to {}", endpointId, e);
+            }
+        }
+
+        private PayloadCompression compression() {
+            PayloadCompression compression = compressions.get(endpointId);
+            return compression != null ? compression : PayloadCompression.NONE;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
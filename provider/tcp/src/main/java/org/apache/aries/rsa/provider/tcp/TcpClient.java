@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of the aries.tcp protocol. One selector thread performs the I/O of all connections
+ * and completes the calls when their responses arrive, so no thread waits for a call in flight.
+ * Call timeouts are tracked by a single timer thread.
+ */
+class TcpClient implements Closeable {
+    private final SelectorLoop loop;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    TcpClient() throws IOException {
+        this.loop = new SelectorLoop("aries-tcp-client");
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "aries-tcp-client-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Connections are shared by all proxies that call the same address with the same limits. Each
+     * pool returned must be given back to {@link #releasePool(ConnectionPool)} once the proxy is closed.
+     *
+     * @param unixSocket path of the Unix domain socket to prefer or null
+     */
+    synchronized ConnectionPool getPool(final String host, final int port, final int maxConnections,
+                                        final int maxPipelinedCalls, final String unixSocket) {
+        String key = host + ":" + port + ":" + maxConnections + ":" + maxPipelinedCalls
+            + (unixSocket != null ? ":" + unixSocket : "");
+        ConnectionPool pool = pools.computeIfAbsent(key, k -> new ConnectionPool(this, host, port, maxConnections, maxPipelinedCalls, unixSocket));
+        pool.imports++;
+        return pool;
+    }
+
+    /**
+     * Closes the pool once the last proxy using it is closed
+     */
+    synchronized void releasePool(ConnectionPool pool) {
+        if (--pool.imports == 0 && pools.values().remove(pool)) {
+            pool.close();
+        }
+    }
+
+    int getPoolCount() {
+        return pools.size();
+    }
+
+    SelectorLoop getLoop() {
+        return loop;
+    }
+
+    /**
+     * Results of asynchronous calls are deserialized and delivered on this executor instead of the
+     * selector thread so callbacks of the caller can not stall the I/O of other calls.
+     */
+    Executor getExecutor() {
+        return ForkJoinPool.commonPool();
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        for (ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+        loop.close();
+        timer.shutdownNow();
+    }
+}
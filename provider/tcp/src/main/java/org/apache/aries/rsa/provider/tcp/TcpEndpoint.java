@@ -19,8 +19,11 @@
 package org.apache.aries.rsa.provider.tcp;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.apache.aries.rsa.spi.Endpoint;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
@@ -29,8 +32,19 @@ import org.osgi.service.remoteserviceadmin.RemoteConstants;
 public class TcpEndpoint implements Endpoint {
     private EndpointDescription epd;
     private TCPServer tcpServer;
-    
+    private TCPProvider provider;
+    private boolean sharedServer;
+    private String endpointId;
+
     public TcpEndpoint(Object service, Map<String, Object> effectiveProperties) {
+        this(service, effectiveProperties, null);
+    }
+
+    /**
+     * @param provider provider whose shared server is used if no port is configured or null to
+     *        always listen on a port of this endpoint's own
+     */
+    TcpEndpoint(Object service, Map<String, Object> effectiveProperties, TCPProvider provider) {
         if (service == null) {
             throw new NullPointerException("Service must not be null");
         }
@@ -41,11 +55,41 @@ public class TcpEndpoint implements Endpoint {
         Integer port = parser.getPort();
         String hostName = parser.getHostname();
         int numThreads =  parser.getNumThreads();
-        tcpServer = new TCPServer(service, hostName, port, numThreads);
-        String endpointId = String.format("tcp://%s:%s", hostName, tcpServer.getPort());
+        this.provider = provider;
+        if (provider != null && port == 0) {
+            sharedServer = true;
+            tcpServer = provider.acquireSharedServer(numThreads);
+            endpointId = String.format("tcp://%s:%s/%s", hostName, tcpServer.getPort(), UUID.randomUUID());
+        } else {
+            Serializations serializations = provider != null ? provider.getSerializations() : new Serializations();
+            CallStatistics statistics = provider != null ? provider.getStatistics() : new CallStatistics();
+            tcpServer = new TCPServer(port, numThreads, serializations, statistics);
+            endpointId = String.format("tcp://%s:%s", hostName, tcpServer.getPort());
+        }
+        tcpServer.addService(endpointId, service, parser.getMaxConcurrentCalls(), parser.getMaxQueueSize(),
+                             parser.getMaxQueueWaitMillis(), parser.getCompression());
+        if (provider != null) {
+            provider.addLocalService(endpointId, tcpServer.getService(endpointId));
+        }
         effectiveProperties.put(RemoteConstants.ENDPOINT_ID, endpointId);
         effectiveProperties.put(RemoteConstants.SERVICE_EXPORTED_CONFIGS, "");
-        effectiveProperties.put(RemoteConstants.SERVICE_INTENTS, Arrays.asList("osgi.basic", "osgi.async"));
+        List<String> intents = new ArrayList<>(Arrays.asList("osgi.basic", "osgi.async"));
+        if (parser.isPassByReference()) {
+            intents.add(EndpointPropertiesParser.BY_REFERENCE_INTENT);
+        }
+        if (parser.isOneWay()) {
+            intents.add(EndpointPropertiesParser.ONE_WAY_INTENT);
+        }
+        effectiveProperties.put(RemoteConstants.SERVICE_INTENTS, intents);
+        effectiveProperties.put(EndpointPropertiesParser.PROTOCOL_KEY, TcpProtocol.VERSION);
+        effectiveProperties.put(EndpointPropertiesParser.SERIALIZATION_KEY, parser.getSerializations());
+        String unixSocket = parser.getUnixSocket();
+        if (unixSocket != null) {
+            String path = tcpServer.listenUnix(unixSocket);
+            if (path != null) {
+                effectiveProperties.put(EndpointPropertiesParser.UNIX_ADDRESS_KEY, EndpointPropertiesParser.UNIX_SCHEME + path);
+            }
+        }
         
         // tck tests for one such property ... so we provide it
         effectiveProperties.put(TCPProvider.TCP_CONFIG_TYPE + ".id", endpointId);
@@ -60,6 +104,14 @@ public class TcpEndpoint implements Endpoint {
 
     @Override
     public void close() throws IOException {
-        tcpServer.close();
+        tcpServer.removeService(endpointId);
+        if (provider != null) {
+            provider.removeLocalService(endpointId);
+        }
+        if (sharedServer) {
+            provider.releaseSharedServer();
+        } else {
+            tcpServer.close();
+        }
     }
 }
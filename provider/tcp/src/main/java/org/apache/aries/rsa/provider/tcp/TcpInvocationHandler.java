@@ -18,9 +18,13 @@
  */
 package org.apache.aries.rsa.provider.tcp;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.net.Socket;
@@ -28,31 +32,109 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
+import org.apache.aries.rsa.provider.tcp.ConnectionPool.RequestEncoder;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.Frame;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.FrameBuffer;
+import org.apache.aries.rsa.provider.tcp.context.CallContext;
 import org.apache.aries.rsa.provider.tcp.ser.BasicObjectInputStream;
 import org.apache.aries.rsa.provider.tcp.ser.BasicObjectOutputStream;
 import org.apache.aries.rsa.provider.tcp.ser.VersionMarker;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.apache.aries.rsa.spi.ImportReadiness;
 import org.osgi.framework.ServiceException;
 import org.osgi.framework.Version;
 import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class TcpInvocationHandler implements InvocationHandler {
+public class TcpInvocationHandler implements InvocationHandler, ImportReadiness, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TcpInvocationHandler.class);
     private String host;
     private int port;
+    private String endpointId;
     private ClassLoader cl;
     private int timeoutMillis;
+    private Map<String, Integer> methodTimeouts;
+    private ConnectionPool pool;
+    private Serialization serialization;
+    private PayloadCompression compression;
+    private boolean oneWay;
+    private ConcurrentMap<Method, Long> methodIds = new ConcurrentHashMap<>();
+    private ConcurrentMap<Method, Boolean> oneWayMethods = new ConcurrentHashMap<>();
+    private volatile CompletionStage<Void> ready = CompletableFuture.completedFuture(null);
+    private CallStatistics statistics;
+    private ConcurrentMap<Method, CallStatistics.Recorder> recorders = new ConcurrentHashMap<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public TcpInvocationHandler(ClassLoader cl, String host, int port, int timeoutMillis)
         throws UnknownHostException, IOException {
+        this(cl, host, port, null, timeoutMillis, Collections.<String, Integer>emptyMap(), null, null,
+             PayloadCompression.NONE, false);
+    }
+
+    /**
+     * @param methodTimeouts timeouts that differ from timeoutMillis by method name
+     * @param pool persistent connections to the server or null to open a connection per call
+     * @param serialization serialization of arguments and results on the persistent connections
+     * @param compression compression of the requests on the persistent connections
+     * @param oneWay true if all void methods are called one-way, otherwise only the annotated ones
+     */
+    TcpInvocationHandler(ClassLoader cl, String host, int port, String endpointId, int timeoutMillis,
+                         Map<String, Integer> methodTimeouts, ConnectionPool pool, Serialization serialization,
+                         PayloadCompression compression, boolean oneWay) {
         this.cl = cl;
         this.host = host;
         this.port = port;
+        this.endpointId = endpointId;
         this.timeoutMillis = timeoutMillis;
+        this.methodTimeouts = methodTimeouts;
+        this.pool = pool;
+        this.serialization = serialization;
+        this.compression = compression;
+        this.oneWay = oneWay;
+    }
+
+    /**
+     * @param ready completes once the connections opened at import time are established
+     */
+    void setReady(CompletionStage<Void> ready) {
+        this.ready = ready;
+    }
+
+    @Override
+    public CompletionStage<Void> ready() {
+        return ready;
+    }
+
+    /**
+     * @param statistics records the calls of this proxy or null to not record them
+     */
+    void setStatistics(CallStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Releases the connection pool of the proxy, the pool is closed once no other proxy uses it
+     */
+    @Override
+    public void close() {
+        if (pool != null && closed.compareAndSet(false, true)) {
+            pool.releaseImport();
+        }
     }
 
     @Override
@@ -62,12 +144,18 @@ public class TcpInvocationHandler implements InvocationHandler {
             return createFutureResult(method, args);
         } else if (Promise.class.isAssignableFrom(method.getReturnType())) {
             return createPromiseResult(method, args);
+        } else if (pool != null && isOneWay(method)) {
+            handleOneWayCall(method, args);
+            return null;
         } else {
             return handleSyncCall(method, args);
         }
     }
 
-    private Object createFutureResult(final Method method, final Object[] args) {
+    private CompletableFuture<Object> createFutureResult(final Method method, final Object[] args) {
+        if (pool != null) {
+            return handleAsyncCall(method, args);
+        }
         return CompletableFuture.supplyAsync(new Supplier<Object>() {
             public Object get() {
                 try {
@@ -83,6 +171,19 @@ public class TcpInvocationHandler implements InvocationHandler {
 
     private Object createPromiseResult(final Method method, final Object[] args) {
         final Deferred<Object> deferred = new Deferred<>();
+        if (pool != null) {
+            handleAsyncCall(method, args).whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object result, Throwable error) {
+                    if (error == null) {
+                        deferred.resolve(result);
+                    } else {
+                        deferred.fail(error);
+                    }
+                }
+            });
+            return deferred.getPromise();
+        }
         new Thread(new Runnable() {
             
             @Override
@@ -98,26 +199,266 @@ public class TcpInvocationHandler implements InvocationHandler {
     }
 
     private Object handleSyncCall(Method method, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        CallStatistics.Recorder recorder = getRecorder(method);
         Object result;
+        try {
+            result = pool != null ? readResult(sendRequest(method, args, false, recorder).get(), recorder)
+                : handleLegacyCall(method, args);
+        } catch (ExecutionException e) {
+            recordFailure(recorder, e.getCause());
+            throw callFailed(method, e.getCause());
+        } catch (Throwable e) {
+            recordFailure(recorder, e);
+            throw callFailed(method, e);
+        }
+        recordResult(recorder, start, result);
+        if (result instanceof Throwable) {
+            throw (Throwable)result;
+        }
+        return result;
+    }
+
+    /**
+     * The returned future is completed on the executor of the client once the response arrives
+     */
+    private CompletableFuture<Object> handleAsyncCall(final Method method, Object[] args) {
+        final long start = System.nanoTime();
+        final CallStatistics.Recorder recorder = getRecorder(method);
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Frame> response;
+        try {
+            response = sendRequest(method, args, false, recorder);
+        } catch (Throwable e) {
+            recordFailure(recorder, e);
+            result.completeExceptionally(callFailed(method, e));
+            return result;
+        }
+        response.whenCompleteAsync(new BiConsumer<Frame, Throwable>() {
+            @Override
+            public void accept(Frame frame, Throwable error) {
+                if (error != null) {
+                    recordFailure(recorder, error);
+                    result.completeExceptionally(callFailed(method, error));
+                    return;
+                }
+                Object value;
+                try {
+                    value = readResult(frame, recorder);
+                } catch (Throwable e) {
+                    recordFailure(recorder, e);
+                    result.completeExceptionally(callFailed(method, e));
+                    return;
+                }
+                recordResult(recorder, start, value);
+                if (value instanceof Throwable) {
+                    result.completeExceptionally((Throwable)value);
+                } else {
+                    result.complete(value);
+                }
+            }
+        }, pool.getExecutor());
+        return result;
+    }
+
+    /**
+     * The caller only waits until the request is handed to a connection. Failures are logged as
+     * there is nobody to report them to.
+     */
+    private void handleOneWayCall(final Method method, Object[] args) {
+        final long start = System.nanoTime();
+        final CallStatistics.Recorder recorder = getRecorder(method);
+        CompletableFuture<Frame> sent;
+        try {
+            sent = sendRequest(method, args, true, recorder);
+        } catch (Throwable e) {
+            recordFailure(recorder, e);
+            LOG.warn("One-way call of {} on {}:{} failed", method.getName(), host, port, e);
+            return;
+        }
+        sent.whenComplete(new BiConsumer<Frame, Throwable>() {
+            @Override
+            public void accept(Frame frame, Throwable error) {
+                if (error != null) {
+                    recordFailure(recorder, error);
+                    LOG.warn("One-way call of {} on {}:{} failed", method.getName(), host, port, error);
+                } else {
+                    recordResult(recorder, start, null);
+                }
+            }
+        });
+    }
+
+    private CallStatistics.Recorder getRecorder(Method method) {
+        if (statistics == null) {
+            return null;
+        }
+        CallStatistics.Recorder recorder = recorders.get(method);
+        if (recorder == null) {
+            String endpoint = endpointId != null ? endpointId : "tcp://" + host + ":" + port;
+            recorder = statistics.client(endpoint, TcpProtocol.methodSignature(method));
+            recorders.put(method, recorder);
+        }
+        return recorder;
+    }
+
+    /**
+     * Exceptions thrown by the service count as errors, but their latency is recorded
+     */
+    private static void recordResult(CallStatistics.Recorder recorder, long start, Object result) {
+        if (recorder == null) {
+            return;
+        }
+        if (result instanceof Throwable) {
+            recorder.failure(start);
+        } else {
+            recorder.success(start);
+        }
+    }
+
+    private static void recordFailure(CallStatistics.Recorder recorder, Throwable error) {
+        if (recorder == null) {
+            return;
+        }
+        if (error instanceof SocketTimeoutException) {
+            recorder.timeout();
+        } else {
+            recorder.error();
+        }
+    }
+
+    private ServiceException callFailed(Method method, Throwable e) {
+        if (e instanceof SocketTimeoutException) {
+            return new ServiceException("Timeout calling " + host + ":" + port + " method: " + method.getName(), ServiceException.REMOTE, e);
+        }
+        return new ServiceException("Error calling " + host + ":" + port + " method: " + method.getName(), ServiceException.REMOTE, e);
+    }
+
+    /**
+     * The request carries the time left until the timeout, so the server can drop it once the
+     * caller stopped waiting. A timeout of 0 waits without limit and sends no deadline.
+     */
+    private CompletableFuture<Frame> sendRequest(Method method, final Object[] args, boolean oneWay,
+                                                 final CallStatistics.Recorder recorder) {
+        final long methodId = getMethodId(method);
+        final int timeout = getTimeoutMillis(method);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        RequestEncoder encoder = new RequestEncoder() {
+            @Override
+            public FrameBuffer encode(long requestId, FrameConnection connection) throws IOException {
+                long remaining = TcpProtocol.NO_TIMEOUT;
+                if (timeout != TcpProtocol.NO_TIMEOUT) {
+                    remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timeout waiting for a connection to " + host + ":" + port);
+                    }
+                }
+                FrameBuffer request = TcpProtocol.requestFrame(requestId, connection, endpointId, methodId,
+                                                               (int) remaining, serialization.getName());
+                try (ObjectOutput out = serialization.createOutput(request)) {
+                    out.writeObject(args);
+                } catch (IOException | RuntimeException e) {
+                    request.discard();
+                    throw e;
+                }
+                request.compress(compression);
+                request.checkSize();
+                if (recorder != null) {
+                    recorder.bytesOut(request.size());
+                }
+                return request;
+            }
+
+            @Override
+            public void releaseStreams(Frame response) {
+                response.in.releaseStreams();
+                try {
+                    response.in.openPayload();
+                    try (ObjectInput in = serialization.createInput(response.in, cl)) {
+                        in.readObject();
+                    }
+                } catch (Exception e) {
+                    LOG.debug("Error releasing the streams of a late response from {}:{}", host, port, e);
+                }
+            }
+        };
+        return oneWay ? pool.send(encoder, timeout) : pool.call(encoder, timeout);
+    }
+
+    /**
+     * Calls made while serving a remote call do not wait longer than the caller of that call
+     *
+     * @return the timeout in ms or 0 to wait without limit
+     */
+    private int getTimeoutMillis(Method method) {
+        Integer methodTimeout = methodTimeouts.get(method.getName());
+        int timeout = methodTimeout != null ? methodTimeout : timeoutMillis;
+        CallContext context = CallContext.current();
+        if (context != null) {
+            long remaining = context.getRemainingMillis();
+            // at least 1 ms as 0 would not time out once the deadline of the caller passed
+            timeout = (int) Math.max(1, timeout == TcpProtocol.NO_TIMEOUT ? remaining : Math.min(timeout, remaining));
+        }
+        return timeout;
+    }
+
+    private Object readResult(Frame response, CallStatistics.Recorder recorder) throws IOException, ClassNotFoundException {
+        if (recorder != null) {
+            recorder.bytesIn(response.size);
+        }
+        response.in.openPayload();
+        try (ObjectInput in = serialization.createInput(response.in, cl)) {
+            return readReplaceVersion(in.readObject());
+        }
+    }
+
+    /**
+     * Void methods are called one-way if the endpoint has the one-way intent or the method is
+     * annotated with an annotation named Oneway or OneWay, like javax.jws.Oneway
+     */
+    private boolean isOneWay(Method method) {
+        Boolean result = oneWayMethods.get(method);
+        if (result == null) {
+            result = method.getReturnType() == void.class && (oneWay || hasOneWayAnnotation(method));
+            oneWayMethods.put(method, result);
+        }
+        return result;
+    }
+
+    private static boolean hasOneWayAnnotation(Method method) {
+        for (Annotation annotation : method.getAnnotations()) {
+            String name = annotation.annotationType().getSimpleName();
+            if ("Oneway".equals(name) || "OneWay".equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getMethodId(Method method) {
+        Long id = methodIds.get(method);
+        if (id == null) {
+            id = TcpProtocol.methodId(method);
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+
+    private Object handleLegacyCall(Method method, Object[] args) throws Throwable {
         try (
                 Socket socket = openSocket();
                 ObjectOutputStream out = new BasicObjectOutputStream(socket.getOutputStream())
             ) {
-            socket.setSoTimeout(timeoutMillis);
+            int timeout = getTimeoutMillis(method);
+            if (timeout != TcpProtocol.NO_TIMEOUT) {
+                socket.setSoTimeout(timeout);
+            }
             out.writeObject(method.getName());
             
             out.writeObject(args);
             out.flush();
-            result = parseResult(socket);
-        } catch (SocketTimeoutException e) {
-            throw new ServiceException("Timeout calling " + host + ":" + port + " method: " + method.getName(), ServiceException.REMOTE, e);
-        } catch (Throwable e) {
-            throw new ServiceException("Error calling " + host + ":" + port + " method: " + method.getName(), ServiceException.REMOTE, e);
-        }
-        if (result instanceof Throwable) {
-            throw (Throwable)result;
+            return parseResult(socket);
         }
-        return result;
     }
 
     private Socket openSocket() throws UnknownHostException, IOException {
@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
+import org.apache.aries.rsa.provider.tcp.ser.ConnectionDictionary;
+import org.apache.aries.rsa.provider.tcp.ser.RemoteStreams;
+
+/**
+ * Wire format of the persistent aries.tcp protocol.
+ * <p>
+ * A connection starts with a handshake in which both sides send {@link #MAGIC} followed by
+ * their protocol version and the set of {@link Compression} codecs they support. The server answers
+ * with the codecs both sides support. After that the connection carries any number of frames. Each frame
+ * is an int length followed by the request id the frame belongs to and the ids of the
+ * {@link ConnectionDictionary} the sender acknowledges. Requests then name the endpoint id of the
+ * target service, the {@link #methodId(Method) id} of the called method, the time in ms the caller
+ * still waits for the result and the serialization of the arguments. Both requests and responses end with the payload in that serialization. It is
+ * preceded by the id of its compression and, if it is compressed, its uncompressed length. Endpoint
+ * id, serialization name and the class names and descriptors in the payload are sent through the
+ * dictionary of the connection. Clients of the legacy protocol start directly with a Java
+ * serialization stream and are detected by its stream magic.
+ * <p>
+ * The top 4 bits of the first long of a frame give its kind. Call frames carry the request id
+ * there, the other kinds belong to the {@link FrameStreams streams} of a call and carry the
+ * stream id instead. Requests with the request id {@link #ONE_WAY_ID} are not answered.
+ */
+final class TcpProtocol {
+    static final int MAGIC = 0x41525341;
+    static final int LEGACY_VERSION = 1;
+    static final int VERSION = 2;
+    static final int HANDSHAKE_SIZE = 12;
+    static final String MAX_FRAME_SIZE_KEY = "aries.tcp.maxFrameSize";
+    /**
+     * Largest frame a connection accepts, so a peer can not make it allocate arbitrary amounts of
+     * memory. Larger content is sent as stream. Default is 10 MB, 0 or less means no limit.
+     */
+    static final int MAX_FRAME_SIZE = Integer.getInteger(MAX_FRAME_SIZE_KEY, 10 * 1024 * 1024) <= 0
+        ? Integer.MAX_VALUE - 8 : Math.min(Integer.getInteger(MAX_FRAME_SIZE_KEY, 10 * 1024 * 1024), Integer.MAX_VALUE - 8);
+
+    static final int CALL_FRAME = 0;
+    static final int STREAM_DATA = 1;
+    static final int STREAM_END = 2;
+    static final int STREAM_ERROR = 3;
+    static final int STREAM_CREDIT = 4;
+    static final int STREAM_CANCEL = 5;
+    /**
+     * Request id of one-way calls. Real request ids start at 1.
+     */
+    static final long ONE_WAY_ID = 0;
+    /**
+     * Timeout of calls that wait for their result without limit. Requests carry no deadline then.
+     */
+    static final int NO_TIMEOUT = 0;
+    private static final int KIND_SHIFT = 60;
+    private static final long ID_MASK = (1L << KIND_SHIFT) - 1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private TcpProtocol() {
+        // Do not instantiate. This is a utility class.
+    }
+
+    static boolean isLegacyStream(int header) {
+        return (short) (header >>> 16) == ObjectStreamConstants.STREAM_MAGIC;
+    }
+
+    /**
+     * @param compressions flags of the supported compression codecs
+     */
+    static ByteBuffer handshake(int version, int compressions) {
+        ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_SIZE);
+        buffer.putInt(MAGIC).putInt(version).putInt(compressions).flip();
+        return buffer;
+    }
+
+    static int readHandshake(int magic, int version) throws IOException {
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException(String.format("Invalid protocol header %08X", magic));
+        }
+        return version;
+    }
+
+    static int checkFrameLength(int length) throws IOException {
+        if (length < 8) {
+            throw new StreamCorruptedException("Invalid frame length " + length);
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Frame length " + length + " exceeds the maximum of " + MAX_FRAME_SIZE
+                + " bytes. You can configure this limit with the system property " + MAX_FRAME_SIZE_KEY);
+        }
+        return length;
+    }
+
+    static int frameKind(long header) {
+        return (int) (header >>> KIND_SHIFT);
+    }
+
+    static long frameId(long header) {
+        return header & ID_MASK;
+    }
+
+    static long streamHeader(int kind, long streamId) {
+        return (long) kind << KIND_SHIFT | streamId;
+    }
+
+    /**
+     * @return name and parameter types of the method, e.g. <code>echo(java.lang.String,[I)</code>
+     */
+    static String methodSignature(Method method) {
+        StringBuilder signature = new StringBuilder(method.getName()).append('(');
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(types[i].getName());
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * Computes a 64 bit FNV-1a hash of the method signature. Client and server derive the id from
+     * their own view of the interface, so a method is identified without sending its name.
+     */
+    static long methodId(Method method) {
+        String signature = methodSignature(method);
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < signature.length(); i++) {
+            hash ^= signature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    static FrameBuffer requestFrame(long requestId, FrameConnection connection, String endpointId,
+                                    long methodId, int timeoutMillis, String serialization) throws IOException {
+        ConnectionDictionary dictionary = connection.dictionary;
+        FrameBuffer frame = new FrameBuffer(connection);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeLong(requestId);
+        frame.acks = dictionary.writeAcks(out);
+        dictionary.writeString(out, endpointId);
+        out.writeLong(methodId);
+        out.writeInt(timeoutMillis);
+        dictionary.writeString(out, serialization);
+        frame.startPayload();
+        return frame;
+    }
+
+    static FrameBuffer responseFrame(long requestId, FrameConnection connection) throws IOException {
+        FrameBuffer frame = new FrameBuffer(connection);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeLong(requestId);
+        frame.acks = connection.dictionary.writeAcks(out);
+        frame.startPayload();
+        return frame;
+    }
+
+    /**
+     * A received frame without its length prefix
+     */
+    static final class Frame {
+        final long requestId;
+        final FrameInput in;
+        /** size of the frame on the wire including its length prefix */
+        final int size;
+
+        Frame(byte[] data, FrameConnection connection) throws IOException {
+            this.in = new FrameInput(data, connection);
+            this.size = data.length + 4;
+            this.requestId = in.readLong();
+            connection.dictionary.readAcks(in);
+        }
+    }
+
+    static final class FrameInput extends DataInputStream implements ConnectionDictionary.Source, RemoteStreams.Receiver {
+        /**
+         * Stands in for the streams of a payload that is only read to release them. Byte arrays sent
+         * as stream read as zeros.
+         */
+        private static final InputStream RELEASED = new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return len;
+            }
+        };
+
+        private final byte[] data;
+        private final FrameConnection connection;
+        private boolean releasing;
+        private List<InputStream> received;
+
+        FrameInput(byte[] data, FrameConnection connection) {
+            super(new ByteArrayInputStream(data));
+            this.data = data;
+            this.connection = connection;
+        }
+
+        @Override
+        public ConnectionDictionary getDictionary() {
+            return connection.dictionary;
+        }
+
+        @Override
+        public InputStream receive(long id) {
+            if (releasing) {
+                connection.streams.release(id);
+                return RELEASED;
+            }
+            InputStream stream = connection.streams.receive(id);
+            if (received == null) {
+                received = new ArrayList<>(1);
+            }
+            received.add(stream);
+            return stream;
+        }
+
+        /**
+         * Closes the streams handed out so far, used if the payload could not be read completely
+         */
+        void closeReceivedStreams() {
+            if (received != null) {
+                for (InputStream stream : received) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        // the incoming streams do not fail on close
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes the streams the rest of the payload references instead of handing them out. Used
+         * for calls that are not invoked, so the content of their streams does not stay buffered
+         * until the connection closes.
+         */
+        void releaseStreams() {
+            releasing = true;
+        }
+
+        /**
+         * Reads the compression of the payload and decompresses it if needed, so the rest of the
+         * input is the serialized payload
+         */
+        void openPayload() throws IOException {
+            Compression compression = Compression.forId(readByte());
+            if (compression == Compression.NONE) {
+                return;
+            }
+            int length = readInt();
+            // the length is only checked against the limit as it comes from the peer
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new StreamCorruptedException("Invalid payload length " + length);
+            }
+            byte[] payload = new byte[length];
+            int offset = data.length - available();
+            connection.compressors.decompress(compression, data, offset, data.length - offset, payload);
+            in = new ByteArrayInputStream(payload);
+        }
+    }
+
+    /**
+     * Collects a frame with room for the length prefix that is filled in once the size is known.
+     * Streams of the frame are only started once it was sent.
+     */
+    static final class FrameBuffer extends ByteArrayOutputStream implements ConnectionDictionary.Source, RemoteStreams.Sender {
+        private final FrameConnection connection;
+        private int payloadStart;
+        private List<FrameStreams.OutgoingStream> outgoing;
+        private List<Integer> acks = Collections.emptyList();
+
+        FrameBuffer(FrameConnection connection) {
+            super(256);
+            this.connection = connection;
+            count = 4;
+        }
+
+        @Override
+        public ConnectionDictionary getDictionary() {
+            return connection.dictionary;
+        }
+
+        /**
+         * Writes the compression id of the uncompressed payload that follows
+         */
+        void startPayload() {
+            write(Compression.NONE.getId());
+            payloadStart = count;
+        }
+
+        /**
+         * Compresses the payload if it reaches the threshold and the connection supports a codec of
+         * the compression. The payload stays uncompressed if it would not get smaller.
+         */
+        void compress(PayloadCompression compression) {
+            int length = count - payloadStart;
+            Compression codec = compression.select(connection.getCompressions());
+            // the receiver does not decompress beyond the frame size limit, checkSize rejects such payloads
+            if (codec == null || length < compression.getThreshold() || length > MAX_FRAME_SIZE) {
+                return;
+            }
+            byte[] compressed = connection.compressors.compress(codec, buf, payloadStart, length);
+            if (compressed == null || compressed.length + 4 >= length) {
+                return;
+            }
+            buf[payloadStart - 1] = (byte) codec.getId();
+            ByteBuffer.wrap(buf).putInt(payloadStart, length);
+            count = payloadStart + 4;
+            write(compressed, 0, compressed.length);
+        }
+
+        @Override
+        public long send(InputStream in) {
+            if (outgoing == null) {
+                outgoing = new ArrayList<>();
+            }
+            FrameStreams.OutgoingStream stream = connection.streams.open(in);
+            outgoing.add(stream);
+            return stream.id;
+        }
+
+        /**
+         * Starts sending the streams of the frame, must be called after the frame was sent
+         */
+        void startStreams() {
+            if (outgoing != null) {
+                for (FrameStreams.OutgoingStream stream : outgoing) {
+                    stream.start();
+                }
+            }
+        }
+
+        /**
+         * Stops the streams of the frame that are not completely sent yet
+         */
+        void abortStreams() {
+            if (outgoing != null) {
+                for (FrameStreams.OutgoingStream stream : outgoing) {
+                    stream.abort();
+                }
+            }
+        }
+
+        /**
+         * Drops the frame without sending it. Its streams are stopped and the dictionary acks it
+         * carries go with the next frame of the connection.
+         */
+        void discard() {
+            abortStreams();
+            connection.dictionary.requeueAcks(acks);
+            acks = Collections.emptyList();
+        }
+
+        /**
+         * Fails if the peer would not accept the frame. It is discarded then.
+         */
+        void checkSize() throws IOException {
+            if (count - 4 > MAX_FRAME_SIZE) {
+                discard();
+                throw new IOException("Frame of " + (count - 4) + " bytes exceeds the maximum of " + MAX_FRAME_SIZE
+                    + " bytes. Larger content can be sent as InputStream or byte array");
+            }
+        }
+
+        FrameBuffer finish() {
+            ByteBuffer.wrap(buf).putInt(0, count - 4);
+            return this;
+        }
+
+        ByteBuffer toByteBuffer() {
+            finish();
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
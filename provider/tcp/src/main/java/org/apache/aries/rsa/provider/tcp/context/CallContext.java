@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.context;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of the remote call the current thread executes.
+ * <p>
+ * The consumer sends the time it waits for the result with every call. While the service method
+ * runs, the TCP provider makes the resulting deadline available through {@link #current()}, so long
+ * running work can stop once the caller gave up. Calls to further aries.tcp services made by the
+ * thread wait at most until this deadline.
+ */
+public final class CallContext {
+    private static final ThreadLocal<CallContext> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private CallContext(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return context of the remote call the current thread executes or null
+     */
+    public static CallContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return time in ms until the caller stops waiting, 0 if the deadline passed
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Sets the context of the current thread. Used by the provider before it invokes the service.
+     *
+     * @param deadlineNanos deadline in terms of {@link System#nanoTime()}
+     * @return the previous context to restore by {@link #exit(CallContext)}
+     */
+    public static CallContext enter(long deadlineNanos) {
+        CallContext previous = CURRENT.get();
+        CURRENT.set(new CallContext(deadlineNanos));
+        return previous;
+    }
+
+    /**
+     * Restores the context that was current before {@link #enter(long)}
+     */
+    public static void exit(CallContext previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
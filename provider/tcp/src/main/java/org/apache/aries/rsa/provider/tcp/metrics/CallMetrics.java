@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.metrics;
+
+import java.util.List;
+
+import javax.management.MXBean;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Statistics of the remote calls of the TCP provider.
+ * <p>
+ * The provider records every call it makes as consumer and every call it serves as exporter,
+ * separately per endpoint and method. The statistics are registered as OSGi service and as MBean
+ * {@value #OBJECT_NAME},framework=&lt;framework UUID&gt; on the platform MBean server, so the
+ * providers of several frameworks in one JVM do not collide.
+ */
+@ProviderType
+@MXBean
+public interface CallMetrics {
+
+    String OBJECT_NAME = "org.apache.aries.rsa.provider.tcp:type=CallMetrics";
+
+    /**
+     * Key of the MBean name that holds the UUID of the framework
+     */
+    String FRAMEWORK_KEY = "framework";
+
+    /**
+     * @return a snapshot of the statistics of all methods called so far
+     */
+    List<MethodMetrics> getMethods();
+
+    /**
+     * Sets all counters and histograms to zero
+     */
+    void reset();
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.metrics;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Statistics of the calls of one method of an endpoint on one side of the connection. Latencies are
+ * recorded in a histogram with a precision of about 6 %. On the consumer side they cover the round
+ * trip including serialization, on the exporter side the execution of the service method until
+ * its result is resolved.
+ */
+@ProviderType
+public interface MethodMetrics {
+
+    enum Side {
+        /** Calls made by a proxy */
+        CLIENT,
+        /** Calls served for remote consumers */
+        SERVER
+    }
+
+    String getEndpointId();
+
+    /**
+     * @return name and parameter types of the method
+     */
+    String getMethod();
+
+    Side getSide();
+
+    long getCalls();
+
+    /**
+     * @return calls that failed, including timeouts, rejected calls and exceptions of the service
+     */
+    long getErrors();
+
+    /**
+     * @return calls the consumer stopped waiting for
+     */
+    long getTimeouts();
+
+    /**
+     * @return bytes of the received frames. The content of streams is not included
+     */
+    long getBytesIn();
+
+    /**
+     * @return bytes of the sent frames. The content of streams is not included
+     */
+    long getBytesOut();
+
+    long getMeanNanos();
+
+    long getMaxNanos();
+
+    long getP50Nanos();
+
+    long getP90Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+}
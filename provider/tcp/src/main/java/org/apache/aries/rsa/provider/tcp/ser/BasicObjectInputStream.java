@@ -33,9 +33,22 @@ public class BasicObjectInputStream extends ObjectInputStream {
     Logger log = LoggerFactory.getLogger(this.getClass());
 
     private ClassLoader loader;
+    private final ConnectionDictionary dictionary;
+    private final RemoteStreams.Receiver streams;
 
     public BasicObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+        this(in, loader, ConnectionDictionary.of(in), RemoteStreams.receiver(in));
+    }
+
+    /**
+     * @param dictionary dictionary for the class descriptors or null if the stream contains them
+     * @param streams receiver of streamed InputStreams and byte arrays or null
+     */
+    public BasicObjectInputStream(InputStream in, ClassLoader loader, ConnectionDictionary dictionary,
+                                  RemoteStreams.Receiver streams) throws IOException {
         super(in);
+        this.dictionary = dictionary;
+        this.streams = streams;
         AccessController.doPrivileged(new PrivilegedAction<Void>() {
             public Void run() {
                 enableResolveObject(true);
@@ -45,6 +58,24 @@ public class BasicObjectInputStream extends ObjectInputStream {
         this.loader = loader;
     }
 
+    /**
+     * The descriptor read from the stream only serves as template for the local descriptor, so it
+     * can be shared by all streams of the connection
+     */
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        if (dictionary == null) {
+            return super.readClassDescriptor();
+        }
+        int code = dictionary.readCode(this);
+        if (ConnectionDictionary.isReference(code)) {
+            return (ObjectStreamClass) dictionary.resolve(code);
+        }
+        ObjectStreamClass desc = super.readClassDescriptor();
+        dictionary.define(code, desc);
+        return desc;
+    }
+
     @Override
     protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
         try {
@@ -62,6 +93,10 @@ public class BasicObjectInputStream extends ObjectInputStream {
         if (obj instanceof VersionMarker) {
             VersionMarker versionMarker = (VersionMarker)obj;
             return Version.parseVersion(versionMarker.getVersion());
+        } else if (obj instanceof StreamMarker && streams != null) {
+            StreamMarker marker = (StreamMarker)obj;
+            return marker.getLength() < 0 ? streams.receive(marker.getId())
+                : RemoteStreams.readBytes(streams, marker.getId(), marker.getLength());
         } else if (obj instanceof DTOMarker) {
             DTOMarker dtoMarker = (DTOMarker)obj;
             return dtoMarker.getDTO(loader);
@@ -18,8 +18,11 @@
  */
 package org.apache.aries.rsa.provider.tcp.ser;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.AccessController;
@@ -28,9 +31,21 @@ import java.security.PrivilegedAction;
 import org.osgi.framework.Version;
 
 public class BasicObjectOutputStream extends ObjectOutputStream {
+    private final ConnectionDictionary dictionary;
+    private final RemoteStreams.Sender streams;
 
     public BasicObjectOutputStream(OutputStream out) throws IOException {
+        this(out, ConnectionDictionary.of(out), RemoteStreams.sender(out));
+    }
+
+    /**
+     * @param dictionary dictionary for the class descriptors or null to write them in every stream
+     * @param streams sender for InputStreams and large byte arrays or null to write arrays inline
+     */
+    public BasicObjectOutputStream(OutputStream out, ConnectionDictionary dictionary, RemoteStreams.Sender streams) throws IOException {
         super(out);
+        this.dictionary = dictionary;
+        this.streams = streams;
         AccessController.doPrivileged(new PrivilegedAction<Void>() {
             public Void run() {
                 enableReplaceObject(true);
@@ -41,14 +56,27 @@ public class BasicObjectOutputStream extends ObjectOutputStream {
 
     @Override
     protected Object replaceObject(Object obj) throws IOException {
+        if (streams != null) {
+            if (obj instanceof InputStream) {
+                return new StreamMarker(streams.send((InputStream) obj), -1);
+            } else if (obj instanceof byte[] && ((byte[]) obj).length >= RemoteStreams.BYTE_ARRAY_THRESHOLD) {
+                byte[] bytes = (byte[]) obj;
+                return new StreamMarker(streams.send(new ByteArrayInputStream(bytes)), bytes.length);
+            }
+        }
         if (obj instanceof Serializable || obj.getClass().isArray()) {
             return obj;
         } else if (obj instanceof Version) {
             return new VersionMarker((Version) obj);
-        } else if (DTOUtil.isDTOType(obj.getClass())){
-            return new DTOMarker(obj);
-        } else {
-            return obj;
+        }
+        DTOSchema schema = DTOSchema.forClass(obj.getClass());
+        return schema != null ? new DTOMarker(obj, schema) : obj;
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+        if (dictionary == null || dictionary.writeCode(this, desc)) {
+            super.writeClassDescriptor(desc);
         }
     }
 }
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import static org.apache.aries.rsa.provider.tcp.ser.BinarySerialization.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.osgi.framework.Version;
+
+/**
+ * Reads the format of {@link BinarySerialization}
+ */
+public class BinaryObjectInput extends DataInputStream implements ObjectInput {
+    private final ClassLoader loader;
+    private final ConnectionDictionary dictionary;
+    private final RemoteStreams.Receiver streams;
+
+    public BinaryObjectInput(InputStream in, ClassLoader loader) {
+        super(in);
+        this.loader = loader;
+        this.dictionary = ConnectionDictionary.of(in);
+        this.streams = RemoteStreams.receiver(in);
+    }
+
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+        int tag = read();
+        switch (tag) {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case BYTE:
+            return readByte();
+        case SHORT:
+            return readShort();
+        case CHAR:
+            return readChar();
+        case INT:
+            return (int) unZigZag(readVarLong());
+        case LONG:
+            return unZigZag(readVarLong());
+        case FLOAT:
+            return readFloat();
+        case DOUBLE:
+            return readDouble();
+        case STRING:
+            return readString();
+        case VERSION:
+            return Version.parseVersion(readString());
+        case ENUM:
+            return readEnum();
+        case BOOLEAN_ARRAY:
+            return readBooleanArray();
+        case BYTE_ARRAY:
+            byte[] bytes = new byte[readLength()];
+            readFully(bytes);
+            return bytes;
+        case SHORT_ARRAY:
+            return readShortArray();
+        case CHAR_ARRAY:
+            return readCharArray();
+        case INT_ARRAY:
+            return readIntArray();
+        case LONG_ARRAY:
+            return readLongArray();
+        case FLOAT_ARRAY:
+            return readFloatArray();
+        case DOUBLE_ARRAY:
+            return readDoubleArray();
+        case OBJECT_ARRAY:
+            return readObjectArray();
+        case ARRAY_LIST:
+            int size = readLength();
+            return readCollection(new ArrayList<Object>(size), size);
+        case LINKED_LIST:
+            return readCollection(new LinkedList<Object>(), readLength());
+        case HASH_SET:
+            return readCollection(new HashSet<Object>(), readLength());
+        case LINKED_HASH_SET:
+            return readCollection(new LinkedHashSet<Object>(), readLength());
+        case TREE_SET:
+            return readCollection(new TreeSet<Object>(), readLength());
+        case HASH_MAP:
+            return readMap(new HashMap<Object, Object>(), readLength());
+        case LINKED_HASH_MAP:
+            return readMap(new LinkedHashMap<Object, Object>(), readLength());
+        case TREE_MAP:
+            return readMap(new TreeMap<Object, Object>(), readLength());
+        case DTO:
+            return readDTO();
+        case JAVA:
+            return readJava();
+        case STREAM:
+            return receiver().receive(readVarLong());
+        case BYTE_ARRAY_STREAM:
+            int length = readLength();
+            return RemoteStreams.readBytes(receiver(), readVarLong(), length);
+        case -1:
+            throw new EOFException();
+        default:
+            throw new StreamCorruptedException("Unknown type tag " + tag);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object readEnum() throws IOException, ClassNotFoundException {
+        Class type = loadClass(readName());
+        return Enum.valueOf(type, readName());
+    }
+
+    private boolean[] readBooleanArray() throws IOException {
+        boolean[] values = new boolean[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readBoolean();
+        }
+        return values;
+    }
+
+    private short[] readShortArray() throws IOException {
+        short[] values = new short[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readShort();
+        }
+        return values;
+    }
+
+    private char[] readCharArray() throws IOException {
+        char[] values = new char[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readChar();
+        }
+        return values;
+    }
+
+    private int[] readIntArray() throws IOException {
+        int[] values = new int[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readInt();
+        }
+        return values;
+    }
+
+    private long[] readLongArray() throws IOException {
+        long[] values = new long[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readLong();
+        }
+        return values;
+    }
+
+    private float[] readFloatArray() throws IOException {
+        float[] values = new float[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readFloat();
+        }
+        return values;
+    }
+
+    private double[] readDoubleArray() throws IOException {
+        double[] values = new double[readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readDouble();
+        }
+        return values;
+    }
+
+    private Object[] readObjectArray() throws IOException, ClassNotFoundException {
+        Class<?> componentType = loadClass(readName());
+        Object[] values = (Object[]) Array.newInstance(componentType, readLength());
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readObject();
+        }
+        return values;
+    }
+
+    private Collection<Object> readCollection(Collection<Object> collection, int size) throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            collection.add(readObject());
+        }
+        return collection;
+    }
+
+    private Map<Object, Object> readMap(Map<Object, Object> map, int size) throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            map.put(readObject(), readObject());
+        }
+        return map;
+    }
+
+    private Object readDTO() throws IOException, ClassNotFoundException {
+        Class<?> type = loadClass(readName());
+        DTOSchema schema = DTOSchema.forClass(type);
+        int fingerprint = readInt();
+        if (schema == null || schema.getFingerprint() != fingerprint) {
+            throw new InvalidClassException(type.getName(), "DTO fields differ from the writer's version of the class");
+        }
+        try {
+            Object dto = schema.newInstance();
+            for (int i = 0; i < schema.size(); i++) {
+                schema.set(dto, i, readObject());
+            }
+            return dto;
+        } catch (IllegalStateException e) {
+            throw new InvalidClassException(type.getName(), e.getMessage());
+        }
+    }
+
+    private Object readJava() throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[readLength()];
+        readFully(bytes);
+        try (ObjectInputStream in = new BasicObjectInputStream(new ByteArrayInputStream(bytes), loader, dictionary, streams)) {
+            return in.readObject();
+        }
+    }
+
+    private RemoteStreams.Receiver receiver() throws StreamCorruptedException {
+        if (streams == null) {
+            throw new StreamCorruptedException("Streams are not supported by this connection");
+        }
+        return streams;
+    }
+
+    private Class<?> loadClass(String className) throws ClassNotFoundException {
+        try {
+            return Class.forName(className, false, loader);
+        } catch (ClassNotFoundException e) {
+            return Class.forName(className, false, BinaryObjectInput.class.getClassLoader());
+        }
+    }
+
+    private String readName() throws IOException {
+        if (dictionary == null) {
+            return readString();
+        }
+        int code = dictionary.readCode(this);
+        if (ConnectionDictionary.isReference(code)) {
+            return (String) dictionary.resolve(code);
+        }
+        String name = readString();
+        dictionary.define(code, name);
+        return name;
+    }
+
+    String readString() throws IOException {
+        byte[] bytes = new byte[readLength()];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int readLength() throws IOException {
+        long length = readVarLong();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length number");
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import static org.apache.aries.rsa.provider.tcp.ser.BinarySerialization.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.osgi.framework.Version;
+
+/**
+ * Writes the format of {@link BinarySerialization}
+ */
+public class BinaryObjectOutput extends DataOutputStream implements ObjectOutput {
+    private final ConnectionDictionary dictionary;
+    private final RemoteStreams.Sender streams;
+
+    /**
+     * Class and enum names are taken from the {@link ConnectionDictionary} if the stream has one.
+     * InputStreams and large byte arrays are only supported if it is a {@link RemoteStreams.Sender}.
+     */
+    public BinaryObjectOutput(OutputStream out) {
+        super(out);
+        this.dictionary = ConnectionDictionary.of(out);
+        this.streams = RemoteStreams.sender(out);
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        if (obj == null) {
+            write(NULL);
+            return;
+        }
+        Class<?> type = obj.getClass();
+        if (type == String.class) {
+            write(STRING);
+            writeString((String) obj);
+        } else if (type == Integer.class) {
+            write(INT);
+            writeVarLong(zigZag((Integer) obj));
+        } else if (type == Long.class) {
+            write(LONG);
+            writeVarLong(zigZag((Long) obj));
+        } else if (type == Boolean.class) {
+            write((Boolean) obj ? TRUE : FALSE);
+        } else if (type == Byte.class) {
+            write(BYTE);
+            writeByte((Byte) obj);
+        } else if (type == Short.class) {
+            write(SHORT);
+            writeShort((Short) obj);
+        } else if (type == Character.class) {
+            write(CHAR);
+            writeChar((Character) obj);
+        } else if (type == Float.class) {
+            write(FLOAT);
+            writeFloat((Float) obj);
+        } else if (type == Double.class) {
+            write(DOUBLE);
+            writeDouble((Double) obj);
+        } else if (type == Version.class) {
+            write(VERSION);
+            writeString(obj.toString());
+        } else if (type.isArray()) {
+            writeArray(obj, type.getComponentType());
+        } else if (obj instanceof Enum) {
+            write(ENUM);
+            writeName(((Enum<?>) obj).getDeclaringClass().getName());
+            writeName(((Enum<?>) obj).name());
+        } else if (obj instanceof InputStream && streams != null) {
+            write(STREAM);
+            writeVarLong(streams.send((InputStream) obj));
+        } else if (obj instanceof Collection && writeCollection((Collection<?>) obj)) {
+            return;
+        } else if (obj instanceof Map && writeMap((Map<?, ?>) obj)) {
+            return;
+        } else {
+            DTOSchema schema = obj instanceof Serializable ? null : DTOSchema.forClass(type);
+            if (schema != null) {
+                writeDTO(obj, schema);
+            } else {
+                writeJava(obj);
+            }
+        }
+    }
+
+    private void writeArray(Object array, Class<?> componentType) throws IOException {
+        if (componentType == byte.class) {
+            byte[] values = (byte[]) array;
+            if (streams != null && values.length >= RemoteStreams.BYTE_ARRAY_THRESHOLD) {
+                write(BYTE_ARRAY_STREAM);
+                writeVarInt(values.length);
+                writeVarLong(streams.send(new ByteArrayInputStream(values)));
+                return;
+            }
+            write(BYTE_ARRAY);
+            writeVarInt(values.length);
+            write(values);
+        } else if (componentType == int.class) {
+            int[] values = (int[]) array;
+            write(INT_ARRAY);
+            writeVarInt(values.length);
+            for (int value : values) {
+                writeInt(value);
+            }
+        } else if (componentType == long.class) {
+            long[] values = (long[]) array;
+            write(LONG_ARRAY);
+            writeVarInt(values.length);
+            for (long value : values) {
+                writeLong(value);
+            }
+        } else if (componentType == double.class) {
+            double[] values = (double[]) array;
+            write(DOUBLE_ARRAY);
+            writeVarInt(values.length);
+            for (double value : values) {
+                writeDouble(value);
+            }
+        } else if (componentType == float.class) {
+            float[] values = (float[]) array;
+            write(FLOAT_ARRAY);
+            writeVarInt(values.length);
+            for (float value : values) {
+                writeFloat(value);
+            }
+        } else if (componentType == short.class) {
+            short[] values = (short[]) array;
+            write(SHORT_ARRAY);
+            writeVarInt(values.length);
+            for (short value : values) {
+                writeShort(value);
+            }
+        } else if (componentType == char.class) {
+            char[] values = (char[]) array;
+            write(CHAR_ARRAY);
+            writeVarInt(values.length);
+            for (char value : values) {
+                writeChar(value);
+            }
+        } else if (componentType == boolean.class) {
+            boolean[] values = (boolean[]) array;
+            write(BOOLEAN_ARRAY);
+            writeVarInt(values.length);
+            for (boolean value : values) {
+                writeBoolean(value);
+            }
+        } else {
+            Object[] values = (Object[]) array;
+            write(OBJECT_ARRAY);
+            writeName(componentType.getName());
+            writeVarInt(values.length);
+            for (Object value : values) {
+                writeObject(value);
+            }
+        }
+    }
+
+    /**
+     * Only the collections the reader recreates as exactly the same type are encoded. All others,
+     * including the other java.util types and their subclasses, keep their type by Java serialization.
+     *
+     * @return false if the collection has to be written as Java serialization
+     */
+    private boolean writeCollection(Collection<?> collection) throws IOException {
+        Class<?> type = collection.getClass();
+        int tag;
+        if (type == ArrayList.class) {
+            tag = ARRAY_LIST;
+        } else if (type == LinkedList.class) {
+            tag = LINKED_LIST;
+        } else if (type == HashSet.class) {
+            tag = HASH_SET;
+        } else if (type == LinkedHashSet.class) {
+            tag = LINKED_HASH_SET;
+        } else if (type == TreeSet.class && ((TreeSet<?>) collection).comparator() == null) {
+            tag = TREE_SET;
+        } else {
+            return false;
+        }
+        write(tag);
+        writeVarInt(collection.size());
+        for (Object value : collection) {
+            writeObject(value);
+        }
+        return true;
+    }
+
+    private boolean writeMap(Map<?, ?> map) throws IOException {
+        Class<?> type = map.getClass();
+        int tag;
+        if (type == HashMap.class) {
+            tag = HASH_MAP;
+        } else if (type == LinkedHashMap.class) {
+            tag = LINKED_HASH_MAP;
+        } else if (type == TreeMap.class && ((TreeMap<?, ?>) map).comparator() == null) {
+            tag = TREE_MAP;
+        } else {
+            return false;
+        }
+        write(tag);
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeObject(entry.getKey());
+            writeObject(entry.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * The field values are written in the order of the schema, the fingerprint detects if the
+     * reader has a different version of the class
+     */
+    private void writeDTO(Object dto, DTOSchema schema) throws IOException {
+        write(DTO);
+        writeName(schema.getType().getName());
+        writeInt(schema.getFingerprint());
+        for (int i = 0; i < schema.size(); i++) {
+            writeObject(schema.get(dto, i));
+        }
+    }
+
+    private void writeJava(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BasicObjectOutputStream(bytes, dictionary, streams)) {
+            out.writeObject(obj);
+        }
+        write(JAVA);
+        writeVarInt(bytes.size());
+        bytes.writeTo(this);
+    }
+
+    private void writeName(String name) throws IOException {
+        if (dictionary == null || dictionary.writeCode(this, name)) {
+            writeString(name);
+        }
+    }
+
+    void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        write(bytes);
+    }
+
+    void writeVarInt(int value) throws IOException {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
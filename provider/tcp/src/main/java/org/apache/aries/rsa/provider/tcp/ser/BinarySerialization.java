@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+
+/**
+ * Compact binary encoding of the types commonly used in service interfaces: primitives and their
+ * wrappers, Strings, enums, arrays, the java.util collections, OSGi Versions and DTOs. Each value
+ * is written as a one byte type tag followed by its content, without class descriptors. Other
+ * objects are embedded as Java serialization. Object identity is not preserved, so shared and
+ * cyclic references are not supported. On connections that support {@link RemoteStreams},
+ * InputStreams and large byte arrays are sent as streams beside the frame.
+ */
+public class BinarySerialization implements Serialization {
+    public static final String NAME = "binary";
+
+    static final int NULL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int BYTE = 3;
+    static final int SHORT = 4;
+    static final int CHAR = 5;
+    static final int INT = 6;
+    static final int LONG = 7;
+    static final int FLOAT = 8;
+    static final int DOUBLE = 9;
+    static final int STRING = 10;
+    static final int VERSION = 11;
+    static final int ENUM = 12;
+    static final int BOOLEAN_ARRAY = 13;
+    static final int BYTE_ARRAY = 14;
+    static final int SHORT_ARRAY = 15;
+    static final int CHAR_ARRAY = 16;
+    static final int INT_ARRAY = 17;
+    static final int LONG_ARRAY = 18;
+    static final int FLOAT_ARRAY = 19;
+    static final int DOUBLE_ARRAY = 20;
+    static final int OBJECT_ARRAY = 21;
+    static final int ARRAY_LIST = 22;
+    static final int LINKED_LIST = 23;
+    static final int HASH_SET = 24;
+    static final int LINKED_HASH_SET = 25;
+    static final int TREE_SET = 26;
+    static final int HASH_MAP = 27;
+    static final int LINKED_HASH_MAP = 28;
+    static final int TREE_MAP = 29;
+    static final int DTO = 30;
+    static final int JAVA = 31;
+    static final int STREAM = 32;
+    static final int BYTE_ARRAY_STREAM = 33;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ObjectOutput createOutput(OutputStream out) throws IOException {
+        return new BinaryObjectOutput(out);
+    }
+
+    @Override
+    public ObjectInput createInput(InputStream in, ClassLoader loader) throws IOException {
+        return new BinaryObjectInput(in, loader);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.StreamCorruptedException;
+
+/**
+ * Codecs for compressed payloads. Deflate is always available, snappy only if the
+ * org.iq80.snappy library is present.
+ */
+public enum Compression {
+    NONE(0, "none"),
+    DEFLATE(1, "deflate"),
+    SNAPPY(2, "snappy");
+
+    private static final boolean SNAPPY_AVAILABLE = isSnappyPresent();
+
+    private final int id;
+    private final String name;
+
+    Compression(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return bit of the codec in a set of codecs
+     */
+    public int getFlag() {
+        return id == 0 ? 0 : 1 << (id - 1);
+    }
+
+    public boolean isAvailable() {
+        return this != SNAPPY || SNAPPY_AVAILABLE;
+    }
+
+    /**
+     * @return the codecs available in this runtime as set of flags
+     */
+    public static int available() {
+        int flags = 0;
+        for (Compression compression : values()) {
+            if (compression.isAvailable()) {
+                flags |= compression.getFlag();
+            }
+        }
+        return flags;
+    }
+
+    public static Compression forId(int id) throws StreamCorruptedException {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new StreamCorruptedException("Unknown compression " + id);
+    }
+
+    /**
+     * @return the codec with the name or null if it is unknown
+     */
+    public static Compression forName(String name) {
+        for (Compression compression : values()) {
+            if (compression.name.equals(name)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSnappyPresent() {
+        try {
+            Class.forName("org.iq80.snappy.Snappy", false, Compression.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+
+/**
+ * Compressor and decompressor of one connection. Deflater and Inflater keep native buffers, so
+ * they are created once per connection and reset for each payload instead of per call.
+ */
+public final class Compressors implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * @return the compressed data or null if it would not get smaller
+     */
+    public synchronized byte[] compress(Compression compression, byte[] data, int offset, int length) {
+        switch (compression) {
+        case DEFLATE:
+            return deflate(data, offset, length);
+        case SNAPPY:
+            return SnappyCodec.compress(data, offset, length);
+        default:
+            throw new IllegalArgumentException("Can not compress with " + compression);
+        }
+    }
+
+    /**
+     * Fills the target with the decompressed data
+     */
+    public synchronized void decompress(Compression compression, byte[] data, int offset, int length,
+                                        byte[] target) throws IOException {
+        switch (compression) {
+        case DEFLATE:
+            inflate(data, offset, length, target);
+            break;
+        case SNAPPY:
+            SnappyCodec.uncompress(data, offset, length, target);
+            break;
+        default:
+            throw new StreamCorruptedException("Can not decompress " + compression);
+        }
+    }
+
+    private byte[] deflate(byte[] data, int offset, int length) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2);
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() >= length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private void inflate(byte[] data, int offset, int length, byte[] target) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(data, offset, length);
+            int count = 0;
+            while (count < target.length && !inflater.finished()) {
+                int inflated = inflater.inflate(target, count, target.length - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != target.length || !inflater.finished()) {
+                throw new StreamCorruptedException("Compressed payload does not match its length " + target.length);
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed payload: " + e.getMessage());
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Only loaded if snappy is used, so the library is optional
+     */
+    private static final class SnappyCodec {
+        static byte[] compress(byte[] data, int offset, int length) {
+            byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+            int count = Snappy.compress(data, offset, length, compressed, 0);
+            if (count >= length) {
+                return null;
+            }
+            byte[] result = new byte[count];
+            System.arraycopy(compressed, 0, result, 0, count);
+            return result;
+        }
+
+        static void uncompress(byte[] data, int offset, int length, byte[] target) throws IOException {
+            try {
+                if (Snappy.getUncompressedLength(data, offset) != target.length) {
+                    throw new StreamCorruptedException("Compressed payload does not match its length " + target.length);
+                }
+                Snappy.uncompress(data, offset, length, target, 0);
+            } catch (CorruptionException | IndexOutOfBoundsException e) {
+                throw new StreamCorruptedException("Invalid compressed payload: " + e.getMessage());
+            }
+        }
+    }
+}
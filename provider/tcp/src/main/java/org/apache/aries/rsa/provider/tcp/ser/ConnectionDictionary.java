@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Values that repeat on every call of a connection, like endpoint ids, class names and class
+ * descriptors, are sent in full once and then referenced by a small id.
+ * <p>
+ * A value is written as a code followed by the value itself unless the code is a reference. The
+ * code 0 means the value is not in the dictionary, an odd code defines the id <code>code >>> 1</code>
+ * for the value that follows and an even code references the value of the id <code>code >>> 1</code>.
+ * Frames of a connection are decoded concurrently and in any order, so a side only references an
+ * id once the peer acknowledged its definition. The receiver of a definition acknowledges it in the
+ * header of its next frame. Until then the value is defined again with the same id.
+ * <p>
+ * Strings are kept for the life time of the connection. Other values like class descriptors are
+ * only weakly referenced so the dictionary does not keep the class loaders of their classes alive.
+ * Their ids are not reused once they are collected.
+ */
+public final class ConnectionDictionary {
+    /**
+     * Maximum number of values one side defines. Further values are always sent in full and a peer
+     * that defines a higher id is rejected.
+     */
+    static final int MAX_ENTRIES = 4096;
+
+    private final ConcurrentMap<String, Entry> strings = new ConcurrentHashMap<>();
+    private final Map<Object, Entry> objects = Collections.synchronizedMap(new WeakHashMap<Object, Entry>());
+    private final Map<Integer, Entry> entriesById = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final Map<Integer, Object> received = new ConcurrentHashMap<>();
+    private final Queue<Integer> acks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Implemented by the streams of a connection so serializations can find its dictionary
+     */
+    public interface Source {
+        ConnectionDictionary getDictionary();
+    }
+
+    /**
+     * @return the dictionary of the connection the stream belongs to or null
+     */
+    public static ConnectionDictionary of(Object stream) {
+        return stream instanceof Source ? ((Source) stream).getDictionary() : null;
+    }
+
+    /**
+     * Writes the code for the value. Values are compared by equals, so class descriptors are only
+     * found again as long as they are the same instance.
+     *
+     * @return true if the caller has to write the value after the code
+     */
+    public boolean writeCode(DataOutput out, Object value) throws IOException {
+        Entry entry = value instanceof String ? strings.get(value) : objects.get(value);
+        if (entry == null && lastId.get() < MAX_ENTRIES) {
+            entry = value instanceof String ? strings.computeIfAbsent((String) value, v -> newEntry())
+                : objects.computeIfAbsent(value, v -> newEntry());
+        }
+        if (entry == null) {
+            writeVarInt(out, 0);
+            return true;
+        }
+        if (entry.acknowledged) {
+            writeVarInt(out, entry.id << 1);
+            return false;
+        }
+        writeVarInt(out, entry.id << 1 | 1);
+        return true;
+    }
+
+    /**
+     * @return the entry with the next id or null if all ids are used
+     */
+    private Entry newEntry() {
+        int id = lastId.incrementAndGet();
+        if (id > MAX_ENTRIES) {
+            return null;
+        }
+        Entry entry = new Entry(id);
+        entriesById.put(entry.id, entry);
+        return entry;
+    }
+
+    public int readCode(DataInput in) throws IOException {
+        return readVarInt(in);
+    }
+
+    public static boolean isReference(int code) {
+        return code != 0 && (code & 1) == 0;
+    }
+
+    /**
+     * @return the value a reference code stands for
+     */
+    public Object resolve(int code) throws IOException {
+        Object value = received.get(code >>> 1);
+        if (value == null) {
+            throw new StreamCorruptedException("Reference to undefined dictionary id " + (code >>> 1));
+        }
+        return value;
+    }
+
+    /**
+     * Remembers the value read after a code that is not a reference
+     */
+    public void define(int code, Object value) throws IOException {
+        if (code >>> 1 > MAX_ENTRIES) {
+            throw new StreamCorruptedException("Dictionary id " + (code >>> 1) + " exceeds the limit of " + MAX_ENTRIES);
+        }
+        if (code != 0 && received.put(code >>> 1, value) == null) {
+            acks.add(code >>> 1);
+        }
+    }
+
+    public void writeString(DataOutput out, String value) throws IOException {
+        if (writeCode(out, value)) {
+            out.writeUTF(value);
+        }
+    }
+
+    public String readString(DataInput in) throws IOException {
+        int code = readCode(in);
+        if (isReference(code)) {
+            return (String) resolve(code);
+        }
+        String value = in.readUTF();
+        define(code, value);
+        return value;
+    }
+
+    /**
+     * Writes the ids defined by the peer since the last call
+     *
+     * @return the written ids, to be handed back by {@link #requeueAcks(List)} if the frame is not sent
+     */
+    public List<Integer> writeAcks(DataOutput out) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        Integer id;
+        while ((id = acks.poll()) != null) {
+            ids.add(id);
+        }
+        writeVarInt(out, ids.size());
+        for (int ack : ids) {
+            writeVarInt(out, ack);
+        }
+        return ids;
+    }
+
+    /**
+     * Acknowledges the ids again with the next frame because the frame they were written to was dropped
+     */
+    public void requeueAcks(List<Integer> ids) {
+        acks.addAll(ids);
+    }
+
+    /**
+     * Reads the ids the peer acknowledged. From now on they are sent as references.
+     */
+    public void readAcks(DataInput in) throws IOException {
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            Entry entry = entriesById.get(readVarInt(in));
+            if (entry != null) {
+                entry.acknowledged = true;
+            }
+        }
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length number");
+    }
+
+    private static final class Entry {
+        final int id;
+        volatile boolean acknowledged;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -19,33 +19,70 @@
 package org.apache.aries.rsa.provider.tcp.ser;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
 import java.util.Map;
 
-import org.osgi.util.converter.Converter;
 import org.osgi.util.converter.Converters;
 
+/**
+ * Serializable form of a DTO. The content is kept as a map of the field names to keep the form
+ * compatible with peers that convert DTOs to maps.
+ */
 public class DTOMarker implements Serializable {
     private static final long serialVersionUID = 2248068618419940217L;
 
     private String className;
     private Map<String, Object> content;
     
-    @SuppressWarnings("unchecked")
     public DTOMarker(Object dto) {
-        Converter converter = Converters.standardConverter();
+        this(dto, DTOSchema.forClass(dto.getClass()));
+    }
+
+    DTOMarker(Object dto, DTOSchema schema) {
         className = dto.getClass().getName();
-        content = converter.convert(dto).sourceAsDTO().to(Map.class);
+        content = new HashMap<>();
+        for (int i = 0; i < schema.size(); i++) {
+            content.put(schema.getName(i), schema.get(dto, i));
+        }
     }
     
     public Object getDTO(ClassLoader classLoader) {
         try {
             Class<?> clazz = classLoader.loadClass(className);
-            Converter converter = Converters.standardConverter();
-            return converter.convert(content).targetAsDTO().to(clazz);
+            DTOSchema schema = DTOSchema.forClass(clazz);
+            if (schema == null) {
+                throw new IllegalStateException(className + " is no DTO");
+            }
+            Object dto = schema.newInstance();
+            for (Map.Entry<String, Object> entry : content.entrySet()) {
+                int index = schema.indexOf(entry.getKey());
+                if (index >= 0 && (entry.getValue() != null || !schema.getFieldType(index).isPrimitive())) {
+                    schema.set(dto, index, toFieldType(entry.getValue(), clazz, index, schema));
+                }
+            }
+            return dto;
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Exception deserializing DTO " + className, e);
         } 
     }
+
+    /**
+     * Peers that convert DTOs to maps also send nested DTOs as maps
+     */
+    private static Object toFieldType(Object value, Class<?> clazz, int index, DTOSchema schema) {
+        Class<?> fieldType = MethodType.methodType(schema.getFieldType(index)).wrap().returnType();
+        if (value == null || fieldType.isInstance(value)) {
+            return value;
+        }
+        try {
+            Type genericType = clazz.getField(schema.getName(index)).getGenericType();
+            return Converters.standardConverter().convert(value).to(genericType);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
     
     @Override
     public boolean equals(Object obj) {
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Public instance fields of a DTO class in the order of their names, with accessors resolved once
+ * per class. The order does not depend on the JVM, so the field values can be written without names.
+ */
+final class DTOSchema {
+    private static final DTOSchema NO_DTO = new DTOSchema();
+
+    private static final ClassValue<DTOSchema> SCHEMAS = new ClassValue<DTOSchema>() {
+        @Override
+        protected DTOSchema computeValue(Class<?> type) {
+            return DTOUtil.isDTOType(type) ? new DTOSchema(type) : NO_DTO;
+        }
+    };
+
+    private final Class<?> type;
+    private final MethodHandle constructor;
+    private final String[] names;
+    private final Class<?>[] types;
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+    private final int fingerprint;
+
+    private DTOSchema() {
+        this.type = null;
+        this.constructor = null;
+        this.names = new String[0];
+        this.types = new Class<?>[0];
+        this.getters = new MethodHandle[0];
+        this.setters = new MethodHandle[0];
+        this.fingerprint = 0;
+    }
+
+    private DTOSchema(Class<?> type) {
+        this.type = type;
+        List<Field> fields = new ArrayList<>();
+        for (Field field : type.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                fields.add(field);
+            }
+        }
+        Collections.sort(fields, new Comparator<Field>() {
+            @Override
+            public int compare(Field f1, Field f2) {
+                int result = f1.getName().compareTo(f2.getName());
+                return result != 0 ? result : f1.getDeclaringClass().getName().compareTo(f2.getDeclaringClass().getName());
+            }
+        });
+        int size = fields.size();
+        this.names = new String[size];
+        this.types = new Class<?>[size];
+        this.getters = new MethodHandle[size];
+        this.setters = new MethodHandle[size];
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        int hash = 0x811c9dc5;
+        try {
+            Constructor<?> ctor = type.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+            for (int i = 0; i < size; i++) {
+                Field field = fields.get(i);
+                field.setAccessible(true);
+                names[i] = field.getName();
+                types[i] = field.getType();
+                getters[i] = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+                setters[i] = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                String signature = field.getName() + ':' + field.getType().getName() + ';';
+                for (int c = 0; c < signature.length(); c++) {
+                    hash = (hash ^ signature.charAt(c)) * 0x01000193;
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Can not access DTO " + type.getName(), e);
+        }
+        this.fingerprint = hash;
+    }
+
+    /**
+     * @return the schema or null if the class is no DTO
+     */
+    static DTOSchema forClass(Class<?> type) {
+        DTOSchema schema = SCHEMAS.get(type);
+        return schema != NO_DTO ? schema : null;
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    Class<?> getFieldType(int index) {
+        return types[index];
+    }
+
+    int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hash of the field names and types. Differs if exporter and importer use incompatible versions
+     * of the class.
+     */
+    int getFingerprint() {
+        return fingerprint;
+    }
+
+    Object newInstance() {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not create DTO " + type.getName(), e);
+        }
+    }
+
+    Object get(Object dto, int index) {
+        try {
+            return (Object) getters[index].invokeExact(dto);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not read field " + names[index] + " of DTO " + type.getName(), e);
+        }
+    }
+
+    void set(Object dto, int index, Object value) {
+        try {
+            setters[index].invokeExact(dto, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not set field " + names[index] + " of DTO " + type.getName(), e);
+        }
+    }
+}
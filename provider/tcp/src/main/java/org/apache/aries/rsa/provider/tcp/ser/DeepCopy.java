@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.osgi.framework.Version;
+
+/**
+ * Copies arguments and results of calls to services of the same framework, so caller and service
+ * do not share mutable objects just like over a connection. Values are written and read back with a
+ * serialization in memory. Immutable values are not copied at all. InputStreams are handed over as
+ * they are, as their content can only be read once anyway.
+ */
+public class DeepCopy {
+    private final Serialization serialization;
+
+    public DeepCopy(Serialization serialization) {
+        this.serialization = serialization;
+    }
+
+    /**
+     * @param loader class loader to resolve the classes of the copy with
+     */
+    public Object copy(Object value, ClassLoader loader) throws IOException, ClassNotFoundException {
+        if (isImmutable(value)) {
+            return value;
+        }
+        CopyBuffer buffer = new CopyBuffer();
+        try (ObjectOutput out = serialization.createOutput(buffer)) {
+            out.writeObject(value);
+        }
+        try (ObjectInput in = serialization.createInput(buffer.toInput(), loader)) {
+            Object copy = in.readObject();
+            return copy instanceof VersionMarker ? Version.parseVersion(((VersionMarker) copy).getVersion()) : copy;
+        }
+    }
+
+    /**
+     * Arguments are only copied if one of them is mutable
+     */
+    public Object[] copyArgs(Object[] args, ClassLoader loader) throws IOException, ClassNotFoundException {
+        if (args == null) {
+            return null;
+        }
+        for (Object arg : args) {
+            if (!isImmutable(arg)) {
+                return (Object[]) copy(args, loader);
+            }
+        }
+        return args;
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value == null
+            || value instanceof String
+            || value instanceof Boolean
+            || value instanceof Character
+            || value instanceof Enum
+            || value instanceof Version
+            || value instanceof InputStream
+            || value instanceof Number && value.getClass().getName().startsWith("java.lang.");
+    }
+
+    /**
+     * Keeps the streams of the value aside instead of copying their content
+     */
+    private static final class CopyBuffer extends ByteArrayOutputStream implements RemoteStreams.Sender {
+        private final List<InputStream> streams = new ArrayList<>();
+
+        @Override
+        public long send(InputStream in) {
+            streams.add(in);
+            return streams.size() - 1;
+        }
+
+        InputStream toInput() {
+            return new CopyInput(buf, count, streams);
+        }
+    }
+
+    private static final class CopyInput extends ByteArrayInputStream implements RemoteStreams.Receiver {
+        private final List<InputStream> streams;
+
+        CopyInput(byte[] buf, int length, List<InputStream> streams) {
+            super(buf, 0, length);
+            this.streams = streams;
+        }
+
+        @Override
+        public InputStream receive(long id) {
+            return streams.get((int) id);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lets serializations carry InputStreams and large byte arrays beside the frame of a call instead
+ * of inside it. The content follows in chunks over the same connection, so it never has to be held
+ * in memory as a whole. The streams of a frame implement {@link Sender} or {@link Receiver} if the
+ * connection supports this.
+ */
+public final class RemoteStreams {
+    /**
+     * Byte arrays of at least this size are sent as stream
+     */
+    public static final int BYTE_ARRAY_THRESHOLD = 64 * 1024;
+
+    private RemoteStreams() {
+        // Do not instantiate. This is a utility class.
+    }
+
+    public interface Sender {
+        /**
+         * Sends the content of the stream once the current frame is sent and closes the stream
+         * afterwards.
+         *
+         * @return id of the stream on the connection
+         */
+        long send(InputStream in);
+    }
+
+    public interface Receiver {
+        /**
+         * @return the stream with the content sent under the id
+         */
+        InputStream receive(long id);
+    }
+
+    /**
+     * @return the sender of the connection the stream belongs to or null
+     */
+    public static Sender sender(Object stream) {
+        return stream instanceof Sender ? (Sender) stream : null;
+    }
+
+    /**
+     * @return the receiver of the connection the stream belongs to or null
+     */
+    public static Receiver receiver(Object stream) {
+        return stream instanceof Receiver ? (Receiver) stream : null;
+    }
+
+    static byte[] readBytes(Receiver receiver, long id, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (InputStream in = receiver.receive(id)) {
+            int offset = 0;
+            while (offset < length) {
+                int count = in.read(bytes, offset, length - offset);
+                if (count < 0) {
+                    throw new EOFException("Byte array stream " + id + " ended after " + offset + " of " + length + " bytes");
+                }
+                offset += count;
+            }
+        }
+        return bytes;
+    }
+}
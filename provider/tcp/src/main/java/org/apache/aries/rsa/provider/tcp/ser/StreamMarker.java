@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import java.io.Serializable;
+
+/**
+ * Stands for an InputStream or a large byte array whose content is sent as stream of the connection
+ */
+public class StreamMarker implements Serializable {
+    private static final long serialVersionUID = -2364727432416525837L;
+
+    private final long id;
+    private final int length;
+
+    /**
+     * @param length length of the byte array or -1 for an InputStream
+     */
+    public StreamMarker(long id, int length) {
+        this.id = id;
+        this.length = length;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Encodes the arguments and results of aries.tcp calls.
+ * <p>
+ * Implementations registered as OSGi services are available to the TCP provider in addition to the
+ * built in "java" and "binary" serializations. An exporter lists the serializations it accepts in
+ * the endpoint property aries.tcp.serialization, in the order of its preference. The importer uses
+ * the first one of them that it knows.
+ */
+@ConsumerType
+public interface Serialization {
+
+    /**
+     * @return name of the serialization as used in the endpoint property
+     */
+    String getName();
+
+    /**
+     * @param out stream to write to
+     */
+    ObjectOutput createOutput(OutputStream out) throws IOException;
+
+    /**
+     * @param in stream to read from
+     * @param loader class loader to resolve classes of the service interface with
+     */
+    ObjectInput createInput(InputStream in, ClassLoader loader) throws IOException;
+}
@@ -18,10 +18,12 @@
  */
 package org.apache.aries.rsa.provider.tcp;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Map;
 
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -73,6 +75,32 @@ public class EndpointParserTest {
         Assert.assertEquals(11111, getParser().getPort());
     }
     
+    @Test
+    public void testSerializations() {
+        Assert.assertEquals(Arrays.asList("binary", "java"), getParser().getSerializations());
+        props.put(EndpointPropertiesParser.SERIALIZATION_KEY, "custom, java");
+        Assert.assertEquals(Arrays.asList("custom", "java"), getParser().getSerializations());
+        Assert.assertEquals("java", new Serializations().select(getParser().getSerializations()).getName());
+    }
+
+    @Test
+    public void testMethodTimeouts() {
+        Assert.assertTrue(getParser().getMethodTimeouts().isEmpty());
+        props.put(EndpointPropertiesParser.METHOD_TIMEOUT_PREFIX + "run", "100");
+        Assert.assertEquals(Integer.valueOf(100), getParser().getMethodTimeouts().get("run"));
+    }
+
+    @Test
+    public void testCompression() {
+        Assert.assertSame(PayloadCompression.NONE, getParser().getCompression());
+        props.put(EndpointPropertiesParser.COMPRESSION_KEY, "unknown,deflate");
+        props.put(EndpointPropertiesParser.COMPRESSION_THRESHOLD_KEY, "100");
+        PayloadCompression compression = getParser().getCompression();
+        Assert.assertEquals(100, compression.getThreshold());
+        Assert.assertEquals(Compression.DEFLATE, compression.select(Compression.available()));
+        Assert.assertNull(compression.select(0));
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void testTimeoutInvalid() {
         props.put(EndpointPropertiesParser.TIMEOUT_KEY, new Date());
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.jws.Oneway;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+
+/**
+ * Calls beyond the limits of an endpoint are rejected fast instead of waiting for the timeout
+ */
+public class TcpAdmissionControlTest {
+
+    private static final int TIMEOUT = 2000;
+    private TCPProvider provider = new TCPProvider();
+    private Endpoint ep;
+    private MyService myServiceProxy;
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        export("0", "0");
+        CompletableFuture<Void> slow = callSlow(500);
+        long start = System.nanoTime();
+        assertBusy("are waiting already");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(200L));
+        slow.get();
+    }
+
+    @Test
+    public void testRejectAfterQueueWait() throws Exception {
+        export("5", "100");
+        CompletableFuture<Void> slow = callSlow(800);
+        long start = System.nanoTime();
+        assertBusy("waited more than 100 ms");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(500L));
+        slow.get();
+    }
+
+    @Test
+    public void testWaitingCallsAreRejectedWhenStopped() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AdmissionControl admission = new AdmissionControl("test", executor, null, 1, 5, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingCall running = new RecordingCall() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        RecordingCall waiting1 = new RecordingCall();
+        RecordingCall waiting2 = new RecordingCall();
+        admission.submit(running);
+        admission.submit(waiting1);
+        admission.submit(waiting2);
+        executor.shutdown();
+        release.countDown();
+        assertThat(waiting1.rejected.get(2, TimeUnit.SECONDS), containsString("Server stopped"));
+        assertThat(waiting2.rejected.get(2, TimeUnit.SECONDS), containsString("Server stopped"));
+        assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueuedCallIsExecuted() throws Exception {
+        export("5", "0");
+        CompletableFuture<Void> slow = callSlow(200);
+        assertEquals("test", myServiceProxy.echo("test"));
+        slow.get();
+    }
+
+    @Test
+    public void testStreamsOfRejectedCallsAreReleased() throws Exception {
+        final UploadService uploads = export(UploadService.class, new UploadServiceImpl(), "0", "0");
+        CompletableFuture<Void> slow = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                uploads.hold(500);
+            }
+        });
+        Thread.sleep(100);
+        // larger than the flow control window, so the transfer stalls unless the server cancels it
+        ClosingInputStream oneWay = new ClosingInputStream(new byte[3 * FrameStreams.WINDOW]);
+        uploads.upload(oneWay);
+        ClosingInputStream rejected = new ClosingInputStream(new byte[3 * FrameStreams.WINDOW]);
+        try {
+            uploads.count(rejected);
+            fail("Expecting the call to be rejected");
+        } catch (ServiceException e) {
+            assertThat(e.getMessage(), containsString("are waiting already"));
+        }
+        assertTrue(oneWay.closed.await(2, TimeUnit.SECONDS));
+        assertTrue(rejected.closed.await(2, TimeUnit.SECONDS));
+        slow.get();
+    }
+
+    private void export(String maxQueueSize, String maxQueueWait) {
+        myServiceProxy = export(MyService.class, new MyServiceImpl(), maxQueueSize, maxQueueWait);
+    }
+
+    private <T> T export(Class<T> iface, Object service, String maxQueueSize, String maxQueueWait) {
+        Class<?>[] exportedInterfaces = new Class[] {iface};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.rsa.numThreads", "4");
+        props.put("aries.rsa.maxConcurrentCalls", "1");
+        props.put("aries.rsa.maxQueueSize", maxQueueSize);
+        props.put("aries.rsa.maxQueueWait", maxQueueWait);
+        props.put("osgi.basic.timeout", TIMEOUT);
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(service, bc, props, exportedInterfaces);
+        return iface.cast(provider.importEndpoint(iface.getClassLoader(), bc, exportedInterfaces, ep.description()));
+    }
+
+    /**
+     * Occupies the only slot of the endpoint
+     */
+    private CompletableFuture<Void> callSlow(final int delay) throws InterruptedException {
+        CompletableFuture<Void> result = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                myServiceProxy.callSlow(delay);
+            }
+        });
+        Thread.sleep(100);
+        return result;
+    }
+
+    private void assertBusy(String reason) {
+        try {
+            myServiceProxy.echo("test");
+            fail("Expecting the call to be rejected");
+        } catch (ServiceException e) {
+            assertEquals(ServiceException.REMOTE, e.getType());
+            assertThat(e.getMessage(), containsString(reason));
+        }
+    }
+
+    @After
+    public void close() throws IOException {
+        if (ep != null) {
+            ep.close();
+        }
+        provider.close();
+    }
+
+    public interface UploadService {
+        void hold(int delay);
+
+        @Oneway
+        void upload(InputStream in);
+
+        int count(InputStream in);
+    }
+
+    public static class UploadServiceImpl implements UploadService {
+        @Override
+        public void hold(int delay) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void upload(InputStream in) {
+            count(in);
+        }
+
+        @Override
+        public int count(InputStream in) {
+            int count = 0;
+            try (InputStream stream = in) {
+                while (stream.read() >= 0) {
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return count;
+        }
+    }
+
+    private static class ClosingInputStream extends ByteArrayInputStream {
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        ClosingInputStream(byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static class RecordingCall implements AdmissionControl.Call {
+        final CompletableFuture<String> rejected = new CompletableFuture<>();
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void reject(String reason) {
+            rejected.complete(reason);
+        }
+    }
+}
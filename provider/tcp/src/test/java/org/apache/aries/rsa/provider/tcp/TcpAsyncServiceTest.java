@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.util.promise.Promise;
+
+/**
+ * Asynchronous results are written by a callback, so they do not occupy the single worker thread
+ */
+public class TcpAsyncServiceTest {
+
+    private static final int TIMEOUT = 500;
+    private static TCPProvider provider;
+    private static Endpoint ep;
+    private static MyService myServiceProxy;
+
+    @BeforeClass
+    public static void createServerAndProxy() {
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        provider = new TCPProvider();
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.rsa.numThreads", "1");
+        props.put("osgi.basic.timeout", TIMEOUT);
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        myServiceProxy = (MyService)provider.importEndpoint(MyService.class.getClassLoader(),
+                                                            bc,
+                                                            exportedInterfaces,
+                                                            ep.description());
+    }
+
+    @Test
+    public void testAsyncCallsDoNotOccupyWorker() throws Exception {
+        List<Promise<String>> results = new ArrayList<>();
+        for (int c = 0; c < 3; c++) {
+            results.add(myServiceProxy.callAsyncPromise(TIMEOUT - 100));
+        }
+        assertEquals("test", myServiceProxy.echo("test"));
+        for (Promise<String> result : results) {
+            assertEquals("Finished", result.getValue());
+        }
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        ep.close();
+        provider.close();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.aries.rsa.provider.tcp.metrics.CallMetrics;
+import org.apache.aries.rsa.provider.tcp.metrics.MethodMetrics;
+import org.apache.aries.rsa.provider.tcp.metrics.MethodMetrics.Side;
+import org.apache.aries.rsa.provider.tcp.myservice.ExpectedTestException;
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceException;
+
+public class TcpCallMetricsTest {
+
+    private TCPProvider provider;
+    private Endpoint ep;
+    private MyService proxy;
+
+    @Before
+    public void createServerAndProxy() {
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        provider = new TCPProvider();
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("osgi.basic.timeout", 200);
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        proxy = (MyService)provider.importEndpoint(MyService.class.getClassLoader(), bc, exportedInterfaces,
+                                                   ep.description());
+    }
+
+    @After
+    public void close() throws IOException {
+        ep.close();
+        provider.close();
+    }
+
+    @Test
+    public void testCallsAreRecordedOnBothSides() {
+        for (int c = 0; c < 10; c++) {
+            proxy.echo("test" + c);
+        }
+        MethodMetrics client = find(Side.CLIENT, "echo");
+        assertEquals(10, client.getCalls());
+        assertEquals(0, client.getErrors());
+        assertThat(client.getBytesOut(), greaterThan(0L));
+        assertThat(client.getBytesIn(), greaterThan(0L));
+        assertThat(client.getP50Nanos(), greaterThan(0L));
+        assertThat(client.getP50Nanos(), lessThanOrEqualTo(client.getP99Nanos()));
+        assertThat(client.getP99Nanos(), lessThanOrEqualTo(client.getMaxNanos()));
+
+        MethodMetrics server = find(Side.SERVER, "echo");
+        assertEquals(10, server.getCalls());
+        assertEquals(client.getBytesOut(), server.getBytesIn());
+        assertEquals(client.getBytesIn(), server.getBytesOut());
+        assertThat(client.getMeanNanos(), greaterThanOrEqualTo(server.getMeanNanos()));
+    }
+
+    @Test
+    public void testErrorsAndTimeouts() {
+        try {
+            proxy.callException();
+            fail("Expecting exception");
+        } catch (ExpectedTestException e) {
+            // expected
+        }
+        try {
+            proxy.callSlow(400);
+            fail("Expecting timeout");
+        } catch (ServiceException e) {
+            // expected
+        }
+        assertEquals(1, find(Side.CLIENT, "callException").getErrors());
+        assertEquals(1, find(Side.SERVER, "callException").getErrors());
+        MethodMetrics slow = find(Side.CLIENT, "callSlow");
+        assertEquals(1, slow.getErrors());
+        assertEquals(1, slow.getTimeouts());
+    }
+
+    @Test
+    public void testReset() {
+        proxy.echo("test");
+        provider.getStatistics().reset();
+        assertEquals(0, find(Side.CLIENT, "echo").getCalls());
+        assertEquals(0, find(Side.SERVER, "echo").getMaxNanos());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        provider.activate(frameworkContext("6b5e7d3c-1f0a-4c2e-9a3b-0d8e4f2a1c7b"));
+        proxy.echo("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(CallMetrics.OBJECT_NAME + ",framework=6b5e7d3c-1f0a-4c2e-9a3b-0d8e4f2a1c7b");
+        CompositeData[] methods = (CompositeData[])server.getAttribute(name, "Methods");
+        assertEquals(2, methods.length);
+        for (CompositeData method : methods) {
+            assertEquals(1L, method.get("calls"));
+        }
+    }
+
+    @Test
+    public void testMBeansOfSeveralProviders() throws Exception {
+        provider.activate(frameworkContext(null));
+        TCPProvider other = new TCPProvider();
+        other.activate(frameworkContext(null));
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertNotNull(other.getMetricsName());
+            assertNotEquals(provider.getMetricsName(), other.getMetricsName());
+            assertTrue(server.isRegistered(provider.getMetricsName()));
+            assertTrue(server.isRegistered(other.getMetricsName()));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testHistogramPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100000, snapshot.count);
+        assertEquals(100000000L, snapshot.max);
+        assertPrecision(50000000L, snapshot.valueAt(50));
+        assertPrecision(99000000L, snapshot.valueAt(99));
+        assertPrecision(99900000L, snapshot.valueAt(99.9));
+        assertEquals(100000000L, snapshot.valueAt(100));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (int index = 0; index < LatencyHistogram.BUCKETS; index++) {
+            assertEquals(index, LatencyHistogram.index(LatencyHistogram.lowestValue(index)));
+            if (index > 0) {
+                assertEquals(index - 1, LatencyHistogram.index(LatencyHistogram.lowestValue(index) - 1));
+            }
+        }
+    }
+
+    private static BundleContext frameworkContext(String uuid) {
+        BundleContext context = EasyMock.niceMock(BundleContext.class);
+        EasyMock.expect(context.getProperty(Constants.FRAMEWORK_UUID)).andReturn(uuid);
+        EasyMock.replay(context);
+        return context;
+    }
+
+    private static void assertPrecision(long expected, long actual) {
+        assertThat(actual, greaterThanOrEqualTo(expected));
+        assertThat(actual, lessThanOrEqualTo(expected + expected / 16));
+    }
+
+    private MethodMetrics find(Side side, String method) {
+        for (MethodMetrics metrics : provider.getStatistics().getMethods()) {
+            if (metrics.getSide() == side && metrics.getMethod().startsWith(method + "(")) {
+                return metrics;
+            }
+        }
+        assertNotNull("No metrics for " + method, null);
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.Frame;
+import org.apache.aries.rsa.provider.tcp.TcpProtocol.FrameBuffer;
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.provider.tcp.ser.Compression;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Payloads above the threshold are compressed with a codec both sides support
+ */
+@RunWith(Parameterized.class)
+public class TcpCompressionTest {
+
+    private static final int THRESHOLD = 1024;
+    private BinarySerialization serialization = new BinarySerialization();
+
+    @Parameter
+    public String codec;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> codecs() {
+        return asList(new Object[][] {{"deflate"}, {"snappy"}});
+    }
+
+    @Test
+    public void testLargePayloadIsCompressed() throws Exception {
+        String payload = repeat("compressible ", 1000);
+        FrameConnection sender = connection(Compression.available());
+        byte[] frame = encode(sender, payload);
+        assertThat(frame.length, lessThan(payload.length() / 4));
+        assertEquals(Compression.forName(codec).getId(), frame[8 + 1]);
+        assertEquals(payload, decode(connection(Compression.available()), frame));
+    }
+
+    @Test
+    public void testSmallPayloadIsNotCompressed() throws Exception {
+        String payload = repeat("a", THRESHOLD / 2);
+        byte[] frame = encode(connection(Compression.available()), payload);
+        assertEquals(Compression.NONE.getId(), frame[8 + 1]);
+        assertEquals(payload, decode(connection(Compression.available()), frame));
+    }
+
+    @Test
+    public void testCodecNotNegotiated() throws Exception {
+        String payload = repeat("compressible ", 1000);
+        byte[] frame = encode(connection(0), payload);
+        assertEquals(Compression.NONE.getId(), frame[8 + 1]);
+        assertEquals(payload, decode(connection(0), frame));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testOversizedPayloadLengthIsRejected() throws Exception {
+        byte[] frame = encode(connection(Compression.available()), repeat("compressible ", 1000));
+        // announces an uncompressed length the receiver must not allocate a buffer for
+        ByteBuffer.wrap(frame).putInt(8 + 2, TcpProtocol.MAX_FRAME_SIZE + 1);
+        decode(connection(Compression.available()), frame);
+    }
+
+    @Test
+    public void testRemoteCall() throws IOException {
+        TCPProvider provider = new TCPProvider();
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.tcp.compression", codec);
+        props.put("aries.tcp.compressionThreshold", THRESHOLD);
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        Endpoint ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        try {
+            MyService proxy = (MyService)provider.importEndpoint(MyService.class.getClassLoader(), bc,
+                                                                 exportedInterfaces, ep.description());
+            String payload = repeat("compressible ", 1000);
+            assertEquals(payload, proxy.echo(payload));
+            assertEquals("small", proxy.echo("small"));
+        } finally {
+            ep.close();
+            provider.close();
+        }
+    }
+
+    private byte[] encode(FrameConnection connection, String payload) throws IOException {
+        FrameBuffer frame = TcpProtocol.responseFrame(1L, connection);
+        try (ObjectOutput out = serialization.createOutput(frame)) {
+            out.writeObject(payload);
+        }
+        frame.compress(PayloadCompression.of(asList(codec), THRESHOLD));
+        ByteBuffer buffer = frame.toByteBuffer();
+        buffer.getInt();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private Object decode(FrameConnection connection, byte[] data) throws Exception {
+        Frame frame = new Frame(data, connection);
+        frame.in.openPayload();
+        try (ObjectInput in = serialization.createInput(frame.in, getClass().getClassLoader())) {
+            return in.readObject();
+        }
+    }
+
+    private static FrameConnection connection(int compressions) {
+        FrameConnection connection = new FrameConnection(null, null, null) {
+            @Override
+            protected int process(ByteBuffer in) {
+                return 0;
+            }
+        };
+        connection.setCompressions(compressions);
+        return connection;
+    }
+
+    private static String repeat(String part, int times) {
+        char[] chars = new char[part.length() * times];
+        for (int i = 0; i < times; i++) {
+            part.getChars(0, part.length(), chars, i * part.length());
+        }
+        return new String(chars);
+    }
+}
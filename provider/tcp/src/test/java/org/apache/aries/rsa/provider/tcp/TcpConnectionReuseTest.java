@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.util.promise.Promise;
+
+public class TcpConnectionReuseTest {
+
+    private static final int TIMEOUT = 1000;
+    private static TCPProvider provider;
+    private static Endpoint ep;
+    private static BundleContext bc;
+    private static URI address;
+    private static TcpClient client;
+
+    @BeforeClass
+    public static void createServer() throws Exception {
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        provider = new TCPProvider();
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        address = new URI(ep.description().getId());
+        client = new TcpClient();
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 2);
+        MyService proxy = createProxy(pool);
+        for (int c = 0; c < 10; c++) {
+            assertEquals("test" + c, proxy.echo("test" + c));
+        }
+        assertEquals(1, pool.size());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrentCallsShareConnections() throws InterruptedException {
+        final ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 2);
+        final MyService proxy = createProxy(pool);
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        for (int c = 0; c < 100; c++) {
+            final String msg = "test" + c;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    assertEquals(msg, proxy.echo(msg));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertThat(pool.size(), lessThanOrEqualTo(2));
+        pool.close();
+    }
+
+    @Test
+    public void testAsyncCallsDoNotHoldThreads() throws Exception {
+        ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 2);
+        MyService proxy = createProxy(pool);
+        List<Promise<String>> results = new ArrayList<>();
+        for (int c = 0; c < 20; c++) {
+            results.add(proxy.callAsyncPromise(200));
+        }
+        // the service itself starts a thread per call, so look for consumer threads waiting for a result
+        assertEquals(0, threadsIn(TcpInvocationHandler.class.getName()));
+        for (Promise<String> result : results) {
+            assertEquals("Finished", result.getValue());
+        }
+        assertThat(pool.size(), lessThanOrEqualTo(2));
+        pool.close();
+    }
+
+    private static int threadsIn(String className) {
+        int count = 0;
+        for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+            for (StackTraceElement element : stack) {
+                if (element.getClassName().startsWith(className)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testPoolsAreSharedByImportsWithTheSameLimits() throws IOException {
+        try (TcpClient poolClient = new TcpClient()) {
+            ConnectionPool pool = poolClient.getPool(address.getHost(), address.getPort(), 2, 4, null);
+            assertSame(pool, poolClient.getPool(address.getHost(), address.getPort(), 2, 4, null));
+            assertNotSame(pool, poolClient.getPool(address.getHost(), address.getPort(), 3, 4, null));
+            assertNotSame(pool, poolClient.getPool(address.getHost(), address.getPort(), 2, 1, null));
+            assertEquals(3, poolClient.getPoolCount());
+        }
+    }
+
+    @Test
+    public void testPoolIsClosedWithItsLastImport() throws IOException {
+        try (TcpClient poolClient = new TcpClient()) {
+            ConnectionPool pool = poolClient.getPool(address.getHost(), address.getPort(), 2, 4, null);
+            MyService proxy1 = createProxy(pool);
+            MyService proxy2 = createProxy(poolClient.getPool(address.getHost(), address.getPort(), 2, 4, null));
+            assertEquals("test", proxy1.echo("test"));
+
+            ((TcpInvocationHandler)Proxy.getInvocationHandler(proxy1)).close();
+            // closing twice does not release the pool of the other proxy
+            ((TcpInvocationHandler)Proxy.getInvocationHandler(proxy1)).close();
+            assertEquals("test", proxy2.echo("test"));
+            assertEquals(1, pool.size());
+
+            ((TcpInvocationHandler)Proxy.getInvocationHandler(proxy2)).close();
+            assertEquals(0, poolClient.getPoolCount());
+            assertNotSame(pool, poolClient.getPool(address.getHost(), address.getPort(), 2, 4, null));
+        }
+    }
+
+    @Test
+    public void testLegacyClient() {
+        Map<String, Object> props = new HashMap<>(ep.description().getProperties());
+        props.remove(EndpointPropertiesParser.PROTOCOL_KEY);
+        MyService proxy = (MyService)provider.importEndpoint(MyService.class.getClassLoader(),
+                                                             bc,
+                                                             new Class[] {MyService.class},
+                                                             new EndpointDescription(props));
+        assertEquals("test", proxy.echo("test"));
+    }
+
+    @Test
+    public void testOversizedFrameClosesConnection() throws Exception {
+        try (Socket socket = new Socket(address.getHost(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(TcpProtocol.handshake(TcpProtocol.VERSION, 0).array());
+            // announces a frame the server must not allocate a buffer for
+            out.writeInt(Integer.MAX_VALUE - 16);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[TcpProtocol.HANDSHAKE_SIZE]);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        ep.close();
+        provider.close();
+        client.close();
+    }
+
+    private MyService createProxy(ConnectionPool pool) {
+        ClassLoader cl = MyService.class.getClassLoader();
+        TcpInvocationHandler handler = new TcpInvocationHandler(cl, address.getHost(), address.getPort(), ep.description().getId(), TIMEOUT,
+                                                                  Collections.<String, Integer>emptyMap(), pool, new BinarySerialization(),
+                                                                  PayloadCompression.NONE, false);
+        return (MyService)Proxy.newProxyInstance(cl, new Class[] {MyService.class}, handler);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.aries.rsa.provider.tcp.context.CallContext;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * The server learns the deadline of each call from the consumer
+ */
+public class TcpDeadlineTest {
+
+    private static final int TIMEOUT = 300;
+    private TCPProvider provider = new TCPProvider();
+    private DeadlineServiceImpl service = new DeadlineServiceImpl();
+    private Endpoint ep;
+    private DeadlineService proxy;
+
+    public interface DeadlineService {
+        long getRemainingMillis();
+
+        boolean hasDeadline();
+
+        void sleep(int millis);
+    }
+
+    static class DeadlineServiceImpl implements DeadlineService {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public long getRemainingMillis() {
+            calls.incrementAndGet();
+            return CallContext.current().getRemainingMillis();
+        }
+
+        @Override
+        public boolean hasDeadline() {
+            return CallContext.current() != null;
+        }
+
+        @Override
+        public void sleep(int millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Before
+    public void export() {
+        Class<?>[] exportedInterfaces = new Class[] {DeadlineService.class};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.rsa.numThreads", "1");
+        props.put("osgi.basic.timeout", TIMEOUT);
+        props.put("aries.rsa.timeout.sleep", 2000);
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(service, bc, props, exportedInterfaces);
+        proxy = (DeadlineService)provider.importEndpoint(DeadlineService.class.getClassLoader(),
+                                                         bc,
+                                                         exportedInterfaces,
+                                                         ep.description());
+    }
+
+    @Test
+    public void testDeadlineIsVisibleToService() {
+        long remaining = proxy.getRemainingMillis();
+        assertThat(remaining, lessThanOrEqualTo((long) TIMEOUT));
+        assertThat(remaining, greaterThan(TIMEOUT - 200L));
+    }
+
+    @Test
+    public void testMethodTimeout() {
+        // longer than the timeout of the endpoint
+        proxy.sleep(TIMEOUT + 200);
+    }
+
+    @Test
+    public void testTimeoutZeroWaitsWithoutLimit() {
+        DeadlineService unlimited = importWithoutTimeout(ep.description().getProperties());
+        assertFalse(unlimited.hasDeadline());
+        // longer than the timeout of the endpoint
+        unlimited.sleep(TIMEOUT + 200);
+    }
+
+    @Test
+    public void testTimeoutZeroWaitsWithoutLimitOnLegacyConnections() {
+        Map<String, Object> props = new HashMap<>(ep.description().getProperties());
+        props.remove(EndpointPropertiesParser.PROTOCOL_KEY);
+        importWithoutTimeout(props).sleep(TIMEOUT + 200);
+    }
+
+    private DeadlineService importWithoutTimeout(Map<String, Object> endpointProps) {
+        Map<String, Object> props = new HashMap<>(endpointProps);
+        props.put("osgi.basic.timeout", 0);
+        props.put("aries.rsa.timeout.sleep", 0);
+        return (DeadlineService)provider.importEndpoint(DeadlineService.class.getClassLoader(),
+                                                        EasyMock.mock(BundleContext.class),
+                                                        new Class[] {DeadlineService.class},
+                                                        new EndpointDescription(props));
+    }
+
+    @Test
+    public void testExpiredCallIsDropped() throws Exception {
+        CompletableFuture<Void> slow = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                proxy.sleep(TIMEOUT + 400);
+            }
+        });
+        Thread.sleep(100);
+        try {
+            proxy.getRemainingMillis();
+            fail("Expecting timeout");
+        } catch (ServiceException e) {
+            assertEquals(SocketTimeoutException.class, e.getCause().getClass());
+        }
+        slow.get();
+        proxy.getRemainingMillis();
+        // the queued call was never executed
+        assertEquals(1, service.calls.get());
+    }
+
+    @After
+    public void close() throws IOException {
+        ep.close();
+        provider.close();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.myservice.ExpectedTestException;
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+public class TcpLocalCallTest {
+    private static final String FRAMEWORK_UUID = "local-framework";
+
+    private TCPProvider provider;
+    private BundleContext bc;
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    public interface ListService {
+        List<String> add(List<String> list, String value);
+    }
+
+    public static class ListServiceImpl implements ListService {
+        List<String> received;
+
+        @Override
+        public List<String> add(List<String> list, String value) {
+            received = list;
+            list.add(value);
+            return list;
+        }
+    }
+
+    @Before
+    public void before() {
+        provider = new TCPProvider();
+        bc = EasyMock.mock(BundleContext.class);
+        EasyMock.expect(bc.getProperty(Constants.FRAMEWORK_UUID)).andReturn(FRAMEWORK_UUID).anyTimes();
+        EasyMock.replay(bc);
+    }
+
+    @After
+    public void after() throws IOException {
+        for (Endpoint ep : endpoints) {
+            ep.close();
+        }
+        provider.close();
+    }
+
+    @Test
+    public void testLocalCallCopiesValues() {
+        ListServiceImpl service = new ListServiceImpl();
+        ListService proxy = importService(export(service, ListService.class, FRAMEWORK_UUID, null), ListService.class);
+        assertThat(Proxy.getInvocationHandler(proxy), instanceOf(LocalInvocationHandler.class));
+
+        List<String> list = new ArrayList<>();
+        List<String> result = proxy.add(list, "a");
+
+        assertThat(list, empty());
+        assertThat(result, contains("a"));
+        assertNotSame(list, service.received);
+        assertNotSame(service.received, result);
+    }
+
+    @Test
+    public void testLocalCallByReference() {
+        ListServiceImpl service = new ListServiceImpl();
+        ListService proxy = importService(export(service, ListService.class, FRAMEWORK_UUID,
+                                                 EndpointPropertiesParser.BY_REFERENCE_INTENT), ListService.class);
+
+        List<String> list = new ArrayList<>();
+        List<String> result = proxy.add(list, "a");
+
+        assertSame(list, service.received);
+        assertSame(list, result);
+        assertThat(list, contains("a"));
+    }
+
+    @Test(expected = ExpectedTestException.class)
+    public void testLocalCallException() {
+        MyService proxy = importService(export(new MyServiceImpl(), MyService.class, FRAMEWORK_UUID, null), MyService.class);
+        proxy.callException();
+    }
+
+    @Test
+    public void testLocalAsyncCall() throws Exception {
+        MyService proxy = importService(export(new MyServiceImpl(), MyService.class, FRAMEWORK_UUID, null), MyService.class);
+        assertEquals("Finished", proxy.callAsyncCompletionStage(100).toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals("Finished", proxy.callAsyncPromise(100).getValue());
+    }
+
+    @Test
+    public void testOtherFrameworkIsCalledRemotely() {
+        ListServiceImpl service = new ListServiceImpl();
+        ListService proxy = importService(export(service, ListService.class, "other-framework", null), ListService.class);
+        assertThat(Proxy.getInvocationHandler(proxy), instanceOf(TcpInvocationHandler.class));
+
+        List<String> list = new ArrayList<>();
+        assertThat(proxy.add(list, "a"), contains("a"));
+        assertThat(list, empty());
+    }
+
+    private EndpointDescription export(Object service, Class<?> iface, String frameworkUUID, String intent) {
+        Class<?>[] exportedInterfaces = new Class[] {iface};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put(RemoteConstants.ENDPOINT_FRAMEWORK_UUID, frameworkUUID);
+        if (intent != null) {
+            props.put(RemoteConstants.SERVICE_EXPORTED_INTENTS, intent);
+        }
+        Endpoint ep = provider.exportService(service, bc, props, exportedInterfaces);
+        endpoints.add(ep);
+        return ep.description();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T importService(EndpointDescription endpoint, Class<T> iface) {
+        return (T) provider.importEndpoint(iface.getClassLoader(), bc, new Class[] {iface}, endpoint);
+    }
+}
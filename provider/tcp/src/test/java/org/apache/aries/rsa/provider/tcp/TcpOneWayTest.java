@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+public class TcpOneWayTest {
+    private TCPProvider provider;
+    private BundleContext bc;
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface OneWay {
+    }
+
+    public interface TelemetryService {
+        @OneWay
+        void record(String value);
+
+        void recordAndWait(String value);
+
+        int count();
+    }
+
+    public static class TelemetryServiceImpl implements TelemetryService {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch recorded = new CountDownLatch(2);
+        int count;
+
+        @Override
+        public void record(String value) {
+            await();
+            add(value);
+        }
+
+        @Override
+        public void recordAndWait(String value) {
+            await();
+            add(value);
+        }
+
+        @Override
+        public synchronized int count() {
+            return count;
+        }
+
+        private synchronized void add(String value) {
+            if (value == null) {
+                throw new IllegalArgumentException("No value");
+            }
+            count++;
+            recorded.countDown();
+        }
+
+        private void await() {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Before
+    public void before() {
+        provider = new TCPProvider();
+        bc = EasyMock.mock(BundleContext.class);
+    }
+
+    @After
+    public void after() throws IOException {
+        for (Endpoint ep : endpoints) {
+            ep.close();
+        }
+        provider.close();
+    }
+
+    @Test
+    public void testAnnotatedMethodDoesNotWait() throws Exception {
+        TelemetryServiceImpl service = new TelemetryServiceImpl();
+        TelemetryService proxy = exportAndImport(service, null);
+
+        proxy.record("a");
+        proxy.record("b");
+        assertEquals(0, service.count());
+
+        service.release.countDown();
+        assertTrue(service.recorded.await(5, TimeUnit.SECONDS));
+        assertEquals(2, proxy.count());
+    }
+
+    @Test
+    public void testFailureIsNotReported() throws Exception {
+        TelemetryServiceImpl service = new TelemetryServiceImpl();
+        service.release.countDown();
+        TelemetryService proxy = exportAndImport(service, null);
+
+        proxy.record(null);
+        proxy.record("a");
+        proxy.record("b");
+
+        assertTrue(service.recorded.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIntentMakesVoidMethodsOneWay() throws Exception {
+        TelemetryServiceImpl service = new TelemetryServiceImpl();
+        TelemetryService proxy = exportAndImport(service, EndpointPropertiesParser.ONE_WAY_INTENT);
+
+        proxy.recordAndWait("a");
+        proxy.record("b");
+        assertEquals(0, proxy.count());
+
+        service.release.countDown();
+        assertTrue(service.recorded.await(5, TimeUnit.SECONDS));
+    }
+
+    private TelemetryService exportAndImport(Object service, String intent) {
+        Class<?>[] exportedInterfaces = new Class[] {TelemetryService.class};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        if (intent != null) {
+            props.put(RemoteConstants.SERVICE_EXPORTED_INTENTS, intent);
+        }
+        Endpoint ep = provider.exportService(service, bc, props, exportedInterfaces);
+        endpoints.add(ep);
+        return (TelemetryService)provider.importEndpoint(TelemetryService.class.getClassLoader(), bc,
+                                                         exportedInterfaces, ep.description());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+
+public class TcpPipeliningTest {
+
+    private static final int TIMEOUT = 2000;
+    private static final int DELAY = 300;
+    private static TCPProvider provider;
+    private static Endpoint ep;
+    private static URI address;
+    private static TcpClient client;
+
+    @BeforeClass
+    public static void createServer() throws Exception {
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        provider = new TCPProvider();
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.rsa.numThreads", "10");
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        address = new URI(ep.description().getId());
+        client = new TcpClient();
+    }
+
+    @Test
+    public void testCallsShareOneConnection() throws Exception {
+        ConnectionPool pool = createPool(1, 8);
+        final MyService proxy = createProxy(pool, TIMEOUT);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        long start = System.nanoTime();
+        List<Future<?>> results = new ArrayList<>();
+        for (int c = 0; c < 8; c++) {
+            results.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    proxy.callSlow(DELAY);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        executor.shutdown();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(2L * DELAY));
+        assertEquals(1, pool.size());
+        pool.close();
+    }
+
+    @Test
+    public void testResponsesOutOfOrder() throws Exception {
+        ConnectionPool pool = createPool(1, 8);
+        MyService proxy = createProxy(pool, TIMEOUT);
+        CompletableFuture<String> slow = proxy.callAsyncCompletionStage(DELAY).toCompletableFuture();
+        assertEquals("test", proxy.echo("test"));
+        assertFalse(slow.isDone());
+        assertEquals("Finished", slow.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        pool.close();
+    }
+
+    @Test
+    public void testTimeoutKeepsOtherCalls() throws Exception {
+        ConnectionPool pool = createPool(1, 8);
+        MyService proxy = createProxy(pool, TIMEOUT);
+        MyService impatientProxy = createProxy(pool, DELAY / 3);
+        CompletableFuture<String> slow = proxy.callAsyncCompletionStage(DELAY).toCompletableFuture();
+        try {
+            impatientProxy.callSlow(DELAY);
+            fail("Expecting timeout");
+        } catch (ServiceException e) {
+            assertThat(e.getCause().getClass().getName(), equalTo(SocketTimeoutException.class.getName()));
+        }
+        assertEquals("Finished", slow.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        // the late response of the timed out call is dropped
+        Thread.sleep(DELAY);
+        assertEquals("test", proxy.echo("test"));
+        assertEquals(1, pool.size());
+        pool.close();
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testUnreadableArgumentsFailOnlyTheirCall() throws Exception {
+        ConnectionPool pool = createPool(1, 8);
+        MyService proxy = createProxy(pool, TIMEOUT);
+        CompletableFuture<String> slow = proxy.callAsyncCompletionStage(DELAY).toCompletableFuture();
+        List unreadable = new ArrayList<>();
+        unreadable.add(new Unreadable());
+        try {
+            proxy.callWithList(unreadable);
+            fail("Expecting exception");
+        } catch (ServiceException e) {
+            assertEquals(ServiceException.REMOTE, e.getType());
+        }
+        // the connection stays open for the call in flight and the following ones
+        assertEquals("Finished", slow.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals("test", proxy.echo("test"));
+        pool.close();
+    }
+
+    @Test
+    public void testOneCallPerConnection() throws Exception {
+        ConnectionPool pool = createPool(1, 1);
+        MyService proxy = createProxy(pool, TIMEOUT);
+        long start = System.nanoTime();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int c = 0; c < 3; c++) {
+            results.add(proxy.callAsyncCompletionStage(DELAY / 3).toCompletableFuture());
+        }
+        for (CompletableFuture<String> result : results) {
+            assertEquals("Finished", result.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo((long) DELAY));
+        pool.close();
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        ep.close();
+        provider.close();
+        client.close();
+    }
+
+    /**
+     * Fails to deserialize on the server like an argument of a class the server does not know
+     */
+    static class Unreadable implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private void readObject(ObjectInputStream in) throws IOException {
+            throw new InvalidObjectException("unreadable");
+        }
+    }
+
+    private ConnectionPool createPool(int maxConnections, int maxPipelinedCalls) {
+        return new ConnectionPool(client, address.getHost(), address.getPort(), maxConnections, maxPipelinedCalls, null);
+    }
+
+    private MyService createProxy(ConnectionPool pool, int timeout) {
+        ClassLoader cl = MyService.class.getClassLoader();
+        TcpInvocationHandler handler = new TcpInvocationHandler(cl, address.getHost(), address.getPort(), ep.description().getId(), timeout,
+                                                                  Collections.<String, Integer>emptyMap(), pool, new BinarySerialization(),
+                                                                  PayloadCompression.NONE, false);
+        return (MyService)Proxy.newProxyInstance(cl, new Class[] {MyService.class}, handler);
+    }
+}
@@ -29,6 +29,7 @@ import static org.osgi.framework.Version.parseVersion;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -40,32 +41,51 @@ import org.apache.aries.rsa.provider.tcp.myservice.PrimitiveServiceImpl;
 import org.apache.aries.rsa.spi.Endpoint;
 import org.apache.aries.rsa.util.EndpointHelper;
 import org.easymock.EasyMock;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.BeforeClass;
-import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Version;
 
+@RunWith(Parameterized.class)
 public class TcpProviderPrimitiveTest {
 
-    private static PrimitiveService myServiceProxy;
-    private static Endpoint ep;
-    
+    private static TCPProvider provider;
+    private PrimitiveService myServiceProxy;
+    private Endpoint ep;
+
+    @Parameter
+    public String serialization;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> serializations() {
+        return asList(new Object[][] {{"java"}, {"binary"}});
+    }
+
     @BeforeClass
-    public static void createServerAndProxy() {
+    public static void createProvider() {
+        provider = new TCPProvider();
+    }
+
+    @Before
+    public void createServerAndProxy() {
         Class<?>[] exportedInterfaces = new Class[] {PrimitiveService.class};
-        TCPProvider provider = new TCPProvider();
         Map<String, Object> props = new HashMap<>();
         EndpointHelper.addObjectClass(props, exportedInterfaces);
         props.put("aries.rsa.hostname", "localhost");
         props.put("aries.rsa.numThreads", "10");
+        props.put("aries.tcp.serialization", serialization);
         PrimitiveServiceImpl myService = new PrimitiveServiceImpl();
         BundleContext bc = EasyMock.mock(BundleContext.class);
         ep = provider.exportService(myService, bc, props, exportedInterfaces);
         Assert.assertThat(ep.description().getId(), startsWith("tcp://localhost:"));
-        System.out.println(ep.description());
         myServiceProxy = (PrimitiveService)provider.importEndpoint(PrimitiveService.class.getClassLoader(), 
                                                             bc,
                                                             exportedInterfaces, 
@@ -140,11 +160,6 @@ public class TcpProviderPrimitiveTest {
         assertThat(myServiceProxy.callVersionMap(map).entrySet(), everyItem(isIn(map.entrySet())));
     }
 
-    /**
-     * TODO DTOs seem to cause stack overflow at least on the apache jenkins (linux).
-     * On a Mac this seems to work.
-     */
-    @Ignore
     @Test
     public void testDTO() {
         DTOType dto = new DTOType();
@@ -152,7 +167,6 @@ public class TcpProviderPrimitiveTest {
         assertThat(myServiceProxy.callDTO(dto), samePropertyValuesAs(dto));
     }
     
-    @Ignore
     @Test
     public void testDTOAr() {
         DTOType dto = new DTOType();
@@ -162,9 +176,14 @@ public class TcpProviderPrimitiveTest {
         assertThat(result[0], samePropertyValuesAs(dtoAr[0]));
     }
     
-    @AfterClass
-    public static void close() throws IOException {
+    @After
+    public void close() throws IOException {
         ep.close();
     }
 
+    @AfterClass
+    public static void closeProvider() {
+        provider.close();
+    }
+
 }
@@ -113,6 +113,11 @@ public class TcpProviderTest {
         myServiceProxy.echo("test");
     }
     
+    @Test
+    public void testCallWithNullArgument() {
+        Assert.assertNull(myServiceProxy.echo(null));
+    }
+
     @Test
     public void testCallOneway() {
         myServiceProxy.callOneWay("test");
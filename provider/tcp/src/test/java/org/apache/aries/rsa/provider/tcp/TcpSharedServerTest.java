@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.provider.tcp.myservice.PrimitiveService;
+import org.apache.aries.rsa.provider.tcp.myservice.PrimitiveServiceImpl;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class TcpSharedServerTest {
+    private TCPProvider provider;
+    private BundleContext bc;
+
+    @Before
+    public void before() {
+        provider = new TCPProvider();
+        bc = EasyMock.mock(BundleContext.class);
+    }
+
+    @After
+    public void after() {
+        provider.close();
+    }
+
+    @Test
+    public void testServicesShareOnePort() throws Exception {
+        Endpoint ep1 = export(new MyServiceImpl(), MyService.class, null);
+        Endpoint ep2 = export(new PrimitiveServiceImpl(), PrimitiveService.class, null);
+        URI address1 = new URI(ep1.description().getId());
+        URI address2 = new URI(ep2.description().getId());
+        assertEquals(address1.getPort(), address2.getPort());
+        assertNotEquals(ep1.description().getId(), ep2.description().getId());
+
+        MyService myService = importEndpoint(ep1, MyService.class);
+        PrimitiveService primitiveService = importEndpoint(ep2, PrimitiveService.class);
+        assertEquals("test", myService.echo("test"));
+        assertEquals(1, primitiveService.callInt(1));
+
+        ep1.close();
+        assertEquals(2, primitiveService.callInt(2));
+        ep2.close();
+    }
+
+    @Test
+    public void testConfiguredPortIsNotShared() throws Exception {
+        Endpoint ep1 = export(new MyServiceImpl(), MyService.class, null);
+        Endpoint ep2 = export(new PrimitiveServiceImpl(), PrimitiveService.class, 0);
+        Endpoint ep3 = export(new PrimitiveServiceImpl(), PrimitiveService.class, 45347);
+        assertEquals("tcp://localhost:45347", ep3.description().getId());
+        assertEquals(new URI(ep1.description().getId()).getPort(), new URI(ep2.description().getId()).getPort());
+
+        PrimitiveService primitiveService = importEndpoint(ep3, PrimitiveService.class);
+        assertEquals(3, primitiveService.callInt(3));
+        ep1.close();
+        ep2.close();
+        ep3.close();
+    }
+
+    @Test
+    public void testLegacyClientOnSharedPort() throws Exception {
+        Endpoint ep1 = export(new MyServiceImpl(), MyService.class, null);
+        Endpoint ep2 = export(new PrimitiveServiceImpl(), PrimitiveService.class, null);
+
+        // legacy consumers do not name the endpoint, the method selects the service
+        MyService myService = importLegacy(ep1, MyService.class);
+        PrimitiveService primitiveService = importLegacy(ep2, PrimitiveService.class);
+        assertEquals("test", myService.echo("test"));
+        assertEquals(1, primitiveService.callInt(1));
+
+        Endpoint ep3 = export(new MyServiceImpl(), MyService.class, null);
+        try {
+            myService.echo("test");
+            fail("Call matches two services");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("several services"));
+        }
+        ep1.close();
+        ep2.close();
+        ep3.close();
+    }
+
+    private Endpoint export(Object service, Class<?> iface, Integer port) throws IOException {
+        Class<?>[] exportedInterfaces = new Class[] {iface};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        if (port != null) {
+            props.put("aries.rsa.port", port);
+        }
+        return provider.exportService(service, bc, props, exportedInterfaces);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T importLegacy(Endpoint ep, Class<T> iface) {
+        Map<String, Object> props = new HashMap<>(ep.description().getProperties());
+        props.remove(EndpointPropertiesParser.PROTOCOL_KEY);
+        return (T)provider.importEndpoint(iface.getClassLoader(), bc, new Class[] {iface}, new EndpointDescription(props));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T importEndpoint(Endpoint ep, Class<T> iface) {
+        return (T)provider.importEndpoint(iface.getClassLoader(), bc, new Class[] {iface}, ep.description());
+    }
+}
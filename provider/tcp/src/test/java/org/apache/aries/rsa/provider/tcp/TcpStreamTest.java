@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+
+/**
+ * InputStreams and large byte arrays are sent in chunks beside the call frames
+ */
+@RunWith(Parameterized.class)
+public class TcpStreamTest {
+
+    // larger than the flow control window, so the sender has to wait for credit
+    private static final int SIZE = 3 * FrameStreams.WINDOW + 17;
+    private static final int SLOW_TIMEOUT = 200;
+    private static TCPProvider provider;
+    private StreamServiceImpl service;
+    private Endpoint ep;
+    private StreamService proxy;
+
+    @Parameter
+    public String serialization;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> serializations() {
+        return asList(new Object[][] {{"java"}, {"binary"}});
+    }
+
+    public interface StreamService {
+        byte[] digest(InputStream in);
+
+        int readFirst(InputStream in);
+
+        InputStream open(int size);
+
+        InputStream openSlowly(int size);
+
+        byte[] reverse(byte[] data);
+    }
+
+    static class StreamServiceImpl implements StreamService {
+        final CountDownLatch slowClosed = new CountDownLatch(1);
+
+        @Override
+        public byte[] digest(InputStream in) {
+            try (InputStream stream = in) {
+                return readAll(stream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int readFirst(InputStream in) {
+            try (InputStream stream = in) {
+                return stream.read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public InputStream open(int size) {
+            return new ByteArrayInputStream(content(size));
+        }
+
+        @Override
+        public InputStream openSlowly(int size) {
+            try {
+                Thread.sleep(2 * SLOW_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ByteArrayInputStream(content(size)) {
+                @Override
+                public void close() {
+                    slowClosed.countDown();
+                }
+            };
+        }
+
+        @Override
+        public byte[] reverse(byte[] data) {
+            byte[] reversed = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                reversed[i] = data[data.length - 1 - i];
+            }
+            return reversed;
+        }
+    }
+
+    @BeforeClass
+    public static void createProvider() {
+        provider = new TCPProvider();
+    }
+
+    @Before
+    public void createServerAndProxy() {
+        Class<?>[] exportedInterfaces = new Class[] {StreamService.class};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.tcp.serialization", serialization);
+        props.put("osgi.basic.timeout", 10000);
+        props.put("aries.rsa.timeout.openSlowly", SLOW_TIMEOUT);
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        service = new StreamServiceImpl();
+        ep = provider.exportService(service, bc, props, exportedInterfaces);
+        proxy = (StreamService)provider.importEndpoint(StreamService.class.getClassLoader(),
+                                                       bc,
+                                                       exportedInterfaces,
+                                                       ep.description());
+    }
+
+    @Test
+    public void testStreamArgument() {
+        byte[] content = content(SIZE);
+        assertArrayEquals(content, proxy.digest(new ByteArrayInputStream(content)));
+    }
+
+    @Test
+    public void testFileArgument() throws IOException {
+        byte[] content = content(SIZE);
+        File file = File.createTempFile("stream", ".bin");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(content);
+            }
+            try (FileInputStream in = new FileInputStream(file)) {
+                // starts at the current position of the stream
+                in.skip(10);
+                byte[] received = proxy.digest(in);
+                assertEquals(SIZE - 10, received.length);
+                assertEquals(content[10], received[0]);
+                assertEquals(content[SIZE - 1], received[SIZE - 11]);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamResult() throws IOException {
+        try (InputStream in = proxy.open(SIZE)) {
+            assertArrayEquals(content(SIZE), readAll(in));
+        }
+    }
+
+    @Test
+    public void testStreamOfLateResponseIsReleased() throws InterruptedException {
+        try {
+            proxy.openSlowly(SIZE);
+            fail("Expecting timeout");
+        } catch (ServiceException e) {
+            // the result arrives after the timeout
+        }
+        // larger than the flow control window, so the server only closes it once the consumer cancels
+        assertTrue(service.slowClosed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClosingStreamCancelsTransfer() throws IOException {
+        byte[] content = content(SIZE);
+        CountingInputStream in = new CountingInputStream(content);
+        assertEquals(content[0] & 0xff, proxy.readFirst(in));
+        assertTrue(in.read < SIZE);
+        // the connection is still usable
+        assertArrayEquals(content, proxy.digest(new ByteArrayInputStream(content)));
+    }
+
+    @Test
+    public void testLargeByteArray() {
+        byte[] content = content(SIZE);
+        byte[] reversed = proxy.reverse(content);
+        assertEquals(content.length, reversed.length);
+        assertEquals(content[0], reversed[SIZE - 1]);
+        assertEquals(content[SIZE - 1], reversed[0]);
+    }
+
+    @Test
+    public void testSmallByteArray() {
+        assertArrayEquals(new byte[] {3, 2, 1}, proxy.reverse(new byte[] {1, 2, 3}));
+    }
+
+    @After
+    public void close() throws IOException {
+        ep.close();
+    }
+
+    @AfterClass
+    public static void closeProvider() {
+        provider.close();
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    static class CountingInputStream extends ByteArrayInputStream {
+        volatile int read;
+
+        CountingInputStream(byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int count = super.read(b, off, len);
+            read += Math.max(count, 0);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.provider.tcp.ser.BinarySerialization;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Consumers on the same host prefer the Unix domain socket of the exporter and fall back to TCP
+ */
+public class TcpUnixSocketTest {
+
+    private static final int TIMEOUT = 1000;
+    private TCPProvider provider = new TCPProvider();
+    private TcpClient client;
+    private File socket;
+    private Endpoint ep;
+    private URI address;
+
+    @Before
+    public void export() throws Exception {
+        socket = new File(System.getProperty("java.io.tmpdir"), "aries-rsa-test-" + System.nanoTime() + ".sock");
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        props.put("aries.tcp.unixSocket", socket.getPath());
+        BundleContext bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        address = new URI(ep.description().getId());
+        client = new TcpClient();
+    }
+
+    @Test
+    public void testCallOverUnixSocket() {
+        assumeTrue(UnixSockets.isSupported());
+        String path = new EndpointPropertiesParser(ep.description()).getUnixAddress();
+        assertEquals(socket.getAbsolutePath(), path);
+        ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 2, path);
+        assertEquals("test", createProxy(pool).echo("test"));
+        assertTrue(pool.isUnixSocket());
+        pool.close();
+    }
+
+    @Test
+    public void testFallbackToTcp() {
+        String missing = new File(socket.getParentFile(), "missing-" + socket.getName()).getPath();
+        ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 2,
+                                                 UnixSockets.isSupported() ? missing : null);
+        assertEquals("test", createProxy(pool).echo("test"));
+        assertFalse(pool.isUnixSocket());
+        pool.close();
+    }
+
+    @Test
+    public void testUnsupportedRuntimePublishesTcpOnly() {
+        assumeFalse(UnixSockets.isSupported());
+        assertNull(new EndpointPropertiesParser(ep.description()).getUnixAddress());
+        assertFalse(socket.exists());
+    }
+
+    @Test
+    public void testSocketIsRemovedOnClose() throws IOException {
+        assumeTrue(UnixSockets.isSupported());
+        assertTrue(socket.exists());
+        ep.close();
+        ep = null;
+        assertFalse(socket.exists());
+    }
+
+    @Test
+    public void testOtherFilesAreNotReplaced() throws IOException {
+        assumeTrue(UnixSockets.isSupported());
+        File file = new File(socket.getParentFile(), "file-" + socket.getName());
+        Files.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        File directory = new File(socket.getParentFile(), "dir-" + socket.getName());
+        assertTrue(directory.mkdir());
+        TCPServer server = new TCPServer(0, 1);
+        try {
+            assertNull(server.listenUnix(file.getPath()));
+            assertNull(server.listenUnix(directory.getPath()));
+            assertEquals("content", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            assertTrue(directory.isDirectory());
+            File stale = new File(socket.getParentFile(), "stale-" + socket.getName());
+            try (ServerSocketChannel channel = UnixSockets.openServerChannel()) {
+                channel.bind(UnixSockets.address(stale.getPath()));
+            }
+            assertEquals(stale.getAbsolutePath(), server.listenUnix(stale.getPath()));
+        } finally {
+            server.close();
+            file.delete();
+            directory.delete();
+        }
+    }
+
+    @After
+    public void close() throws IOException {
+        if (ep != null) {
+            ep.close();
+        }
+        provider.close();
+        client.close();
+    }
+
+    private MyService createProxy(ConnectionPool pool) {
+        ClassLoader cl = MyService.class.getClassLoader();
+        TcpInvocationHandler handler = new TcpInvocationHandler(cl, address.getHost(), address.getPort(), ep.description().getId(), TIMEOUT,
+                                                                  Collections.<String, Integer>emptyMap(), pool, new BinarySerialization(),
+                                                                  PayloadCompression.NONE, false);
+        return (MyService)Proxy.newProxyInstance(cl, new Class[] {MyService.class}, handler);
+    }
+}
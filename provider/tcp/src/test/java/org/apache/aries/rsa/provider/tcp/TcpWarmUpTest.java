@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.myservice.MyService;
+import org.apache.aries.rsa.provider.tcp.myservice.MyServiceImpl;
+import org.apache.aries.rsa.spi.Endpoint;
+import org.apache.aries.rsa.spi.ImportReadiness;
+import org.apache.aries.rsa.util.EndpointHelper;
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class TcpWarmUpTest {
+
+    private static TCPProvider provider;
+    private static Endpoint ep;
+    private static BundleContext bc;
+    private static URI address;
+    private static TcpClient client;
+
+    @BeforeClass
+    public static void createServer() throws Exception {
+        Class<?>[] exportedInterfaces = new Class[] {MyService.class};
+        provider = new TCPProvider();
+        Map<String, Object> props = new HashMap<>();
+        EndpointHelper.addObjectClass(props, exportedInterfaces);
+        props.put("aries.rsa.hostname", "localhost");
+        bc = EasyMock.mock(BundleContext.class);
+        ep = provider.exportService(new MyServiceImpl(), bc, props, exportedInterfaces);
+        address = new URI(ep.description().getId());
+        client = new TcpClient();
+    }
+
+    @Test
+    public void testWarmUpOpensConnections() throws Exception {
+        ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 4);
+        pool.warmUp(3).get(5, TimeUnit.SECONDS);
+        assertEquals(3, pool.size());
+        // already warm
+        assertTrue(pool.warmUp(2).isDone());
+        assertEquals(3, pool.size());
+        pool.close();
+    }
+
+    @Test
+    public void testWarmUpIsLimitedByMaxConnections() throws Exception {
+        ConnectionPool pool = new ConnectionPool(client, address.getHost(), address.getPort(), 2);
+        pool.warmUp(5).get(5, TimeUnit.SECONDS);
+        assertEquals(2, pool.size());
+        pool.close();
+    }
+
+    @Test
+    public void testWarmUpFailsIfServerIsNotReachable() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ConnectionPool pool = new ConnectionPool(client, "localhost", port, 2);
+        CompletableFuture<Void> ready = pool.warmUp(2);
+        try {
+            ready.get(5, TimeUnit.SECONDS);
+            fail("Expecting connection failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        pool.close();
+    }
+
+    @Test
+    public void testImportIsReadyAfterWarmUp() throws Exception {
+        Map<String, Object> props = new HashMap<>(ep.description().getProperties());
+        props.put(EndpointPropertiesParser.MIN_CONNECTIONS_KEY, "2");
+        TCPProvider consumer = new TCPProvider();
+        try {
+            MyService proxy = (MyService)consumer.importEndpoint(MyService.class.getClassLoader(),
+                                                                 bc,
+                                                                 new Class[] {MyService.class},
+                                                                 new EndpointDescription(props));
+            ImportReadiness.of(proxy).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            assertEquals("test", proxy.echo("test"));
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Test
+    public void testImportWithoutWarmUpIsReady() {
+        TCPProvider consumer = new TCPProvider();
+        try {
+            Object proxy = consumer.importEndpoint(MyService.class.getClassLoader(),
+                                                   bc,
+                                                   new Class[] {MyService.class},
+                                                   ep.description());
+            assertTrue(ImportReadiness.of(proxy).toCompletableFuture().isDone());
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        ep.close();
+        provider.close();
+        client.close();
+    }
+}
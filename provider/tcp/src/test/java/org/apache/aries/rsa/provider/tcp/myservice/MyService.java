@@ -33,7 +33,6 @@ public interface MyService {
     
     void callException();
     
-    // Oneway not yet supported
     @Oneway
     void callOneWay(String msg);
     
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.myservice.DTOType;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+public class BinarySerializationTest {
+    private Serialization serialization = new BinarySerialization();
+
+    @Test
+    public void testPrimitives() throws Exception {
+        assertNull(roundTrip(null));
+        assertEquals(true, roundTrip(true));
+        assertEquals((byte) -1, roundTrip((byte) -1));
+        assertEquals((short) 300, roundTrip((short) 300));
+        assertEquals('x', roundTrip('x'));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(-1, roundTrip(-1));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(1.5f, roundTrip(1.5f));
+        assertEquals(-2.5d, roundTrip(-2.5d));
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        assertEquals("", roundTrip(""));
+        assertEquals("ä€😀", roundTrip("ä€😀"));
+        char[] chars = new char[70000];
+        Arrays.fill(chars, 'a');
+        String large = new String(chars);
+        assertEquals(large, roundTrip(large));
+    }
+
+    @Test
+    public void testVersionAndEnum() throws Exception {
+        assertEquals(Version.parseVersion("1.2.3.qualifier"), roundTrip(Version.parseVersion("1.2.3.qualifier")));
+        assertEquals(TimeUnit.SECONDS, roundTrip(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testArrays() throws Exception {
+        assertArrayEquals(new byte[] {1, 2}, (byte[]) roundTrip(new byte[] {1, 2}));
+        assertArrayEquals(new int[] {1, -2}, (int[]) roundTrip(new int[] {1, -2}));
+        assertArrayEquals(new long[] {1, -2}, (long[]) roundTrip(new long[] {1, -2}));
+        assertArrayEquals(new char[] {'a'}, (char[]) roundTrip(new char[] {'a'}));
+        assertArrayEquals(new String[] {"a", null}, (String[]) roundTrip(new String[] {"a", null}));
+        int[][] matrix = new int[][] {{1}, {2, 3}};
+        assertArrayEquals(matrix, (int[][]) roundTrip(matrix));
+        Object[] args = new Object[] {"a", 1, new Version[] {Version.emptyVersion}};
+        Object[] result = (Object[]) roundTrip(args);
+        assertEquals(Object[].class, result.getClass());
+        assertArrayEquals(args, result);
+    }
+
+    @Test
+    public void testCollections() throws Exception {
+        List<String> list = new LinkedList<>(Arrays.asList("a", "b"));
+        assertEquals(list, roundTrip(list));
+        assertEquals(LinkedList.class, roundTrip(list).getClass());
+        assertEquals(ArrayList.class, roundTrip(new ArrayList<>(list)).getClass());
+        assertEquals(Arrays.asList("a").getClass(), roundTrip(Arrays.asList("a")).getClass());
+        assertEquals(Collections.unmodifiableList(list).getClass(), roundTrip(Collections.unmodifiableList(list)).getClass());
+        TreeSet<Integer> set = new TreeSet<>(Arrays.asList(3, 1, 2));
+        assertEquals(set, roundTrip(set));
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", Arrays.asList(1, 2));
+        map.put("b", new TreeMap<>(Collections.singletonMap("c", "d")));
+        assertEquals(map, roundTrip(map));
+    }
+
+    @Test
+    public void testOtherJavaUtilCollectionsKeepTheirType() throws Exception {
+        Hashtable<String, Integer> table = new Hashtable<>(Collections.singletonMap("a", 1));
+        assertEquals(Hashtable.class, roundTrip(table).getClass());
+        assertEquals(table, roundTrip(table));
+        Properties properties = new Properties();
+        properties.setProperty("a", "b");
+        assertEquals(Properties.class, roundTrip(properties).getClass());
+        assertEquals(properties, roundTrip(properties));
+        Vector<String> vector = new Vector<>(Arrays.asList("a", "b"));
+        assertEquals(Vector.class, roundTrip(vector).getClass());
+        assertEquals(vector, roundTrip(vector));
+        EnumMap<TimeUnit, String> enumMap = new EnumMap<>(TimeUnit.class);
+        enumMap.put(TimeUnit.SECONDS, "s");
+        assertEquals(EnumMap.class, roundTrip(enumMap).getClass());
+        assertEquals(enumMap, roundTrip(enumMap));
+    }
+
+    @Test
+    public void testDTO() throws Exception {
+        DTOType dto = new DTOType();
+        dto.value = "test";
+        DTOType result = (DTOType) roundTrip(dto);
+        assertEquals("test", result.value);
+    }
+
+    @Test
+    public void testJavaSerializationFallback() throws Exception {
+        assertEquals(new BigDecimal("1.5"), roundTrip(new BigDecimal("1.5")));
+        Object copy = roundTrip(new CopyOnWriteArrayList<>(Arrays.asList("a")));
+        assertThat(copy, instanceOf(CopyOnWriteArrayList.class));
+        assertEquals(Arrays.asList("a"), copy);
+        IllegalStateException e = (IllegalStateException) roundTrip(new IllegalStateException("failed"));
+        assertEquals("failed", e.getMessage());
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        Object[] args = new Object[] {"test", 42, new ArrayList<>(Arrays.asList(Version.parseVersion("1.0.0")))};
+        assertThat(write(serialization, args).length, lessThan(write(new JavaSerialization(), args).length / 4));
+    }
+
+    private Object roundTrip(Object value) throws IOException, ClassNotFoundException {
+        byte[] data = write(serialization, value);
+        try (ObjectInput in = serialization.createInput(new ByteArrayInputStream(data), getClass().getClassLoader())) {
+            return in.readObject();
+        }
+    }
+
+    private static byte[] write(Serialization serialization, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutput out = serialization.createOutput(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.rsa.provider.tcp.myservice.DTOType;
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.junit.Test;
+
+public class ConnectionDictionaryTest {
+    private ConnectionDictionary client = new ConnectionDictionary();
+    private ConnectionDictionary server = new ConnectionDictionary();
+
+    @Test
+    public void testStringIsReferencedAfterAck() throws Exception {
+        String endpointId = "tcp://localhost:8201/2c7a04b5-4ae0-4c64-a0c4-15d5ab3d38e1";
+        byte[] first = writeString(endpointId);
+        assertEquals(endpointId, readString(first));
+        // not acknowledged yet, so the definition is repeated
+        byte[] second = writeString(endpointId);
+        assertArrayEquals(first, second);
+        assertEquals(endpointId, readString(second));
+
+        acknowledge(server, client);
+        byte[] third = writeString(endpointId);
+        assertEquals(1, third.length);
+        assertEquals(endpointId, readString(third));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testUndefinedReference() throws Exception {
+        client.readString(new DataInputStream(new ByteArrayInputStream(new byte[] {2})));
+    }
+
+    @Test
+    public void testIdsAreLimited() throws Exception {
+        for (int c = 1; c <= ConnectionDictionary.MAX_ENTRIES; c++) {
+            assertEquals("value" + c, readString(writeString("value" + c)));
+        }
+        byte[] full = writeString("value");
+        assertEquals(0, full[0]);
+        assertEquals("value", readString(full));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testIdAboveLimitIsRejected() throws Exception {
+        server.define((ConnectionDictionary.MAX_ENTRIES + 1) << 1 | 1, "value");
+    }
+
+    @Test
+    public void testObjectsAreNotKeptAlive() throws Exception {
+        Object value = new Object();
+        WeakReference<Object> ref = new WeakReference<>(value);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        client.writeCode(new DataOutputStream(bytes), value);
+        value = null;
+        for (int c = 0; c < 50 && ref.get() != null; c++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void testJavaClassDescriptors() throws Exception {
+        Serialization serialization = new JavaSerialization();
+        BigDecimal value = new BigDecimal("1.5");
+        byte[] first = write(serialization, value);
+        assertEquals(value, read(serialization, first));
+
+        acknowledge(server, client);
+        byte[] second = write(serialization, value);
+        assertThat(second.length, lessThan(first.length / 2));
+        assertEquals(value, read(serialization, second));
+    }
+
+    @Test
+    public void testBinaryClassNames() throws Exception {
+        Serialization serialization = new BinarySerialization();
+        DTOType dto = new DTOType();
+        dto.value = "test";
+        Object[] args = new Object[] {dto, TimeUnit.SECONDS};
+        byte[] first = write(serialization, args);
+        read(serialization, first);
+
+        acknowledge(server, client);
+        byte[] second = write(serialization, args);
+        assertThat(second.length, lessThan(first.length / 2));
+        Object[] result = (Object[]) read(serialization, second);
+        assertEquals("test", ((DTOType) result[0]).value);
+        assertEquals(TimeUnit.SECONDS, result[1]);
+    }
+
+    private byte[] writeString(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        client.writeString(new DataOutputStream(bytes), value);
+        return bytes.toByteArray();
+    }
+
+    private String readString(byte[] data) throws IOException {
+        return server.readString(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private byte[] write(Serialization serialization, Object obj) throws IOException {
+        DictionaryOutputStream bytes = new DictionaryOutputStream(client);
+        try (ObjectOutput out = serialization.createOutput(bytes)) {
+            out.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object read(Serialization serialization, byte[] data) throws Exception {
+        try (ObjectInput in = serialization.createInput(new DictionaryInputStream(data, server), getClass().getClassLoader())) {
+            return in.readObject();
+        }
+    }
+
+    private static void acknowledge(ConnectionDictionary receiver, ConnectionDictionary sender) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        receiver.writeAcks(new DataOutputStream(bytes));
+        sender.readAcks(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static final class DictionaryOutputStream extends ByteArrayOutputStream implements ConnectionDictionary.Source {
+        private final ConnectionDictionary dictionary;
+
+        DictionaryOutputStream(ConnectionDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public ConnectionDictionary getDictionary() {
+            return dictionary;
+        }
+    }
+
+    private static final class DictionaryInputStream extends ByteArrayInputStream implements ConnectionDictionary.Source {
+        private final ConnectionDictionary dictionary;
+
+        DictionaryInputStream(byte[] data, ConnectionDictionary dictionary) {
+            super(data);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public ConnectionDictionary getDictionary() {
+            return dictionary;
+        }
+    }
+}
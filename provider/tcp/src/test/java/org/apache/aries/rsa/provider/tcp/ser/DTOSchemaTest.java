@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.provider.tcp.ser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.aries.rsa.provider.tcp.serialization.Serialization;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+public class DTOSchemaTest {
+
+    public static class PointDTO {
+        public static final String CONSTANT = "ignored";
+        public String label;
+        public int x;
+        public long y;
+        public Version version;
+        public List<PointDTO> neighbours;
+        public PointDTO next;
+    }
+
+    @Test
+    public void testSchemaIsCached() {
+        DTOSchema schema = DTOSchema.forClass(PointDTO.class);
+        assertNotNull(schema);
+        assertSame(schema, DTOSchema.forClass(PointDTO.class));
+        assertEquals(6, schema.size());
+        assertEquals("label", schema.getName(0));
+        assertEquals("y", schema.getName(5));
+        assertNull(DTOSchema.forClass(String.class));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        assertPoint((PointDTO) roundTrip(new BinarySerialization(), createPoint()));
+    }
+
+    @Test
+    public void testJava() throws Exception {
+        assertPoint((PointDTO) roundTrip(new JavaSerialization(), createPoint()));
+    }
+
+    private PointDTO createPoint() {
+        PointDTO point = new PointDTO();
+        point.label = "a";
+        point.x = 1;
+        point.y = -2;
+        point.version = Version.parseVersion("1.2.3");
+        point.next = new PointDTO();
+        point.next.label = "b";
+        PointDTO neighbour = new PointDTO();
+        neighbour.x = 3;
+        point.neighbours = Arrays.asList(neighbour);
+        return point;
+    }
+
+    private void assertPoint(PointDTO point) {
+        assertEquals("a", point.label);
+        assertEquals(1, point.x);
+        assertEquals(-2, point.y);
+        assertEquals(Version.parseVersion("1.2.3"), point.version);
+        assertEquals("b", point.next.label);
+        assertNull(point.next.next);
+        assertEquals(3, point.neighbours.get(0).x);
+    }
+
+    private Object roundTrip(Serialization serialization, Object value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutput out = serialization.createOutput(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInput in = serialization.createInput(new ByteArrayInputStream(bytes.toByteArray()), getClass().getClassLoader())) {
+            return in.readObject();
+        }
+    }
+}
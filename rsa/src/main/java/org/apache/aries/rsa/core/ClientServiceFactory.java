@@ -18,6 +18,10 @@
  */
 package org.apache.aries.rsa.core;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
@@ -84,6 +88,7 @@ public class ClientServiceFactory implements ServiceFactory {
     }
 
     public void ungetService(Bundle requestingBundle, ServiceRegistration sreg, Object serviceObject) {
+        closeProxy(serviceObject);
         synchronized (this) {
             serviceCounter--;
             LOG.debug("Services still provided by this ServiceFactory: {}", serviceCounter);
@@ -91,6 +96,22 @@ public class ClientServiceFactory implements ServiceFactory {
         }
     }
 
+    /**
+     * Lets the distribution provider release the resources of a proxy whose invocation handler is closeable
+     */
+    private void closeProxy(Object proxy) {
+        if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+            if (handler instanceof Closeable) {
+                try {
+                    ((Closeable) handler).close();
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Problem closing the remote proxy for {}", endpoint.getInterfaces(), e);
+                }
+            }
+        }
+    }
+
     public void setCloseable(boolean closeable) {
         synchronized (this) {
             this.closeable = closeable;
@@ -21,6 +21,10 @@ package org.apache.aries.rsa.core;
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.isA;
 
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -66,6 +70,29 @@ public class ClientServiceFactoryTest extends TestCase {
         assertSame(myTestProxyObject, csf.getService(consumerBundle, sreg));
     }
 
+    public void testUngetServiceClosesProxy() throws ClassNotFoundException {
+        final boolean[] closed = new boolean[1];
+        class ClosingHandler implements InvocationHandler, Closeable {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        }
+        Object proxy = Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Runnable.class},
+                                              new ClosingHandler());
+        EndpointDescription endpoint = createTestEndpointDesc();
+        ImportRegistrationImpl iri = new ImportRegistrationImpl(endpoint, null, null);
+        ClientServiceFactory csf = new ClientServiceFactory(endpoint, mockDistributionProvider(proxy), iri);
+
+        csf.ungetService(null, null, proxy);
+        assertTrue(closed[0]);
+    }
+
     /**
      * Creating dummy class as I was not able to really mock it
      * @param myTestProxyObject
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.spi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Implemented by the invocation handlers of proxies whose distribution provider connects to the
+ * remote endpoint ahead of the first call.
+ */
+@ConsumerType
+public interface ImportReadiness {
+
+    /**
+     * @return completes once the proxy can be called without waiting for a connection or fails if
+     *         the connection could not be established
+     */
+    CompletionStage<Void> ready();
+
+    /**
+     * @param proxy service object of an imported endpoint
+     * @return the readiness of the proxy. Proxies that connect on their first call are always ready
+     */
+    static CompletionStage<Void> of(Object proxy) {
+        if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+            if (handler instanceof ImportReadiness) {
+                return ((ImportReadiness) handler).ready();
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+}
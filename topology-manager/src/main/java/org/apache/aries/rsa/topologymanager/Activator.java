@@ -29,6 +29,7 @@ import org.apache.aries.rsa.topologymanager.exporter.DefaultExportPolicy;
 import org.apache.aries.rsa.topologymanager.exporter.EndpointListenerNotifier;
 import org.apache.aries.rsa.topologymanager.exporter.TopologyManagerExport;
 import org.apache.aries.rsa.topologymanager.importer.TopologyManagerImport;
+import org.apache.aries.rsa.topologymanager.importer.aggregate.AggregationSettings;
 import org.apache.aries.rsa.topologymanager.importer.local.EndpointListenerManager;
 import org.osgi.annotation.bundle.Capability;
 import org.osgi.annotation.bundle.Header;
@@ -122,7 +123,7 @@ public class Activator implements BundleActivator {
         exportExecutor = new ThreadPoolExecutor(5, 10, 50, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(TopologyManagerExport.class));
         exportManager = new TopologyManagerExport(notifier, exportExecutor, policy);
         epeListenerTracker = new EndpointEventListenerTracker(bc, exportManager);
-        importManager = new TopologyManagerImport(bc);
+        importManager = new TopologyManagerImport(bc, AggregationSettings.fromProperties(bc));
         endpointListenerManager = new EndpointListenerManager(bc, importManager);
         endpointListenerManager.start();
         rsaTracker = new RSATracker(bc, RemoteServiceAdmin.class, null);
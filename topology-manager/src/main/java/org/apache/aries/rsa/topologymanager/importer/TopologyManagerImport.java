@@ -28,6 +28,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.aries.rsa.topologymanager.NamedThreadFactory;
+import org.apache.aries.rsa.topologymanager.importer.aggregate.AggregationSettings;
+import org.apache.aries.rsa.topologymanager.importer.aggregate.ImportAggregator;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.EndpointEvent;
@@ -44,6 +46,8 @@ import org.slf4j.LoggerFactory;
  * Listens for remote endpoints using the EndpointListener. The scope of this listener is managed by
  * the EndpointListenerManager.
  * Manages local creation and destruction of service imports using the available RemoteServiceAdmin services.
+ * If aggregate imports are enabled, the imports of the same interfaces are additionally registered
+ * as one service that spreads the calls across them.
  */
 public class TopologyManagerImport implements EndpointEventListener, RemoteServiceAdminListener {
 
@@ -52,6 +56,7 @@ public class TopologyManagerImport implements EndpointEventListener, RemoteServi
     private final ExecutorService execService;
     private final BundleContext bctx;
     private final Set<RemoteServiceAdmin> rsaSet;
+    private final ImportAggregator aggregator;
     private volatile boolean stopped;
 
     /**
@@ -65,8 +70,17 @@ public class TopologyManagerImport implements EndpointEventListener, RemoteServi
     private final MultiMap<String, ImportRegistration> importedServices = new MultiMap<>();
     
     public TopologyManagerImport(BundleContext bc) {
+        this(bc, null);
+    }
+
+    /**
+     * @param aggregation settings of aggregate imports or null to only import each endpoint as a
+     *        separate service
+     */
+    public TopologyManagerImport(BundleContext bc, AggregationSettings aggregation) {
         this.rsaSet = new CopyOnWriteArraySet<>();
         bctx = bc;
+        aggregator = aggregation != null ? new ImportAggregator(bc, aggregation) : null;
         execService = new ThreadPoolExecutor(5, 10, 50, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(getClass()));
     }
     
@@ -85,6 +99,9 @@ public class TopologyManagerImport implements EndpointEventListener, RemoteServi
             Thread.currentThread().interrupt();
         }
         closeAllImports();
+        if (aggregator != null) {
+            aggregator.close();
+        }
     }
 
     private void closeAllImports() {
@@ -143,6 +160,9 @@ public class TopologyManagerImport implements EndpointEventListener, RemoteServi
                 if (ir != null) {
                     // import was successful
                     importedServices.put(filter, ir);
+                    if (aggregator != null) {
+                        aggregator.add(ir);
+                    }
                 }
             }
         }
@@ -224,6 +244,9 @@ public class TopologyManagerImport implements EndpointEventListener, RemoteServi
     private void closeAll(List<ImportRegistration> removed) {
         for (ImportRegistration ir : removed) {
             importedServices.remove(ir);
+            if (aggregator != null) {
+                aggregator.remove(ir);
+            }
             ir.close();
         }
     }
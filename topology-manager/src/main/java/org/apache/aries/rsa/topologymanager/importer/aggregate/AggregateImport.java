@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * All imported endpoints of the same service interfaces, registered as one service. Each consumer
+ * gets a proxy that spreads its calls across the endpoints. The service ranks above the imports it
+ * aggregates, so consumers that bind to one service get the aggregate.
+ */
+final class AggregateImport implements ServiceFactory<Object> {
+    /**
+     * Service property of the aggregate listing the ids of its endpoints
+     */
+    static final String AGGREGATE = "aries.rsa.aggregate";
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregateImport.class);
+    private static final Set<String> OWN_PROPERTIES = new HashSet<>(Arrays.asList(
+        Constants.OBJECTCLASS, Constants.SERVICE_ID, Constants.SERVICE_PID, Constants.SERVICE_RANKING,
+        Constants.SERVICE_BUNDLEID, Constants.SERVICE_SCOPE, RemoteConstants.ENDPOINT_ID,
+        RemoteConstants.ENDPOINT_SERVICE_ID, RemoteConstants.ENDPOINT_FRAMEWORK_UUID));
+
+    private final List<String> interfaces;
+    private final AggregationSettings settings;
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+    private final Map<AggregateInvocationHandler, Boolean> handlers = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private ServiceRegistration<?> registration;
+
+    AggregateImport(List<String> interfaces, AggregationSettings settings) {
+        this.interfaces = interfaces;
+        this.settings = settings;
+    }
+
+    AggregationSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the member of the imported service, which is new if this is its first registration
+     */
+    synchronized Member add(ServiceReference<?> reference) {
+        for (Member member : members) {
+            if (member.reference.equals(reference)) {
+                member.registrations++;
+                return member;
+            }
+        }
+        Member member = new Member(reference);
+        member.registrations = 1;
+        members.add(member);
+        return member;
+    }
+
+    /**
+     * @return true if the member has no registrations left and was removed
+     */
+    synchronized boolean remove(Member member) {
+        if (--member.registrations > 0) {
+            return false;
+        }
+        members.remove(member);
+        for (AggregateInvocationHandler handler : handlers.keySet()) {
+            handler.release(member.reference);
+        }
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * Registers the aggregate or updates its properties after its members changed
+     */
+    synchronized void update(BundleContext bc) {
+        if (members.isEmpty()) {
+            if (registration != null) {
+                try {
+                    registration.unregister();
+                } catch (IllegalStateException e) {
+                    // already unregistered
+                }
+                registration = null;
+            }
+            return;
+        }
+        Dictionary<String, Object> props = getProperties();
+        if (registration == null) {
+            registration = bc.registerService(interfaces.toArray(new String[interfaces.size()]), this, props);
+            LOG.info("Registered aggregate import of {} with endpoints {}", interfaces, members);
+        } else {
+            registration.setProperties(props);
+            LOG.debug("Endpoints of aggregate import of {} changed to {}", interfaces, members);
+        }
+    }
+
+    private Dictionary<String, Object> getProperties() {
+        Dictionary<String, Object> props = new Hashtable<>();
+        ServiceReference<?> first = members.get(0).reference;
+        for (String key : first.getPropertyKeys()) {
+            if (!OWN_PROPERTIES.contains(key)) {
+                props.put(key, first.getProperty(key));
+            }
+        }
+        List<String> endpointIds = new ArrayList<>();
+        int ranking = Integer.MIN_VALUE;
+        for (Member member : members) {
+            endpointIds.add(member.getEndpointId());
+            ranking = Math.max(ranking, member.getRanking());
+        }
+        props.put(AGGREGATE, endpointIds.toArray(new String[endpointIds.size()]));
+        props.put(RemoteConstants.SERVICE_IMPORTED, Boolean.TRUE);
+        props.put(Constants.SERVICE_RANKING, ranking == Integer.MAX_VALUE ? ranking : ranking + 1);
+        return props;
+    }
+
+    /**
+     * Picks the endpoint for the next attempt of a call. Ejected endpoints are only used if no
+     * other endpoint is left.
+     *
+     * @param tried endpoints the call already failed on
+     * @return the endpoint or null if the call was tried on all endpoints
+     */
+    Member select(Collection<Member> tried) {
+        long now = System.nanoTime();
+        List<Member> available = new ArrayList<>();
+        List<Member> ejected = new ArrayList<>();
+        for (Member member : members) {
+            if (!tried.contains(member)) {
+                (member.isEjected(now) ? ejected : available).add(member);
+            }
+        }
+        List<Member> candidates = available.isEmpty() ? ejected : available;
+        return candidates.isEmpty() ? null : settings.selection.select(candidates, sequence.getAndIncrement());
+    }
+
+    void failed(Member member, Throwable cause) {
+        long ejection = member.failed(settings);
+        if (ejection > 0) {
+            LOG.warn("Ejecting endpoint {} of {} for {} ms after: {}", member, interfaces, ejection, cause.toString());
+        }
+    }
+
+    @Override
+    public Object getService(Bundle bundle, ServiceRegistration<Object> registration) {
+        ClassLoader loader = bundle.adapt(BundleWiring.class).getClassLoader();
+        try {
+            Class<?>[] classes = new Class<?>[interfaces.size()];
+            for (int c = 0; c < classes.length; c++) {
+                classes[c] = loader.loadClass(interfaces.get(c));
+            }
+            AggregateInvocationHandler handler = new AggregateInvocationHandler(this, bundle.getBundleContext());
+            handlers.put(handler, Boolean.TRUE);
+            return Proxy.newProxyInstance(loader, classes, handler);
+        } catch (Exception e) {
+            LOG.warn("Problem creating the aggregate proxy of {}", interfaces, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void ungetService(Bundle bundle, ServiceRegistration<Object> registration, Object service) {
+        AggregateInvocationHandler handler = (AggregateInvocationHandler) Proxy.getInvocationHandler(service);
+        handlers.remove(handler);
+        handler.close();
+    }
+
+    @Override
+    public String toString() {
+        return interfaces.toString();
+    }
+}
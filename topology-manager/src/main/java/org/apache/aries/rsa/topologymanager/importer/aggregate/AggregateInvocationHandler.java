@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Proxy of an aggregate import for one consumer. Each call goes to the endpoint picked by the
+ * selection of the aggregate. Calls that fail with a {@link ServiceException} of type REMOTE or
+ * UNREGISTERED count as failures of the endpoint. Idempotent calls are then tried again on another
+ * endpoint. Results of type CompletionStage are tracked until they complete.
+ */
+final class AggregateInvocationHandler implements InvocationHandler {
+    private final AggregateImport aggregate;
+    private final BundleContext consumer;
+    private final Map<ServiceReference<?>, Object> delegates = new ConcurrentHashMap<>();
+
+    AggregateInvocationHandler(AggregateImport aggregate, BundleContext consumer) {
+        this.aggregate = aggregate;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "Aggregate import of " + aggregate;
+            }
+        }
+        return attempt(method, args, new ArrayList<Member>(), null);
+    }
+
+    /**
+     * Calls the method on the next endpoint that was not tried yet
+     *
+     * @param lastFailure failure of the previous attempt or null
+     */
+    private Object attempt(Method method, Object[] args, List<Member> tried, Throwable lastFailure) throws Throwable {
+        while (true) {
+            Member member = aggregate.select(tried);
+            if (member == null) {
+                if (lastFailure != null) {
+                    throw lastFailure;
+                }
+                throw new ServiceException("No endpoint of " + aggregate + " is available", ServiceException.UNREGISTERED);
+            }
+            tried.add(member);
+            Object delegate = getDelegate(member);
+            if (delegate == null) {
+                // the import is being closed
+                continue;
+            }
+            long start = System.nanoTime();
+            member.started();
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (!isUnreachable(cause)) {
+                    member.succeeded(System.nanoTime() - start);
+                    throw cause;
+                }
+                aggregate.failed(member, cause);
+                if (!canRetry(member, method, tried)) {
+                    throw cause;
+                }
+                lastFailure = cause;
+                continue;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                member.succeeded(System.nanoTime() - start);
+                throw e;
+            }
+            if (result instanceof CompletionStage && method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+                return whenDone(method, args, tried, member, start, (CompletionStage<?>) result);
+            }
+            member.succeeded(System.nanoTime() - start);
+            return result;
+        }
+    }
+
+    private CompletableFuture<Object> whenDone(final Method method, final Object[] args, final List<Member> tried,
+                                               final Member member, final long start, CompletionStage<?> stage) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        stage.whenComplete((value, failure) -> {
+            if (failure == null) {
+                member.succeeded(System.nanoTime() - start);
+                result.complete(value);
+                return;
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+            if (!isUnreachable(cause)) {
+                member.succeeded(System.nanoTime() - start);
+                result.completeExceptionally(cause);
+                return;
+            }
+            aggregate.failed(member, cause);
+            if (!canRetry(member, method, tried)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            try {
+                complete(result, attempt(method, args, tried, cause));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static void complete(final CompletableFuture<Object> result, Object next) {
+        if (next instanceof CompletionStage) {
+            ((CompletionStage<?>) next).whenComplete((value, failure) -> {
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure);
+                }
+            });
+        } else {
+            result.complete(next);
+        }
+    }
+
+    private boolean canRetry(Member member, Method method, List<Member> tried) {
+        return member.isIdempotent(method) && tried.size() < aggregate.getSettings().maxAttempts;
+    }
+
+    /**
+     * @return true if the call did not reach the endpoint or its result did not come back
+     */
+    private static boolean isUnreachable(Throwable cause) {
+        if (!(cause instanceof ServiceException)) {
+            return false;
+        }
+        int type = ((ServiceException) cause).getType();
+        return type == ServiceException.REMOTE || type == ServiceException.UNREGISTERED;
+    }
+
+    private Object getDelegate(Member member) {
+        Object delegate = delegates.get(member.reference);
+        if (delegate != null) {
+            return delegate;
+        }
+        try {
+            delegate = consumer.getService(member.reference);
+        } catch (IllegalStateException e) {
+            // consumer stopped
+            return null;
+        }
+        if (delegate == null) {
+            return null;
+        }
+        Object existing = delegates.putIfAbsent(member.reference, delegate);
+        if (existing != null) {
+            unget(member.reference);
+            return existing;
+        }
+        return delegate;
+    }
+
+    /**
+     * Releases the proxy of an endpoint that left the aggregate
+     */
+    void release(ServiceReference<?> reference) {
+        if (delegates.remove(reference) != null) {
+            unget(reference);
+        }
+    }
+
+    void close() {
+        for (ServiceReference<?> reference : delegates.keySet()) {
+            release(reference);
+        }
+    }
+
+    private void unget(ServiceReference<?> reference) {
+        try {
+            consumer.ungetService(reference);
+        } catch (IllegalStateException e) {
+            // consumer stopped, its services are released by the framework
+        }
+    }
+}
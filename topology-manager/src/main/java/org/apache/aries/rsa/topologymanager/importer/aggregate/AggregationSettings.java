@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration of the aggregate import mode, read from framework properties
+ */
+public final class AggregationSettings {
+    /**
+     * Selection of the endpoint for each call: round-robin, least-outstanding or latency-weighted.
+     * Aggregate imports are disabled if not set.
+     */
+    public static final String SELECTION = "rsa.import.aggregate";
+    /**
+     * Number of consecutive failed calls after which an endpoint is ejected
+     */
+    public static final String MAX_FAILURES = "rsa.import.maxFailures";
+    /**
+     * Time in ms an endpoint stays ejected. Doubles with every ejection that follows without a
+     * successful call in between.
+     */
+    public static final String EJECTION_TIME = "rsa.import.ejectionTime";
+    /**
+     * Number of endpoints an idempotent call is tried on before its failure is reported
+     */
+    public static final String MAX_ATTEMPTS = "rsa.import.maxAttempts";
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregationSettings.class);
+
+    final Selection selection;
+    final int maxFailures;
+    final long ejectionMillis;
+    final int maxAttempts;
+
+    AggregationSettings(Selection selection, int maxFailures, long ejectionMillis, int maxAttempts) {
+        this.selection = selection;
+        this.maxFailures = Math.max(1, maxFailures);
+        this.ejectionMillis = ejectionMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * @return the settings or null if aggregate imports are not enabled
+     */
+    public static AggregationSettings fromProperties(BundleContext bc) {
+        String name = bc.getProperty(SELECTION);
+        if (name == null || name.trim().isEmpty()) {
+            return null;
+        }
+        Selection selection = Selection.forName(name.trim());
+        if (selection == null) {
+            LOG.warn("Unknown selection {} in {}, aggregate imports are disabled", name, SELECTION);
+            return null;
+        }
+        return new AggregationSettings(selection,
+                                       getInt(bc, MAX_FAILURES, 1),
+                                       getInt(bc, EJECTION_TIME, 10000),
+                                       getInt(bc, MAX_ATTEMPTS, 3));
+    }
+
+    private static int getInt(BundleContext bc, String key, int defaultValue) {
+        String value = bc.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value {} of {}, using {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.remoteserviceadmin.ImportReference;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+
+/**
+ * Groups the imported services by their interfaces and keeps one {@link AggregateImport} per group
+ * registered while it has endpoints.
+ */
+public class ImportAggregator {
+
+    private final BundleContext bctx;
+    private final AggregationSettings settings;
+    private final Map<List<String>, AggregateImport> aggregates = new HashMap<>();
+    private final Map<ImportRegistration, Membership> memberships = new HashMap<>();
+
+    public ImportAggregator(BundleContext bc, AggregationSettings settings) {
+        this.bctx = bc;
+        this.settings = settings;
+    }
+
+    /**
+     * Adds the service of a successful import to the aggregate of its interfaces
+     */
+    public synchronized void add(ImportRegistration ir) {
+        ImportReference reference = ir.getImportReference();
+        if (reference == null || memberships.containsKey(ir)) {
+            return;
+        }
+        ServiceReference<?> service = reference.getImportedService();
+        if (service == null || reference.getImportedEndpoint() == null) {
+            return;
+        }
+        List<String> interfaces = new ArrayList<>(reference.getImportedEndpoint().getInterfaces());
+        Collections.sort(interfaces);
+        AggregateImport aggregate = aggregates.get(interfaces);
+        if (aggregate == null) {
+            aggregate = new AggregateImport(interfaces, settings);
+            aggregates.put(interfaces, aggregate);
+        }
+        Member member = aggregate.add(service);
+        memberships.put(ir, new Membership(aggregate, member));
+        if (member.registrations == 1) {
+            aggregate.update(bctx);
+        }
+    }
+
+    /**
+     * Removes the service of an import that is closed
+     */
+    public synchronized void remove(ImportRegistration ir) {
+        Membership membership = memberships.remove(ir);
+        if (membership == null) {
+            return;
+        }
+        AggregateImport aggregate = membership.aggregate;
+        if (aggregate.remove(membership.member)) {
+            aggregate.update(bctx);
+            if (aggregate.isEmpty()) {
+                aggregates.values().remove(aggregate);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        for (ImportRegistration ir : new ArrayList<>(memberships.keySet())) {
+            remove(ir);
+        }
+    }
+
+    private static final class Membership {
+        final AggregateImport aggregate;
+        final Member member;
+
+        Membership(AggregateImport aggregate, Member member) {
+            this.aggregate = aggregate;
+            this.member = member;
+        }
+    }
+}
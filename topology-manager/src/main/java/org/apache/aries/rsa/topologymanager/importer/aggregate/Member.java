@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.aries.rsa.util.StringPlus;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+/**
+ * One imported endpoint of an aggregate import and the health and load the calls observed on it
+ */
+final class Member {
+    /**
+     * Endpoint property listing the names of the methods that can safely be called again after a
+     * failure, or * for all methods
+     */
+    static final String IDEMPOTENT = "aries.rsa.idempotent";
+
+    /**
+     * Weight of the latest call in the average latency
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final int MAX_EJECTION_DOUBLINGS = 5;
+
+    final ServiceReference<?> reference;
+    private final Set<String> idempotentMethods;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile long latencyNanos;
+    private int consecutiveFailures;
+    private int ejections;
+    private volatile long ejectedUntil;
+
+    /**
+     * Number of import registrations of the endpoint, guarded by the aggregate
+     */
+    int registrations;
+
+    Member(ServiceReference<?> reference) {
+        this.reference = reference;
+        List<String> idempotent = StringPlus.normalize(reference.getProperty(IDEMPOTENT));
+        this.idempotentMethods = idempotent != null ? new HashSet<>(idempotent) : Collections.<String>emptySet();
+    }
+
+    String getEndpointId() {
+        return String.valueOf(reference.getProperty(RemoteConstants.ENDPOINT_ID));
+    }
+
+    int getRanking() {
+        Object ranking = reference.getProperty(Constants.SERVICE_RANKING);
+        return ranking instanceof Integer ? (Integer) ranking : 0;
+    }
+
+    boolean isIdempotent(Method method) {
+        return idempotentMethods.contains("*") || idempotentMethods.contains(method.getName());
+    }
+
+    boolean isEjected(long now) {
+        return now < ejectedUntil;
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return average latency of the calls or 0 if no call completed yet
+     */
+    long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    void started() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * The endpoint answered, even if the service threw an exception
+     */
+    void succeeded(long nanos) {
+        outstanding.decrementAndGet();
+        synchronized (this) {
+            long average = latencyNanos;
+            latencyNanos = average == 0 ? Math.max(1, nanos) : Math.max(1, (long) (average + LATENCY_WEIGHT * (nanos - average)));
+            consecutiveFailures = 0;
+            ejections = 0;
+        }
+    }
+
+    /**
+     * The call did not reach the endpoint or its answer did not arrive
+     *
+     * @return the time in ms the endpoint is ejected for or 0 if it stays available
+     */
+    long failed(AggregationSettings settings) {
+        outstanding.decrementAndGet();
+        synchronized (this) {
+            if (++consecutiveFailures < settings.maxFailures) {
+                return 0;
+            }
+            consecutiveFailures = 0;
+            long millis = settings.ejectionMillis << Math.min(ejections, MAX_EJECTION_DOUBLINGS);
+            ejections++;
+            ejectedUntil = System.nanoTime() + millis * 1000000;
+            return millis;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getEndpointId();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Strategies that pick the endpoint for the next call among the available ones
+ */
+enum Selection {
+    /**
+     * Each endpoint in turn
+     */
+    ROUND_ROBIN("round-robin") {
+        @Override
+        Member select(List<Member> candidates, long sequence) {
+            return candidates.get((int) (sequence % candidates.size()));
+        }
+    },
+    /**
+     * The endpoint with the fewest calls in flight. Ties are broken in turn.
+     */
+    LEAST_OUTSTANDING("least-outstanding") {
+        @Override
+        Member select(List<Member> candidates, long sequence) {
+            int size = candidates.size();
+            int first = (int) (sequence % size);
+            Member best = null;
+            for (int c = 0; c < size; c++) {
+                Member member = candidates.get((first + c) % size);
+                if (best == null || member.getOutstanding() < best.getOutstanding()) {
+                    best = member;
+                }
+            }
+            return best;
+        }
+    },
+    /**
+     * A random endpoint, weighted by the inverse of its average latency. Endpoints without a
+     * completed call yet get the average weight of the others.
+     */
+    LATENCY_WEIGHTED("latency-weighted") {
+        @Override
+        Member select(List<Member> candidates, long sequence) {
+            int size = candidates.size();
+            double[] weights = new double[size];
+            double known = 0;
+            int knownCount = 0;
+            for (int c = 0; c < size; c++) {
+                long latency = candidates.get(c).getLatencyNanos();
+                if (latency > 0) {
+                    weights[c] = 1d / latency;
+                    known += weights[c];
+                    knownCount++;
+                }
+            }
+            double unknown = knownCount > 0 ? known / knownCount : 1;
+            double total = 0;
+            for (int c = 0; c < size; c++) {
+                if (weights[c] == 0) {
+                    weights[c] = unknown;
+                }
+                total += weights[c];
+            }
+            double point = ThreadLocalRandom.current().nextDouble(total);
+            for (int c = 0; c < size - 1; c++) {
+                point -= weights[c];
+                if (point < 0) {
+                    return candidates.get(c);
+                }
+            }
+            return candidates.get(size - 1);
+        }
+    };
+
+    private final String name;
+
+    Selection(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param candidates at least one endpoint
+     * @param sequence number of the call
+     */
+    abstract Member select(List<Member> candidates, long sequence);
+
+    static Selection forName(String name) {
+        for (Selection selection : values()) {
+            if (selection.name.equalsIgnoreCase(name)) {
+                return selection;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
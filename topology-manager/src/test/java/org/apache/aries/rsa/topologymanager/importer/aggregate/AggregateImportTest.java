@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.rsa.topologymanager.importer.aggregate;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+public class AggregateImportTest {
+
+    public interface Greeter {
+        String greet(String name);
+
+        void update(String name);
+
+        CompletionStage<String> greetAsync(String name);
+    }
+
+    @Test
+    public void testRoundRobinSpreadsCalls() {
+        AggregateImport aggregate = aggregate(Selection.ROUND_ROBIN);
+        GreeterImpl[] greeters = {new GreeterImpl("a"), new GreeterImpl("b"), new GreeterImpl("c")};
+        Greeter proxy = proxy(aggregate, greeters);
+        for (int c = 0; c < 30; c++) {
+            proxy.greet("x");
+        }
+        for (GreeterImpl greeter : greeters) {
+            assertEquals(10, greeter.calls.get());
+        }
+    }
+
+    @Test
+    public void testFailingEndpointIsEjected() {
+        AggregateImport aggregate = aggregate(Selection.ROUND_ROBIN);
+        GreeterImpl failing = new GreeterImpl("a");
+        failing.failing = true;
+        GreeterImpl working = new GreeterImpl("b");
+        Greeter proxy = proxy(aggregate, failing, working);
+        for (int c = 0; c < 10; c++) {
+            assertEquals("b x", proxy.greet("x"));
+        }
+        assertEquals(1, failing.calls.get());
+        assertEquals(10, working.calls.get());
+    }
+
+    @Test
+    public void testCallIsOnlyRetriedIfIdempotent() {
+        AggregateImport aggregate = aggregate(Selection.ROUND_ROBIN);
+        GreeterImpl failing = new GreeterImpl("a");
+        failing.failing = true;
+        Greeter proxy = proxy(aggregate, failing, new GreeterImpl("b"));
+        try {
+            proxy.update("x");
+            fail("Expecting ServiceException");
+        } catch (ServiceException e) {
+            assertEquals(ServiceException.REMOTE, e.getType());
+        }
+        // the ejected endpoint is not used while another one is available
+        proxy.update("x");
+        assertEquals(1, failing.calls.get());
+    }
+
+    @Test
+    public void testAsyncCallIsRetried() throws Exception {
+        AggregateImport aggregate = aggregate(Selection.ROUND_ROBIN);
+        GreeterImpl failing = new GreeterImpl("a");
+        failing.failing = true;
+        Greeter proxy = proxy(aggregate, failing, new GreeterImpl("b"));
+        assertEquals("b x", proxy.greetAsync("x").toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(1, failing.calls.get());
+    }
+
+    @Test
+    public void testApplicationExceptionIsNotRetried() throws Exception {
+        AggregateImport aggregate = aggregate(Selection.ROUND_ROBIN);
+        GreeterImpl greeter = new GreeterImpl("a");
+        Greeter proxy = proxy(aggregate, greeter, new GreeterImpl("b"));
+        try {
+            proxy.greet(null);
+            fail("Expecting IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            proxy.greetAsync(null).toCompletableFuture().get(1, TimeUnit.SECONDS);
+            fail("Expecting IllegalArgumentException");
+        } catch (ExecutionException e) {
+            assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+        }
+        assertEquals(1, greeter.calls.get());
+    }
+
+    @Test
+    public void testLeastOutstandingAvoidsBusyEndpoint() throws Exception {
+        AggregateImport aggregate = aggregate(Selection.LEAST_OUTSTANDING);
+        final GreeterImpl busy = new GreeterImpl("a");
+        GreeterImpl idle = new GreeterImpl("b");
+        final Greeter proxy = proxy(aggregate, busy, idle);
+        busy.block = new CountDownLatch(1);
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                proxy.greet("x");
+            }
+        });
+        caller.start();
+        busy.entered.await(1, TimeUnit.SECONDS);
+        for (int c = 0; c < 10; c++) {
+            assertEquals("b x", proxy.greet("x"));
+        }
+        busy.block.countDown();
+        caller.join(1000);
+        assertEquals(1, busy.calls.get());
+    }
+
+    @Test
+    public void testLatencyWeightedPrefersFastEndpoint() {
+        AggregateImport aggregate = aggregate(Selection.LATENCY_WEIGHTED);
+        GreeterImpl slow = new GreeterImpl("a");
+        slow.delay = 20;
+        GreeterImpl fast = new GreeterImpl("b");
+        Greeter proxy = proxy(aggregate, slow, fast);
+        for (int c = 0; c < 50; c++) {
+            proxy.greet("x");
+        }
+        assertThat(fast.calls.get(), greaterThan(4 * slow.calls.get()));
+    }
+
+    private AggregateImport aggregate(Selection selection) {
+        return new AggregateImport(Collections.singletonList(Greeter.class.getName()),
+                                   new AggregationSettings(selection, 1, 10000, 3));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Greeter proxy(AggregateImport aggregate, GreeterImpl... greeters) {
+        BundleContext consumer = EasyMock.createNiceMock(BundleContext.class);
+        for (GreeterImpl greeter : greeters) {
+            ServiceReference<Object> reference = EasyMock.createNiceMock(ServiceReference.class);
+            EasyMock.expect(reference.getProperty(RemoteConstants.ENDPOINT_ID)).andReturn(greeter.name).anyTimes();
+            EasyMock.expect(reference.getProperty(Member.IDEMPOTENT)).andReturn(Arrays.asList("greet", "greetAsync")).anyTimes();
+            EasyMock.replay(reference);
+            EasyMock.expect(consumer.getService(reference)).andReturn(greeter).anyTimes();
+            aggregate.add(reference);
+        }
+        EasyMock.replay(consumer);
+        AggregateInvocationHandler handler = new AggregateInvocationHandler(aggregate, consumer);
+        return (Greeter) Proxy.newProxyInstance(Greeter.class.getClassLoader(), new Class[] {Greeter.class}, handler);
+    }
+
+    static final class GreeterImpl implements Greeter {
+        final String name;
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile boolean failing;
+        volatile CountDownLatch block;
+        volatile long delay;
+
+        GreeterImpl(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String greet(String name) {
+            calls.incrementAndGet();
+            entered.countDown();
+            if (failing) {
+                throw new ServiceException("Connection refused", ServiceException.REMOTE);
+            }
+            if (name == null) {
+                throw new IllegalArgumentException();
+            }
+            try {
+                if (block != null) {
+                    block.await(1, TimeUnit.SECONDS);
+                }
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this.name + " " + name;
+        }
+
+        @Override
+        public void update(String name) {
+            greet(name);
+        }
+
+        @Override
+        public CompletionStage<String> greetAsync(String name) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            try {
+                result.complete(greet(name));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+    }
+}